@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.resourceaccesssecurity.impl;
+
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.resourceaccesssecurity.ResourceAccessGate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the gate chain evaluation of the security service. The thread count is set
+ * with the JMH option <code>-t</code>, the allocation rate is reported by <code>-prof gc</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AccessCheckBenchmark {
+
+    @Param({"1", "10", "100", "1000"})
+    public int gateCount;
+
+    /** <code>literal</code>, <code>prefix</code> or <code>regex</code> path patterns */
+    @Param({"literal", "prefix", "regex"})
+    public String patternKind;
+
+    /** whether <code>none</code>, <code>half</code> or <code>all</code> of the gates declare final operations */
+    @Param({"none", "half", "all"})
+    public String finalOperations;
+
+    @Param({"false", "true"})
+    public boolean multiPatternMatching;
+
+    private ResourceAccessSecurityImpl security;
+
+    private Resource resource;
+
+    @Setup
+    public void setup() {
+        security = BenchmarkSupport.security(gateCount, patternKind, finalOperations, multiPatternMatching, false);
+        resource = BenchmarkSupport.resource(BenchmarkSupport.PATH, 10);
+    }
+
+    @Benchmark
+    public Resource getReadableResource() {
+        return security.getReadableResource(resource);
+    }
+
+    @Benchmark
+    public boolean canUpdate() {
+        return security.canUpdate(resource);
+    }
+
+    @Benchmark
+    public boolean canCreate() {
+        return security.canCreate(BenchmarkSupport.PATH, null);
+    }
+
+    /**
+     * The checks of an editor toolbar, one call per operation.
+     */
+    @Benchmark
+    public void singleOperationChecks(final Blackhole blackhole) {
+        blackhole.consume(security.canUpdate(resource));
+        blackhole.consume(security.canDelete(resource));
+        blackhole.consume(security.canExecute(resource));
+        blackhole.consume(security.canOrderChildren(resource));
+    }
+
+    @Benchmark
+    public EnumSet<ResourceAccessGate.Operation> getAllowedOperations() {
+        return security.getAllowedOperations(resource);
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.resourceaccesssecurity.impl;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.sling.api.resource.ModifiableValueMap;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.SyntheticResource;
+import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.api.wrappers.ModifiableValueMapDecorator;
+import org.apache.sling.api.wrappers.ValueMapDecorator;
+import org.apache.sling.resourceaccesssecurity.AllowingResourceAccessGate;
+import org.apache.sling.resourceaccesssecurity.ResourceAccessGate;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceReference;
+
+/**
+ * Creates the gates, services and resources used by the benchmarks without a mocking framework,
+ * so the measured code is not dominated by mock invocations.
+ */
+final class BenchmarkSupport {
+
+    /** the path checked by the benchmarks */
+    static final String PATH = "/content/site0/page";
+
+    private BenchmarkSupport() {}
+
+    /**
+     * Returns a path pattern matching {@link #PATH} for even gate indexes.
+     *
+     * @param kind one of <code>literal</code>, <code>prefix</code> or <code>regex</code>
+     */
+    static String pathPattern(final String kind, final int index) {
+        final boolean matching = index % 2 == 0;
+        switch (kind) {
+            case "literal":
+                return matching ? PATH : "/content/site" + index + "/page";
+            case "prefix":
+                return matching ? "/content/site0/.*" : "/content/site" + index + "/.*";
+            case "regex":
+                return matching ? "/content/site[0-9]+/(page|other)" : "/content/tenant" + index + "/[a-z]+";
+            default:
+                throw new IllegalArgumentException("Unknown pattern kind " + kind);
+        }
+    }
+
+    /**
+     * Creates a security service with the given number of gates. Every fourth gate denies access,
+     * the lowest ranked gate grants it and all other gates can't decide.
+     *
+     * @param finalOperations one of <code>none</code>, <code>half</code> or <code>all</code>
+     */
+    static ProviderResourceAccessSecurityImpl security(
+            final int gateCount,
+            final String patternKind,
+            final String finalOperations,
+            final boolean multiPatternMatching,
+            final boolean gateMetrics) {
+        return security(gateCount, patternKind, finalOperations, multiPatternMatching, gateMetrics, 0, 0);
+    }
+
+    /**
+     * Creates a security service whose gates simulate a lookup taking the given time.
+     *
+     * @param gateLatencyMicros the duration of each gate call
+     * @param parallelEvaluationThreads the threads calling the gates concurrently, <code>0</code>
+     *      to call them one after another
+     */
+    static ProviderResourceAccessSecurityImpl security(
+            final int gateCount,
+            final String patternKind,
+            final String finalOperations,
+            final boolean multiPatternMatching,
+            final boolean gateMetrics,
+            final int gateLatencyMicros,
+            final int parallelEvaluationThreads) {
+        final ProviderResourceAccessSecurityImpl security = new ProviderResourceAccessSecurityImpl(
+                config(multiPatternMatching, gateMetrics, parallelEvaluationThreads), bundleContext());
+        for (int i = 0; i < gateCount; i++) {
+            final boolean isFinal = "all".equals(finalOperations) || ("half".equals(finalOperations) && i % 2 == 0);
+            final ResourceAccessGate.GateResult result = i == gateCount - 1
+                    ? ResourceAccessGate.GateResult.GRANTED
+                    : i % 4 == 3 ? ResourceAccessGate.GateResult.DENIED : ResourceAccessGate.GateResult.CANT_DECIDE;
+            security.bindResourceAccessGate(
+                    serviceReference(pathPattern(patternKind, i), isFinal, gateCount - i, i),
+                    new BenchmarkGate(result, gateLatencyMicros));
+        }
+        return security;
+    }
+
+    static ServiceReference<ResourceAccessGate> serviceReference(
+            final String path, final boolean isFinal, final int ranking, final long id) {
+        final Map<String, Object> properties = new HashMap<>();
+        properties.put(ResourceAccessGate.PATH, path);
+        properties.put(ResourceAccessGate.CONTEXT, ResourceAccessGate.PROVIDER_CONTEXT);
+        if (isFinal) {
+            properties.put(ResourceAccessGate.FINALOPERATIONS, new String[] {"read", "create", "update", "delete", "execute", "order-children"});
+        }
+        properties.put(Constants.SERVICE_RANKING, ranking);
+        properties.put(Constants.SERVICE_ID, id);
+        return proxy(ServiceReference.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getProperty":
+                    return properties.get(args[0]);
+                case "compareTo":
+                    final ServiceReference<?> other = (ServiceReference<?>) args[0];
+                    final int rankingOrder =
+                            Integer.compare(ranking, (Integer) other.getProperty(Constants.SERVICE_RANKING));
+                    return rankingOrder != 0
+                            ? rankingOrder
+                            : Long.compare((Long) other.getProperty(Constants.SERVICE_ID), id);
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                default:
+                    return null;
+            }
+        });
+    }
+
+    static ResourceAccessSecurityImpl.Config config(
+            final boolean multiPatternMatching, final boolean gateMetrics, final int parallelEvaluationThreads) {
+        return proxy(ResourceAccessSecurityImpl.Config.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "multi_pattern_matching":
+                    return multiPatternMatching;
+                case "gate_metrics":
+                    return gateMetrics;
+                case "decision_cache_size":
+                    return 0;
+                case "parallel_evaluation_threads":
+                    return parallelEvaluationThreads;
+                default:
+                    return method.getDefaultValue();
+            }
+        });
+    }
+
+    static BundleContext bundleContext() {
+        return proxy(BundleContext.class, (proxy, method, args) -> null);
+    }
+
+    /**
+     * Creates a resource with some values, which can be adapted to value maps.
+     */
+    static Resource resource(final String path, final int valueCount) {
+        final Map<String, Object> values = new HashMap<>();
+        for (int i = 0; i < valueCount; i++) {
+            values.put("property" + i, "value" + i);
+        }
+        return new SyntheticResource((ResourceResolver) null, path, "benchmark/resource") {
+
+            @SuppressWarnings("unchecked")
+            @Override
+            public <AdapterType> AdapterType adaptTo(final Class<AdapterType> type) {
+                if (type == ValueMap.class || type == Map.class) {
+                    return (AdapterType) new ValueMapDecorator(values);
+                }
+                if (type == ModifiableValueMap.class) {
+                    return (AdapterType) new ModifiableValueMapDecorator(values);
+                }
+                return super.adaptTo(type);
+            }
+
+            @Override
+            public ValueMap getValueMap() {
+                return new ValueMapDecorator(values);
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(final Class<?> type, final InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(BenchmarkSupport.class.getClassLoader(), new Class<?>[] {type}, handler);
+    }
+
+    /**
+     * A gate returning a fixed result for all operations, optionally after simulating a lookup.
+     */
+    static final class BenchmarkGate extends AllowingResourceAccessGate {
+
+        private final GateResult result;
+
+        private final long latencyNanos;
+
+        BenchmarkGate(final GateResult result) {
+            this(result, 0);
+        }
+
+        BenchmarkGate(final GateResult result, final int latencyMicros) {
+            this.result = result;
+            this.latencyNanos = TimeUnit.MICROSECONDS.toNanos(latencyMicros);
+        }
+
+        private GateResult lookup() {
+            if (latencyNanos > 0) {
+                LockSupport.parkNanos(latencyNanos);
+            }
+            return result;
+        }
+
+        @Override
+        public GateResult canRead(final Resource resource) {
+            return lookup();
+        }
+
+        @Override
+        public GateResult canCreate(final String absPathName, final ResourceResolver resourceResolver) {
+            return lookup();
+        }
+
+        @Override
+        public GateResult canUpdate(final Resource resource) {
+            return lookup();
+        }
+
+        @Override
+        public GateResult canDelete(final Resource resource) {
+            return lookup();
+        }
+
+        @Override
+        public GateResult canExecute(final Resource resource) {
+            return lookup();
+        }
+
+        @Override
+        public GateResult canOrderChildren(final Resource resource) {
+            return lookup();
+        }
+
+        @Override
+        public GateResult canReadValue(final Resource resource, final String valueName) {
+            return valueName.hashCode() % 2 == 0 ? GateResult.GRANTED : GateResult.DENIED;
+        }
+
+        @Override
+        public boolean hasReadRestrictions(final ResourceResolver resourceResolver) {
+            return true;
+        }
+
+        @Override
+        public boolean hasCreateRestrictions(final ResourceResolver resourceResolver) {
+            return true;
+        }
+
+        @Override
+        public boolean hasUpdateRestrictions(final ResourceResolver resourceResolver) {
+            return true;
+        }
+
+        @Override
+        public boolean hasDeleteRestrictions(final ResourceResolver resourceResolver) {
+            return true;
+        }
+
+        @Override
+        public boolean hasExecuteRestrictions(final ResourceResolver resourceResolver) {
+            return true;
+        }
+
+        @Override
+        public boolean hasOrderChildrenRestrictions(final ResourceResolver resourceResolver) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.resourceaccesssecurity.impl;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.sling.resourceaccesssecurity.ResourceAccessGate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the path matching of a single gate handler.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GateHandlerBenchmark {
+
+    /** <code>literal</code>, <code>prefix</code> or <code>regex</code> path patterns */
+    @Param({"literal", "prefix", "regex"})
+    public String patternKind;
+
+    private ResourceAccessGateHandler matching;
+
+    private ResourceAccessGateHandler notMatching;
+
+    @Setup
+    public void setup() {
+        final ResourceAccessGate gate =
+                new BenchmarkSupport.BenchmarkGate(ResourceAccessGate.GateResult.CANT_DECIDE);
+        matching = new ResourceAccessGateHandler(
+                BenchmarkSupport.serviceReference(BenchmarkSupport.pathPattern(patternKind, 0), false, 0, 0), gate);
+        notMatching = new ResourceAccessGateHandler(
+                BenchmarkSupport.serviceReference(BenchmarkSupport.pathPattern(patternKind, 1), false, 0, 1), gate);
+    }
+
+    @Benchmark
+    public boolean matches() {
+        return matching.matches(BenchmarkSupport.PATH, ResourceAccessGate.Operation.READ);
+    }
+
+    @Benchmark
+    public boolean doesNotMatch() {
+        return notMatching.matches(BenchmarkSupport.PATH, ResourceAccessGate.Operation.READ);
+    }
+}
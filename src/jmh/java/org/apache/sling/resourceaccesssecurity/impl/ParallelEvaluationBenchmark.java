@@ -0,0 +1,79 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.resourceaccesssecurity.impl;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.sling.api.resource.Resource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the latency of the gate chain if each gate does a slow lookup, calling the
+ * gates one after another or concurrently.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParallelEvaluationBenchmark {
+
+    @Param({"2", "10"})
+    public int gateCount;
+
+    @Param({"100", "1000"})
+    public int gateLatencyMicros;
+
+    /** <code>0</code> calls the gates one after another */
+    @Param({"0", "16"})
+    public int parallelEvaluationThreads;
+
+    private ProviderResourceAccessSecurityImpl security;
+
+    private Resource resource;
+
+    @Setup
+    public void setup() {
+        security = BenchmarkSupport.security(
+                gateCount, "prefix", "none", false, false, gateLatencyMicros, parallelEvaluationThreads);
+        resource = BenchmarkSupport.resource(BenchmarkSupport.PATH, 10);
+    }
+
+    @TearDown
+    public void tearDown() {
+        security.deactivate();
+    }
+
+    @Benchmark
+    public boolean canUpdate() {
+        return security.canUpdate(resource);
+    }
+}
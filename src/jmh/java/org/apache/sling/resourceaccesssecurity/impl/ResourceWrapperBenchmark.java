@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.resourceaccesssecurity.impl;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.sling.api.resource.ModifiableValueMap;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.resourceaccesssecurity.ResourceAccessGate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures adapting a wrapped resource to value maps and reading a value from them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResourceWrapperBenchmark {
+
+    @Param({"false", "true"})
+    public boolean modifiable;
+
+    /** whether reading values is restricted by a gate */
+    @Param({"false", "true"})
+    public boolean readRestricted;
+
+    @Param({"10", "100"})
+    public int valueCount;
+
+    private Resource wrapper;
+
+    @Setup
+    public void setup() {
+        final Resource resource = BenchmarkSupport.resource(BenchmarkSupport.PATH, valueCount);
+        final List<ResourceAccessGate> gates = readRestricted
+                ? Collections.singletonList(
+                        new BenchmarkSupport.BenchmarkGate(ResourceAccessGate.GateResult.GRANTED))
+                : null;
+        wrapper = new AccessGateResourceWrapper(resource, gates, modifiable);
+    }
+
+    @Benchmark
+    public Object adaptToValueMap() {
+        return wrapper.adaptTo(ValueMap.class).get("property1");
+    }
+
+    @Benchmark
+    public Object adaptToModifiableValueMap() {
+        final ModifiableValueMap map = wrapper.adaptTo(ModifiableValueMap.class);
+        return map != null ? map.get("property1") : null;
+    }
+}
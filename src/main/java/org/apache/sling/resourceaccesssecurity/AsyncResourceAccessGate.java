@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.resourceaccesssecurity;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.osgi.annotation.versioning.ConsumerType;
+
+/**
+ * An <code>AsyncResourceAccessGate</code> is a {@link ResourceAccessGate} which is
+ * able to decide the access without blocking, for example by doing a non-blocking
+ * lookup in an external store.
+ *
+ * The asynchronous methods are used by the {@link AsyncResourceAccessSecurity}, the
+ * synchronous checks still use the methods of {@link ResourceAccessGate}. The default
+ * implementations complete with the result of the synchronous method, a gate overrides
+ * the methods of the operations it does lookups for.
+ */
+@ConsumerType
+public interface AsyncResourceAccessGate extends ResourceAccessGate {
+
+    /**
+     * Decides the read access like {@link #canRead(Resource)}.
+     */
+    default CompletionStage<GateResult> canReadAsync(final Resource resource) {
+        return CompletableFuture.completedFuture(canRead(resource));
+    }
+
+    /**
+     * Decides the create access like {@link #canCreate(String, ResourceResolver)}.
+     */
+    default CompletionStage<GateResult> canCreateAsync(
+            final String absPathName, final ResourceResolver resourceResolver) {
+        return CompletableFuture.completedFuture(canCreate(absPathName, resourceResolver));
+    }
+
+    /**
+     * Decides the update access like {@link #canUpdate(Resource)}.
+     */
+    default CompletionStage<GateResult> canUpdateAsync(final Resource resource) {
+        return CompletableFuture.completedFuture(canUpdate(resource));
+    }
+
+    /**
+     * Decides the delete access like {@link #canDelete(Resource)}.
+     */
+    default CompletionStage<GateResult> canDeleteAsync(final Resource resource) {
+        return CompletableFuture.completedFuture(canDelete(resource));
+    }
+
+    /**
+     * Decides the execute access like {@link #canExecute(Resource)}.
+     */
+    default CompletionStage<GateResult> canExecuteAsync(final Resource resource) {
+        return CompletableFuture.completedFuture(canExecute(resource));
+    }
+
+    /**
+     * Decides the order children access like {@link #canOrderChildren(Resource)}.
+     */
+    default CompletionStage<GateResult> canOrderChildrenAsync(final Resource resource) {
+        return CompletableFuture.completedFuture(canOrderChildren(resource));
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.resourceaccesssecurity;
+
+import java.util.concurrent.CompletionStage;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.security.ResourceAccessSecurity;
+import org.osgi.annotation.versioning.ProviderType;
+
+/**
+ * The <code>AsyncResourceAccessSecurity</code> offers the checks of the
+ * {@link ResourceAccessSecurity} without blocking the calling thread.
+ *
+ * Gates implementing {@link AsyncResourceAccessGate} are called with their
+ * asynchronous methods, all other gates are called by a thread of the service.
+ * The gates are still called one after another in ranking order, the result is
+ * the same as the one of the corresponding synchronous check.
+ *
+ * The resource access security services of this bundle are registered with this
+ * interface in addition to {@link ResourceAccessSecurity}.
+ */
+@ProviderType
+public interface AsyncResourceAccessSecurity {
+
+    /**
+     * Checks the read access like {@link ResourceAccessSecurity#getReadableResource(Resource)}.
+     *
+     * @param resource the resource to check
+     * @return a stage completed with the readable resource or <code>null</code>
+     */
+    CompletionStage<Resource> getReadableResourceAsync(Resource resource);
+
+    /**
+     * Checks the create access like {@link ResourceAccessSecurity#canCreate(String, ResourceResolver)}.
+     */
+    CompletionStage<Boolean> canCreateAsync(String absPathName, ResourceResolver resourceResolver);
+
+    /**
+     * Checks the update access like {@link ResourceAccessSecurity#canUpdate(Resource)}.
+     */
+    CompletionStage<Boolean> canUpdateAsync(Resource resource);
+
+    /**
+     * Checks the delete access like {@link ResourceAccessSecurity#canDelete(Resource)}.
+     */
+    CompletionStage<Boolean> canDeleteAsync(Resource resource);
+
+    /**
+     * Checks the execute access like {@link ResourceAccessSecurity#canExecute(Resource)}.
+     */
+    CompletionStage<Boolean> canExecuteAsync(Resource resource);
+
+    /**
+     * Checks the order children access like {@link ResourceAccessSecurity#canOrderChildren(Resource)}.
+     */
+    CompletionStage<Boolean> canOrderChildrenAsync(Resource resource);
+}
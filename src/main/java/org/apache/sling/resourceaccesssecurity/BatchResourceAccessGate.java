@@ -0,0 +1,46 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.resourceaccesssecurity;
+
+import java.util.List;
+
+import org.apache.sling.api.resource.Resource;
+import org.osgi.annotation.versioning.ConsumerType;
+
+/**
+ * A <code>BatchResourceAccessGate</code> is a {@link ResourceAccessGate} which
+ * is able to decide the read access for several resources in one call, for example
+ * by doing a single lookup in an external store.
+ *
+ * The batch method is used when a list of resources is filtered through
+ * {@link ExtendedResourceAccessSecurity#getReadableResources(List)}, single
+ * resources are still checked with {@link #canRead(Resource)}.
+ */
+@ConsumerType
+public interface BatchResourceAccessGate extends ResourceAccessGate {
+
+    /**
+     * Decides the read access for several resources. The result for every resource
+     * must be the same as the one returned by {@link #canRead(Resource)}.
+     *
+     * @param resources the resources, all of them match the path of this gate
+     * @return the results in the order of the resources
+     */
+    GateResult[] canRead(List<Resource> resources);
+}
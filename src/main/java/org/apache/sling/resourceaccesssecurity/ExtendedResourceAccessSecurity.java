@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.resourceaccesssecurity;
+
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.security.ResourceAccessSecurity;
+import org.osgi.annotation.versioning.ProviderType;
+
+/**
+ * The <code>ExtendedResourceAccessSecurity</code> extends the
+ * {@link ResourceAccessSecurity} with methods checking several resources at once.
+ *
+ * The resource access security services of this bundle are registered with this
+ * interface in addition to {@link ResourceAccessSecurity}.
+ */
+@ProviderType
+public interface ExtendedResourceAccessSecurity extends ResourceAccessSecurity {
+
+    /**
+     * Filters a list of resources like calling {@link #getReadableResource(Resource)}
+     * for each of them, but runs the gates for all of them at once.
+     *
+     * @param resources the resources to check
+     * @return the readable resources in the order of the given list, wrapped
+     *      like by {@link #getReadableResource(Resource)}
+     */
+    List<Resource> getReadableResources(List<Resource> resources);
+
+    /**
+     * Filters the resources of an iterator, like {@link #getReadableResources(List)}.
+     * The resources are read and checked lazily in batches.
+     *
+     * @param resources the resources to check
+     * @return an iterator over the readable resources
+     */
+    Iterator<Resource> getReadableResources(Iterator<Resource> resources);
+
+    /**
+     * Returns the operations which are allowed on an existing resource, like calling
+     * {@link #canUpdate(Resource)}, {@link #canDelete(Resource)}, {@link #canExecute(Resource)}
+     * and {@link #canOrderChildren(Resource)}, but walks the gates once for all of them.
+     *
+     * @param resource the resource to check
+     * @return the allowed operations out of {@link ResourceAccessGate.Operation#UPDATE},
+     *      {@link ResourceAccessGate.Operation#DELETE}, {@link ResourceAccessGate.Operation#EXECUTE}
+     *      and {@link ResourceAccessGate.Operation#ORDER_CHILDREN}
+     */
+    EnumSet<ResourceAccessGate.Operation> getAllowedOperations(Resource resource);
+}
@@ -0,0 +1,52 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.resourceaccesssecurity;
+
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.sling.api.resource.Resource;
+import org.osgi.annotation.versioning.ConsumerType;
+
+/**
+ * A <code>MultiOperationResourceAccessGate</code> is a {@link ResourceAccessGate} which
+ * is able to decide several operations on a resource in one call, for example because
+ * the permissions of all operations are kept in the same access control entry.
+ *
+ * The method is used when the security service needs the results of this gate for more
+ * than one operation on the same resource, by
+ * {@link ExtendedResourceAccessSecurity#getAllowedOperations(Resource)} and to decide the
+ * update permission together with the read access of a resource. Single checks still call
+ * the method of the operation. Gates which are called with a {@link #TIMEOUT}, share their
+ * results through {@link #SHAREDOPERATIONS}, deny subtrees through {@link #SUBTREEOPERATIONS}
+ * or implement {@link SubtreeResourceAccessGate} are called once per operation.
+ */
+@ConsumerType
+public interface MultiOperationResourceAccessGate extends ResourceAccessGate {
+
+    /**
+     * Decides several operations on the resource. The result for every operation must be
+     * the same as the one returned by the method of the operation.
+     *
+     * @param resource the resource, it matches the path of this gate
+     * @param operations the operations, {@link Operation#CREATE} is never requested
+     * @return the results of the operations, containing a result for each requested operation
+     */
+    Map<Operation, GateResult> checkOperations(Resource resource, Set<Operation> operations);
+}
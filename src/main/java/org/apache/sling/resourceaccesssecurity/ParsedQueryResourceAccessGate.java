@@ -0,0 +1,49 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.resourceaccesssecurity;
+
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.security.AccessSecurityException;
+import org.osgi.annotation.versioning.ConsumerType;
+
+/**
+ * A <code>ParsedQueryResourceAccessGate</code> is a {@link ResourceAccessGate} which
+ * is able to transform a query in the representation of the {@link QueryCodec}
+ * registered for its language.
+ *
+ * If a codec is registered for the language of a query, consecutive gates of this
+ * type share the parsed query, which is parsed once before the first of them and
+ * serialized once after the last of them. Otherwise
+ * {@link #transformQuery(String, String, ResourceResolver)} is called.
+ */
+@ConsumerType
+public interface ParsedQueryResourceAccessGate extends ResourceAccessGate {
+
+    /**
+     * Transforms a parsed query, like {@link #transformQuery(String, String, ResourceResolver)}.
+     *
+     * @param query the query in the representation of the codec for the language
+     * @param language the language in which the query is expressed
+     * @param resourceResolver the resource resolver which resolves the query
+     * @return the transformed query, which might be the given instance, never <code>null</code>
+     * @throws AccessSecurityException if the query can't be transformed
+     */
+    Object transformParsedQuery(Object query, String language, ResourceResolver resourceResolver)
+            throws AccessSecurityException;
+}
@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.resourceaccesssecurity;
+
+import org.apache.sling.api.security.AccessSecurityException;
+import org.osgi.annotation.versioning.ConsumerType;
+
+/**
+ * A <code>QueryCodec</code> parses the queries of a query language into a
+ * representation which can be transformed by {@link ParsedQueryResourceAccessGate}s
+ * and serializes the transformed representation again.
+ *
+ * Codecs are registered as OSGi services with the {@link #LANGUAGE} property. If
+ * several codecs are registered for a language the one with the highest ranking is used.
+ */
+@ConsumerType
+public interface QueryCodec {
+
+    /**
+     * The name of the (multi-value) service registration property containing the query
+     * languages handled by the codec (value is "querylanguage").
+     */
+    String LANGUAGE = "querylanguage";
+
+    /**
+     * Parses a query.
+     *
+     * @param query the query
+     * @param language the language in which the query is expressed
+     * @return the parsed query, never <code>null</code>
+     * @throws AccessSecurityException if the query can't be parsed
+     */
+    Object parse(String query, String language) throws AccessSecurityException;
+
+    /**
+     * Serializes a parsed query.
+     *
+     * @param query the query returned by {@link #parse(String, String)} or a gate
+     * @param language the language in which the query is expressed
+     * @return the query, never <code>null</code>
+     * @throws AccessSecurityException if the query can't be serialized
+     */
+    String serialize(Object query, String language) throws AccessSecurityException;
+}
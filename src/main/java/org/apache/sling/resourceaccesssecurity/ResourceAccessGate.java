@@ -53,6 +53,11 @@ import org.osgi.annotation.versioning.ConsumerType;
  * case the access gate is invoked for the whole resource tree.
  * This is indicated by the required service property {@link #CONTEXT}. If the
  * property is missing or invalid, the service is ignored.
+ *
+ * The security service may be configured to evaluate the gates in parallel. The
+ * gates matching a resource are then called concurrently from several threads
+ * for the same resource resolver, which is only safe if all gates tolerate the
+ * concurrent use of one resource resolver, e.g. by only reading from it.
  */
 @ConsumerType
 public interface ResourceAccessGate {
@@ -110,6 +115,53 @@ public interface ResourceAccessGate {
      */
     String FINALOPERATIONS = "finaloperations";
 
+    /**
+     * The name of the (multi-value) service registration property containing the operations
+     * for which a DENIED result of the service for a resource also applies to all resources
+     * below it. Once the access to a resource has been denied this way, the service may not
+     * be called again for the resources below it. Their access is denied without calling any
+     * service if no other service might decide differently for them, because this service is
+     * final for the operation or no other service matches below the resource, default is empty
+     * (value is "subtreeoperations").
+     */
+    String SUBTREEOPERATIONS = "subtreeoperations";
+
+    /**
+     * The name of the (multi-value) service registration property containing the operations
+     * for which the result of the service only depends on the user ID of the resource resolver
+     * and the path of the resource. The results for these operations may be shared between
+     * all resource resolvers of a user, default is empty (value is "sharedoperations").
+     */
+    String SHAREDOPERATIONS = "sharedoperations";
+
+    /**
+     * The name of the service registration property containing the time in milliseconds
+     * the service may take to decide an operation. If the service takes longer or no thread
+     * is available to call it, the {@link #TIMEOUTRESULT} is used instead and after repeated timeouts the service is
+     * not called anymore until a background call completes in time again. The timeout is
+     * only enforced if the security service is configured to call these services in other
+     * threads. The service is then called concurrently with the checking thread for the same
+     * resource resolver, which is not thread-safe, and is not interrupted after a timeout,
+     * default is no timeout (value is "timeout").
+     */
+    String TIMEOUT = "timeout";
+
+    /**
+     * The name of the service registration property containing the name of the
+     * {@link GateResult} used if the service does not decide within its {@link #TIMEOUT},
+     * defaults to {@link GateResult#DENIED} (value is "timeoutresult").
+     */
+    String TIMEOUTRESULT = "timeoutresult";
+
+    /**
+     * The name of the boolean service registration property telling whether the
+     * result of {@link #transformQuery(String, String, ResourceResolver)} only depends
+     * on the query, the language and the user ID of the resource resolver and
+     * therefore may be cached, defaults to <code>true</code>
+     * (value is "cacheablequerytransformation").
+     */
+    String CACHEABLE_QUERY_TRANSFORMATION = "cacheablequerytransformation";
+
     /**
      * <code>GateResult</code> defines 3 possible states which can be returned
      * by the different canXXX methods of this interface.
@@ -0,0 +1,54 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.resourceaccesssecurity;
+
+/**
+ * The <code>ResourceAccessPolicyEvents</code> define the OSGi event posted by a
+ * {@link ResourceAccessGate} or the store of its policies when the policy for a
+ * subtree changed, for example because an ACL or an entitlement has been edited.
+ *
+ * On such an event the resource access security services discard the access
+ * decisions and gate results they keep for the subtree, so no outdated decision
+ * is used even if the caches are configured to keep decisions for a long time.
+ */
+public final class ResourceAccessPolicyEvents {
+
+    /**
+     * The topic of the event posted when the policy for a subtree changed
+     * (value is "org/apache/sling/resourceaccesssecurity/POLICY_CHANGED").
+     */
+    public static final String TOPIC_POLICY_CHANGED = "org/apache/sling/resourceaccesssecurity/POLICY_CHANGED";
+
+    /**
+     * The name of the event property containing the absolute path of the subtree whose
+     * policy changed. If the property is missing the policy of the whole tree changed
+     * (value is "path").
+     */
+    public static final String PROPERTY_PATH = "path";
+
+    /**
+     * The name of the optional event property containing the user ID the policy changed
+     * for. If the property is missing the policy changed for all users (value is "userid").
+     */
+    public static final String PROPERTY_USER_ID = "userid";
+
+    private ResourceAccessPolicyEvents() {
+        // constants only
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.resourceaccesssecurity;
+
+import org.apache.sling.resourceaccesssecurity.ResourceAccessGate.GateResult;
+
+/**
+ * A <code>ScopedGateResult</code> is the result of a {@link SubtreeResourceAccessGate},
+ * together with the scope it applies to: either only the checked resource or the
+ * resource and all resources below it.
+ */
+public final class ScopedGateResult {
+
+    private static final ScopedGateResult[] RESOURCE_RESULTS = create(false);
+
+    private static final ScopedGateResult[] SUBTREE_RESULTS = create(true);
+
+    private final GateResult result;
+
+    private final boolean subtree;
+
+    private ScopedGateResult(final GateResult result, final boolean subtree) {
+        this.result = result;
+        this.subtree = subtree;
+    }
+
+    private static ScopedGateResult[] create(final boolean subtree) {
+        final GateResult[] results = GateResult.values();
+        final ScopedGateResult[] scopedResults = new ScopedGateResult[results.length];
+        for (int i = 0; i < results.length; i++) {
+            scopedResults[i] = new ScopedGateResult(results[i], subtree);
+        }
+        return scopedResults;
+    }
+
+    /**
+     * Returns a result which only applies to the checked resource.
+     */
+    public static ScopedGateResult forResource(final GateResult result) {
+        return RESOURCE_RESULTS[result.ordinal()];
+    }
+
+    /**
+     * Returns a result which applies to the checked resource and all resources below it.
+     */
+    public static ScopedGateResult forSubtree(final GateResult result) {
+        return SUBTREE_RESULTS[result.ordinal()];
+    }
+
+    public GateResult getResult() {
+        return result;
+    }
+
+    /**
+     * Returns whether the result applies to all resources below the checked resource as well.
+     */
+    public boolean isSubtree() {
+        return subtree;
+    }
+
+    @Override
+    public String toString() {
+        return result + (subtree ? " (subtree)" : "");
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.resourceaccesssecurity;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.osgi.annotation.versioning.ConsumerType;
+
+/**
+ * A <code>SubtreeResourceAccessGate</code> is a {@link ResourceAccessGate} which is
+ * able to decide an operation for a whole subtree at once, for example because its
+ * rules are defined per path prefix.
+ *
+ * For the operations listed in {@link #OPERATIONS} the security service calls
+ * {@link #check(Operation, String, Resource, ResourceResolver)} instead of the method
+ * of the operation. Once the gate returned a {@link ScopedGateResult#forSubtree(GateResult)
+ * subtree result} for a path, the result is reused for the resources below that path
+ * which are checked with the same resource resolver, without calling the gate again.
+ * Tree walks like listing children therefore call the gate once per subtree instead
+ * of once per resource.
+ */
+@ConsumerType
+public interface SubtreeResourceAccessGate extends ResourceAccessGate {
+
+    /**
+     * Decides the operation for the resource at the path.
+     *
+     * @param operation the operation
+     * @param path the path of the resource
+     * @param resource the resource, <code>null</code> for {@link Operation#CREATE}
+     * @param resourceResolver the resource resolver of the check
+     * @return the result and whether it applies to the resources below the path as well
+     */
+    ScopedGateResult check(Operation operation, String path, Resource resource, ResourceResolver resourceResolver);
+}
@@ -18,13 +18,16 @@
  */
 package org.apache.sling.resourceaccesssecurity.impl;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.function.BooleanSupplier;
 
 import org.apache.sling.api.resource.ModifiableValueMap;
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceWrapper;
 import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.api.wrappers.ModifiableValueMapDecorator;
 import org.apache.sling.resourceaccesssecurity.ResourceAccessGate;
 import org.jetbrains.annotations.NotNull;
 
@@ -37,7 +40,35 @@ import org.jetbrains.annotations.NotNull;
  */
 public class AccessGateResourceWrapper extends ResourceWrapper {
 
-    private final boolean modifiable;
+    /** the classes of the immutable maps of the JDK, which don't need a read-only view */
+    private static final Class<?> UNMODIFIABLE_MAP_CLASS =
+            Collections.unmodifiableMap(Collections.emptyMap()).getClass();
+
+    private static final Class<?> EMPTY_MAP_CLASS = Collections.emptyMap().getClass();
+
+    private static final Class<?> SINGLETON_MAP_CLASS =
+            Collections.singletonMap(null, null).getClass();
+
+    /** checks whether the resource can be updated, <code>null</code> once this is known */
+    private BooleanSupplier updateCheck;
+
+    private boolean modifiable;
+
+    /** the gates to ask when reading values, <code>null</code> if all values can be read */
+    private final List<ResourceAccessGate> accessGatesForReadForValues;
+
+    /** the read-only maps adapted per type, kept as adapting them again returns the same values */
+    private ValueMap readOnlyValueMap;
+
+    private Map<String, Object> readOnlyMap;
+
+    /** the last read-only view and the map it has been created for, to share the view between the types */
+    private ValueMap readOnlyView;
+
+    private Map<String, Object> readOnlySource;
+
+    /** the value map with read restrictions returned by {@link #getValueMap()} */
+    private ValueMap readableValueMap;
 
     /**
      * Creates a new wrapper instance delegating all method calls to the given
@@ -55,28 +86,128 @@ public class AccessGateResourceWrapper extends ResourceWrapper {
             final boolean modifiable) {
         super(resource);
         this.modifiable = modifiable;
+        this.accessGatesForReadForValues = readRestrictions(accessGatesForReadForValues);
+    }
+
+    /**
+     * Creates a new wrapper instance delegating all method calls to the given
+     * <code>resource</code>, but intercepts the calls with checks to the
+     * applied ResourceAccessGate instances for read and/or update values.
+     * Whether the resource can be updated is checked with the given check
+     * when a map is adapted from the resource for the first time.
+     *
+     * @param resource resource to protect
+     * @param accessGatesForReadForValues list of access gates to ask when reading values. If
+     *      the list is <code>null</code> or empty there are no read restrictions
+     * @param updateCheck the check for the update permission, bound to the gates the
+     *      read permission has been checked with
+     */
+    public AccessGateResourceWrapper(
+            @NotNull final Resource resource,
+            final List<ResourceAccessGate> accessGatesForReadForValues,
+            @NotNull final BooleanSupplier updateCheck) {
+        super(resource);
+        this.updateCheck = updateCheck;
+        this.accessGatesForReadForValues = readRestrictions(accessGatesForReadForValues);
+    }
+
+    private static List<ResourceAccessGate> readRestrictions(final List<ResourceAccessGate> accessGates) {
+        return accessGates == null || accessGates.isEmpty() ? null : accessGates;
+    }
+
+    private boolean isModifiable() {
+        final BooleanSupplier check = this.updateCheck;
+        if (check != null) {
+            modifiable = check.getAsBoolean();
+            updateCheck = null;
+        }
+        return modifiable;
     }
 
     /**
      * Returns the value of calling <code>adaptTo</code> on the
      * {@link #getResource() wrapped resource}.
+     *
+     * The read-only <code>Map</code> and <code>ValueMap</code> returned for a resource
+     * which can't be updated are kept, so the resource is only adapted once per type.
      */
     @SuppressWarnings("unchecked")
     @Override
     public <AdapterType> AdapterType adaptTo(@NotNull Class<AdapterType> type) {
+        if (type == ValueMap.class && readOnlyValueMap != null) {
+            return (AdapterType) readOnlyValueMap;
+        }
+        if (type == Map.class && readOnlyMap != null) {
+            return (AdapterType) readOnlyMap;
+        }
+
         // we do not support the deprecated PersistableValueMap
         AdapterType adapter = getResource().adaptTo(type);
 
-        if (adapter != null && !modifiable) {
+        // values are only returned if one of the gates allows reading them
+        if (adapter != null
+                && accessGatesForReadForValues != null
+                && (type == ModifiableValueMap.class || type == Map.class || type == ValueMap.class)) {
+            final ReadRestrictedValueMap readableValues =
+                    new ReadRestrictedValueMap((Map) adapter, getResource(), accessGatesForReadForValues);
+            adapter = (AdapterType)
+                    (type == ModifiableValueMap.class
+                            ? new ModifiableValueMapDecorator(readableValues)
+                            : readableValues);
+        }
+
+        // update permissions are only relevant for maps
+        if (adapter != null
+                && (type == ModifiableValueMap.class || type == Map.class || type == ValueMap.class)
+                && !isModifiable()) {
             if (type == ModifiableValueMap.class) {
                 adapter = null;
-            } else if (type == Map.class || type == ValueMap.class) {
+            } else {
                 // protect also against accidental modifications when changes are done in an adapted map
-                adapter = (AdapterType) new ReadOnlyValueMapWrapper((Map) adapter);
+                final Map<String, Object> readOnly = toReadOnly((Map<String, Object>) adapter, type == ValueMap.class);
+                if (type == ValueMap.class) {
+                    readOnlyValueMap = (ValueMap) readOnly;
+                } else {
+                    readOnlyMap = readOnly;
+                }
+                adapter = (AdapterType) readOnly;
             }
         }
-        // TODO: restrict reading of certain values
-
         return adapter;
     }
+
+    /**
+     * Returns a map which can't be modified. A map which is immutable already, like the map of a
+     * resource wrapped by another security service, the empty value map or the immutable maps of
+     * the JDK adapted to <code>Map</code>, is returned as is.
+     *
+     * @param valueMap whether a <code>ValueMap</code> is required
+     */
+    private Map<String, Object> toReadOnly(final Map<String, Object> map, final boolean valueMap) {
+        if (map instanceof ReadOnlyValueMapWrapper || map == ValueMap.EMPTY || (!valueMap && isImmutable(map))) {
+            return map;
+        }
+        if (readOnlyView == null || map != readOnlySource) {
+            readOnlySource = map;
+            readOnlyView = new ReadOnlyValueMapWrapper(map);
+        }
+        return readOnlyView;
+    }
+
+    private static boolean isImmutable(final Map<String, Object> map) {
+        final Class<?> mapClass = map.getClass();
+        return mapClass == UNMODIFIABLE_MAP_CLASS || mapClass == EMPTY_MAP_CLASS || mapClass == SINGLETON_MAP_CLASS;
+    }
+
+    @Override
+    public @NotNull ValueMap getValueMap() {
+        if (accessGatesForReadForValues == null) {
+            return super.getValueMap();
+        }
+        if (readableValueMap == null) {
+            readableValueMap =
+                    new ReadRestrictedValueMap(super.getValueMap(), getResource(), accessGatesForReadForValues);
+        }
+        return readableValueMap;
+    }
 }
@@ -18,35 +18,93 @@
  */
 package org.apache.sling.resourceaccesssecurity.impl;
 
-import java.util.List;
-
 import org.apache.sling.api.security.ResourceAccessSecurity;
+import org.apache.sling.resourceaccesssecurity.AsyncResourceAccessSecurity;
+import org.apache.sling.resourceaccesssecurity.ExtendedResourceAccessSecurity;
+import org.apache.sling.resourceaccesssecurity.QueryCodec;
 import org.apache.sling.resourceaccesssecurity.ResourceAccessGate;
+import org.apache.sling.resourceaccesssecurity.ResourceAccessPolicyEvents;
+import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceReference;
-import org.osgi.service.component.ComponentContext;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
 import org.osgi.service.component.annotations.Reference;
 import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicy;
 import org.osgi.service.component.annotations.ReferencePolicyOption;
+import org.osgi.service.event.EventConstants;
+import org.osgi.service.event.EventHandler;
+import org.osgi.service.metatype.annotations.Designate;
 
 @Component(
-        service = ResourceAccessSecurity.class,
-        property = ResourceAccessSecurity.CONTEXT + "=" + ResourceAccessSecurity.APPLICATION_CONTEXT)
+        service = {
+            ResourceAccessSecurity.class,
+            ExtendedResourceAccessSecurity.class,
+            AsyncResourceAccessSecurity.class,
+            EventHandler.class
+        },
+        property = {
+            ResourceAccessSecurity.CONTEXT + "=" + ResourceAccessSecurity.APPLICATION_CONTEXT,
+            EventConstants.EVENT_TOPIC + "=" + ResourceAccessPolicyEvents.TOPIC_POLICY_CHANGED
+        })
+@Designate(ocd = ResourceAccessSecurityImpl.Config.class)
 public class ApplicationResourceAccessSecurityImpl extends ResourceAccessSecurityImpl {
 
     private static final String RESOURCE_ACCESS_GATE_REFERENCE_NAME = "resourceAccessGates";
 
+    private static final String QUERY_CODEC_REFERENCE_NAME = "queryCodecs";
+
     @Activate
-    public ApplicationResourceAccessSecurityImpl(
-            @Reference(
-                            name = RESOURCE_ACCESS_GATE_REFERENCE_NAME,
-                            cardinality = ReferenceCardinality.AT_LEAST_ONE,
-                            policyOption = ReferencePolicyOption.GREEDY,
-                            target = "(" + ResourceAccessGate.CONTEXT + "=" + ResourceAccessGate.APPLICATION_CONTEXT
-                                    + ")")
-                    List<ServiceReference<ResourceAccessGate>> resourceAccessGateRefs,
-            ComponentContext componentContext) {
-        super(false, resourceAccessGateRefs, componentContext, RESOURCE_ACCESS_GATE_REFERENCE_NAME);
+    public ApplicationResourceAccessSecurityImpl(Config config, BundleContext bundleContext) {
+        super(false, config);
+        registerStatistics(bundleContext, ResourceAccessSecurity.APPLICATION_CONTEXT);
+    }
+
+    @Deactivate
+    void deactivate() {
+        unregisterStatistics();
+        shutdownGateCalls();
+    }
+
+    @Reference(
+            name = RESOURCE_ACCESS_GATE_REFERENCE_NAME,
+            service = ResourceAccessGate.class,
+            cardinality = ReferenceCardinality.AT_LEAST_ONE,
+            policy = ReferencePolicy.DYNAMIC,
+            policyOption = ReferencePolicyOption.GREEDY,
+            unbind = "unbindResourceAccessGate",
+            updated = "updatedResourceAccessGate",
+            target = "(" + ResourceAccessGate.CONTEXT + "=" + ResourceAccessGate.APPLICATION_CONTEXT + ")")
+    void bindResourceAccessGate(ServiceReference<ResourceAccessGate> ref, ResourceAccessGate gate) {
+        bindGate(ref, gate);
+    }
+
+    void unbindResourceAccessGate(ServiceReference<ResourceAccessGate> ref) {
+        unbindGate(ref);
+    }
+
+    void updatedResourceAccessGate(ServiceReference<ResourceAccessGate> ref, ResourceAccessGate gate) {
+        updatedGate(ref, gate);
+    }
+
+    @Reference(
+            name = QUERY_CODEC_REFERENCE_NAME,
+            service = QueryCodec.class,
+            cardinality = ReferenceCardinality.MULTIPLE,
+            policy = ReferencePolicy.DYNAMIC,
+            policyOption = ReferencePolicyOption.GREEDY,
+            unbind = "unbindQueryCodec",
+            updated = "updatedQueryCodec")
+    void bindQueryCodec(ServiceReference<QueryCodec> ref, QueryCodec codec) {
+        bindCodec(ref, codec);
+    }
+
+    void unbindQueryCodec(ServiceReference<QueryCodec> ref) {
+        unbindCodec(ref);
+    }
+
+    void updatedQueryCodec(ServiceReference<QueryCodec> ref, QueryCodec codec) {
+        updatedCodec(ref, codec);
     }
 }
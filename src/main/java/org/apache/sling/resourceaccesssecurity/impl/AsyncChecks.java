@@ -0,0 +1,285 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.resourceaccesssecurity.impl;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BiPredicate;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.resourceaccesssecurity.AsyncResourceAccessGate;
+import org.apache.sling.resourceaccesssecurity.ResourceAccessGate;
+import org.apache.sling.resourceaccesssecurity.ResourceAccessGate.GateResult;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The <code>AsyncChecks</code> run the gate chains of the asynchronous checks without
+ * blocking the calling thread, see
+ * {@link org.apache.sling.resourceaccesssecurity.AsyncResourceAccessSecurity}.
+ */
+public class AsyncChecks {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AsyncChecks.class);
+
+    private final ResourceAccessSecurityImpl security;
+
+    /** the executor calling the synchronous gates */
+    private final GateCallExecutor executor;
+
+    /**
+     * @param threads the maximum number of threads calling the synchronous gates, at least one
+     * @param name the prefix of the thread names
+     */
+    AsyncChecks(@NotNull final ResourceAccessSecurityImpl security, final int threads, @NotNull final String name) {
+        this.security = security;
+        if (threads < 1) {
+            LOGGER.warn("At least one thread is required for the asynchronous checks, ignoring {} threads.", threads);
+        }
+        this.executor = new GateCallExecutor(Math.max(1, threads), name);
+    }
+
+    /**
+     * Stops the threads calling the synchronous gates.
+     */
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    CompletionStage<Resource> getReadableResource(final GateHandlerIndex snapshot, final Resource resource) {
+        if (security.isUnrestricted(
+                snapshot, ResourceAccessGate.Operation.READ, resource.getPath(), resource.getResourceResolver())) {
+            return CompletableFuture.completedFuture(security.toReadableResource(
+                    snapshot, resource, security.getUnrestrictedReadDecision(snapshot, resource), null, 0));
+        }
+        final ResolverAccessCache cache = security.getCache(resource.getResourceResolver());
+        final ReadDecision cached =
+                ResourceAccessSecurityImpl.getCachedReadDecision(snapshot, cache, resource.getPath());
+        final CompletionStage<ReadDecision> readDecision;
+        if (cached != null) {
+            readDecision = CompletableFuture.completedFuture(cached);
+        } else {
+            final long epoch = ResourceAccessSecurityImpl.getEpoch(cache);
+            readDecision = evaluateRead(snapshot, resource).thenApply(decision -> {
+                ResourceAccessSecurityImpl.putReadDecision(snapshot, cache, resource.getPath(), decision, epoch);
+                return decision;
+            });
+        }
+        return readDecision.thenApply(decision ->
+                decision.isReadable() ? security.toReadableResource(snapshot, resource, decision, null, 0) : null);
+    }
+
+    private CompletionStage<ReadDecision> evaluateRead(final GateHandlerIndex snapshot, final Resource resource) {
+        if (snapshot.isEmpty()) {
+            return CompletableFuture.completedFuture(ReadDecision.DENIED);
+        }
+        final ResourceAccessSecurityImpl.ReadChain chain = security.newReadChain(snapshot, resource);
+        return new AsyncGateChain(
+                        snapshot,
+                        ResourceAccessGate.Operation.READ,
+                        resource.getPath(),
+                        resource,
+                        resource.getResourceResolver(),
+                        chain::apply)
+                .run()
+                .thenApply(done -> chain.getDecision());
+    }
+
+    CompletionStage<Boolean> canDoOperation(
+            final GateHandlerIndex snapshot,
+            final ResourceAccessGate.Operation operation,
+            final String path,
+            final Resource resource,
+            final ResourceResolver resolver) {
+        if (security.isUnrestricted(snapshot, operation, path, resolver)) {
+            return CompletableFuture.completedFuture(true);
+        }
+        final ResolverAccessCache cache = security.getCache(resolver);
+        if (cache != null && cache.isDeniedSubtree(snapshot, operation, path)) {
+            return CompletableFuture.completedFuture(false);
+        }
+        final Object cached = cache != null ? cache.getDecision(snapshot, operation, path) : null;
+        if (cached != null) {
+            return CompletableFuture.completedFuture((Boolean) cached);
+        }
+        if (snapshot.isEmpty()) {
+            return CompletableFuture.completedFuture(false);
+        }
+        final OperationChain chain = new OperationChain(operation, security.isDefaultAllowIfNoGateMatches());
+        final long epoch = ResourceAccessSecurityImpl.getEpoch(cache);
+        return new AsyncGateChain(snapshot, operation, path, resource, resolver, chain::apply)
+                .run()
+                .thenApply(done -> {
+                    final boolean result = chain.getDecision();
+                    if (cache != null) {
+                        cache.putDecision(snapshot, operation, path, result, epoch);
+                    }
+                    if (!result && chain.getSubtreeDeniedBy() != null) {
+                        security.putDeniedSubtree(
+                                snapshot, operation, path, resolver, chain.getSubtreeDeniedBy(), epoch);
+                    }
+                    return result;
+                });
+    }
+
+    /**
+     * Runs a gate chain without blocking. The gates are called one after another in ranking order,
+     * the next gate is called by the thread completing the result of the previous one.
+     */
+    private final class AsyncGateChain {
+
+        private final GateHandlerIndex snapshot;
+
+        private final ResourceAccessGate.Operation operation;
+
+        private final String path;
+
+        private final Resource resource;
+
+        private final ResourceResolver resolver;
+
+        private final BiPredicate<ResourceAccessGateHandler, GateResult> chain;
+
+        private final ResourceAccessGateHandler[] candidates;
+
+        private final long[] automatonMatches;
+
+        private final long[] restrictions;
+
+        /**
+         * @param chain applies the result of a matching gate, returns <code>true</code> once the chain is decided
+         */
+        AsyncGateChain(
+                final GateHandlerIndex snapshot,
+                final ResourceAccessGate.Operation operation,
+                final String path,
+                final Resource resource,
+                final ResourceResolver resolver,
+                final BiPredicate<ResourceAccessGateHandler, GateResult> chain) {
+            this.snapshot = snapshot;
+            this.operation = operation;
+            this.path = path;
+            this.resource = resource;
+            this.resolver = resolver;
+            this.chain = chain;
+            this.candidates = snapshot.getCandidates(operation, path);
+            this.automatonMatches = security.matchAll(snapshot, candidates, path);
+            this.restrictions = security.getRestrictions(snapshot, operation, resolver);
+        }
+
+        CompletableFuture<Void> run() {
+            return run(0);
+        }
+
+        private CompletableFuture<Void> run(final int from) {
+            // results which are available already are applied in a loop instead of chaining stages
+            for (int i = from; i < candidates.length; i++) {
+                final ResourceAccessGateHandler handler = candidates[i];
+                if (!security.matchesPath(snapshot, handler, path, automatonMatches)) {
+                    continue;
+                }
+                final CompletableFuture<GateResult> gateResult =
+                        !security.hasRestrictions(snapshot, handler, operation, resolver, restrictions)
+                                ? CompletableFuture.completedFuture(GateResult.GRANTED)
+                                : callGate(snapshot, handler, operation, path, resource, resolver);
+                if (!gateResult.isDone() || gateResult.isCompletedExceptionally()) {
+                    final int next = i + 1;
+                    return gateResult.thenCompose(result ->
+                            chain.test(handler, result) ? CompletableFuture.completedFuture(null) : run(next));
+                }
+                if (chain.test(handler, gateResult.join())) {
+                    break;
+                }
+            }
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    /**
+     * Calls the gate for the operation without blocking the calling thread. An {@link AsyncResourceAccessGate}
+     * is called with its asynchronous method, any other gate with the executor for the asynchronous checks.
+     */
+    private CompletableFuture<GateResult> callGate(
+            final GateHandlerIndex snapshot,
+            final ResourceAccessGateHandler handler,
+            final ResourceAccessGate.Operation operation,
+            final String path,
+            final Resource resource,
+            final ResourceResolver resolver) {
+        final ResourceAccessGate gate = handler.getResourceAccessGate();
+        if (!(gate instanceof AsyncResourceAccessGate)) {
+            try {
+                return CompletableFuture.supplyAsync(
+                        () -> security.callGate(snapshot, handler, operation, path, resource, resolver), executor);
+            } catch (final RejectedExecutionException e) {
+                // the executor is saturated, the check fails instead of blocking the calling thread
+                final CompletableFuture<GateResult> rejected = new CompletableFuture<>();
+                rejected.completeExceptionally(e);
+                return rejected;
+            }
+        }
+        final CompletableFuture<GateResult> gateResult = new CompletableFuture<>();
+        final long start = security.startTime();
+        try {
+            final CompletionStage<GateResult> stage =
+                    checkOperation((AsyncResourceAccessGate) gate, operation, path, resource, resolver);
+            if (stage == null) {
+                throw new IllegalStateException("Method " + operation.getText() + " in AsyncResourceAccessGate "
+                        + gate.getClass().getName() + " returned null.");
+            }
+            stage.whenComplete((result, error) -> {
+                if (error != null) {
+                    gateResult.completeExceptionally(error);
+                } else {
+                    gateResult.complete(security.record(handler, operation.ordinal(), result, start));
+                }
+            });
+        } catch (final RuntimeException e) {
+            gateResult.completeExceptionally(e);
+        }
+        return gateResult;
+    }
+
+    private static CompletionStage<GateResult> checkOperation(
+            final AsyncResourceAccessGate gate,
+            final ResourceAccessGate.Operation operation,
+            final String path,
+            final Resource resource,
+            final ResourceResolver resolver) {
+        switch (operation) {
+            case READ:
+                return gate.canReadAsync(resource);
+            case CREATE:
+                return gate.canCreateAsync(path, resolver);
+            case UPDATE:
+                return gate.canUpdateAsync(resource);
+            case DELETE:
+                return gate.canDeleteAsync(resource);
+            case EXECUTE:
+                return gate.canExecuteAsync(resource);
+            case ORDER_CHILDREN:
+                return gate.canOrderChildrenAsync(resource);
+            default:
+                throw new IllegalArgumentException("Unsupported operation " + operation);
+        }
+    }
+}
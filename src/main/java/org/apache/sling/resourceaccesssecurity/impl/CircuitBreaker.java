@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.resourceaccesssecurity.impl;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The <code>CircuitBreaker</code> of a gate with a timeout. After a number of consecutive
+ * timeouts the breaker opens and the gate is not called anymore, its timeout result is used
+ * instead. While the breaker is open the gate is probed in the background from time to
+ * time, the breaker closes again once a probe completes in time.
+ */
+public class CircuitBreaker {
+
+    /** the number of consecutive timeouts opening the breaker */
+    static final int TIMEOUT_THRESHOLD = 5;
+
+    /** the time between two probes of an open breaker */
+    static final long PROBE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private final AtomicInteger consecutiveTimeouts = new AtomicInteger();
+
+    private final AtomicLong nextProbe = new AtomicLong();
+
+    private volatile boolean open;
+
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Claims the next probe of an open breaker.
+     *
+     * @return <code>true</code> if the caller should probe the gate, only one caller per interval is chosen
+     */
+    public boolean tryStartProbe() {
+        final long now = System.nanoTime();
+        final long probe = nextProbe.get();
+        return open && now - probe >= 0 && nextProbe.compareAndSet(probe, now + PROBE_INTERVAL_NANOS);
+    }
+
+    /**
+     * Records a call or probe which completed in time, closing the breaker.
+     */
+    public void recordSuccess() {
+        consecutiveTimeouts.set(0);
+        open = false;
+    }
+
+    /**
+     * Records a call which timed out.
+     *
+     * @return <code>true</code> if this timeout opened the breaker
+     */
+    public boolean recordTimeout() {
+        if (consecutiveTimeouts.incrementAndGet() < TIMEOUT_THRESHOLD || open) {
+            return false;
+        }
+        nextProbe.set(System.nanoTime() + PROBE_INTERVAL_NANOS);
+        open = true;
+        return true;
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.resourceaccesssecurity.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.resourceaccesssecurity.ResourceAccessGate;
+import org.apache.sling.resourceaccesssecurity.ResourceAccessGate.GateResult;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The <code>DecisionRecorder</code> keeps a sample of the recently evaluated access decisions
+ * in a ring buffer of fixed size, so a wrong denial or a slow check can be diagnosed without
+ * enabling debug logging. Each recorded decision lists the gates consulted in chain order with
+ * their results.
+ *
+ * Recording is lock-free: a decision claims the next position with an atomic counter and
+ * replaces the oldest entry. Only sampled checks allocate a {@link Trace}.
+ */
+public class DecisionRecorder {
+
+    private final int sampleRate;
+
+    private final AtomicReferenceArray<Trace> entries;
+
+    private final int mask;
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * @param sampleRate one in this number of decisions is recorded
+     * @param size the number of recorded decisions kept, rounded up to a power of two
+     */
+    public DecisionRecorder(final int sampleRate, final int size) {
+        this.sampleRate = sampleRate;
+        final int capacity = Integer.highestOneBit(Math.max(1, size - 1)) << 1;
+        this.entries = new AtomicReferenceArray<>(capacity);
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Decides whether the check is recorded.
+     *
+     * @param start the {@link System#nanoTime()} at which the check started
+     * @return the trace to fill or <code>null</code> if the check is not sampled
+     */
+    public @Nullable Trace sample(
+            @NotNull final ResourceAccessGate.Operation operation,
+            @Nullable final String path,
+            @Nullable final ResourceResolver resolver,
+            final long start) {
+        if (sampleRate > 1 && ThreadLocalRandom.current().nextInt(sampleRate) != 0) {
+            return null;
+        }
+        return new Trace(this, operation, path, resolver != null ? resolver.getUserID() : null, start);
+    }
+
+    /**
+     * Returns the recorded decisions, the oldest first.
+     */
+    public @NotNull List<Trace> getDecisions() {
+        final List<Trace> decisions = new ArrayList<>(entries.length());
+        for (int i = 0; i < entries.length(); i++) {
+            final Trace trace = entries.get(i);
+            if (trace != null) {
+                decisions.add(trace);
+            }
+        }
+        decisions.sort(Comparator.comparingLong(Trace::getSequence));
+        return decisions;
+    }
+
+    public void clear() {
+        for (int i = 0; i < entries.length(); i++) {
+            entries.set(i, null);
+        }
+    }
+
+    private void record(final Trace trace) {
+        final long position = sequence.getAndIncrement();
+        trace.sequence = position;
+        entries.set((int) (position & mask), trace);
+    }
+
+    /**
+     * The gates consulted for one check and their results. A trace is filled by the checking
+     * thread and becomes visible to readers once {@link #finish(boolean) finished}.
+     */
+    public static final class Trace {
+
+        private final DecisionRecorder recorder;
+
+        private final ResourceAccessGate.Operation operation;
+
+        private final String path;
+
+        private final String userId;
+
+        private final long start;
+
+        private ResourceAccessGateHandler[] gates = new ResourceAccessGateHandler[4];
+
+        private GateResult[] results = new GateResult[4];
+
+        private int gateCount;
+
+        private boolean granted;
+
+        private long elapsedNanos;
+
+        private long timestamp;
+
+        private long sequence;
+
+        Trace(
+                final DecisionRecorder recorder,
+                final ResourceAccessGate.Operation operation,
+                final String path,
+                final String userId,
+                final long start) {
+            this.recorder = recorder;
+            this.operation = operation;
+            this.path = path;
+            this.userId = userId;
+            this.start = start;
+        }
+
+        /**
+         * Adds the result of a consulted gate.
+         */
+        public void add(@NotNull final ResourceAccessGateHandler gate, @NotNull final GateResult result) {
+            if (gateCount == gates.length) {
+                gates = Arrays.copyOf(gates, gateCount * 2);
+                results = Arrays.copyOf(results, gateCount * 2);
+            }
+            gates[gateCount] = gate;
+            results[gateCount] = result;
+            gateCount++;
+        }
+
+        /**
+         * Records the decision in the ring buffer.
+         */
+        public void finish(final boolean granted) {
+            this.granted = granted;
+            this.elapsedNanos = System.nanoTime() - start;
+            this.timestamp = System.currentTimeMillis();
+            recorder.record(this);
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public @NotNull ResourceAccessGate.Operation getOperation() {
+            return operation;
+        }
+
+        public @Nullable String getPath() {
+            return path;
+        }
+
+        public @Nullable String getUserId() {
+            return userId;
+        }
+
+        public int getGateCount() {
+            return gateCount;
+        }
+
+        public @NotNull ResourceAccessGateHandler getGate(final int index) {
+            return gates[index];
+        }
+
+        public @NotNull GateResult getResult(final int index) {
+            return results[index];
+        }
+
+        public boolean isGranted() {
+            return granted;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /**
+         * Returns the time the decision has been taken in milliseconds since the epoch.
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+    }
+}
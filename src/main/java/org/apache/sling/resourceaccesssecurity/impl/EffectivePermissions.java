@@ -0,0 +1,217 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.resourceaccesssecurity.impl;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.resourceaccesssecurity.MultiOperationResourceAccessGate;
+import org.apache.sling.resourceaccesssecurity.ResourceAccessGate;
+import org.apache.sling.resourceaccesssecurity.ResourceAccessGate.GateResult;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The <code>EffectivePermissions</code> check all operations on an existing resource at once,
+ * see {@link org.apache.sling.resourceaccesssecurity.ExtendedResourceAccessSecurity#getAllowedOperations}.
+ */
+public class EffectivePermissions {
+
+    private static final ResourceAccessGate.Operation[] RESOURCE_OPERATIONS = {
+        ResourceAccessGate.Operation.UPDATE,
+        ResourceAccessGate.Operation.DELETE,
+        ResourceAccessGate.Operation.EXECUTE,
+        ResourceAccessGate.Operation.ORDER_CHILDREN
+    };
+
+    private final ResourceAccessSecurityImpl security;
+
+    EffectivePermissions(@NotNull final ResourceAccessSecurityImpl security) {
+        this.security = security;
+    }
+
+    /**
+     * Checks the operations on an existing resource in one walk over the ranked handlers.
+     * Decisions known from the {@link ResolverAccessCache} are not evaluated again.
+     */
+    EnumSet<ResourceAccessGate.Operation> getAllowedOperations(
+            final GateHandlerIndex snapshot, final Resource resource) {
+        final long start = security.traceStartTime();
+        final EnumSet<ResourceAccessGate.Operation> allowed = EnumSet.noneOf(ResourceAccessGate.Operation.class);
+        final List<ResourceAccessGate.Operation> pending = new ArrayList<>(RESOURCE_OPERATIONS.length);
+        for (final ResourceAccessGate.Operation operation : RESOURCE_OPERATIONS) {
+            if (security.isUnrestricted(snapshot, operation, resource.getPath(), resource.getResourceResolver())) {
+                allowed.add(operation);
+                continue;
+            }
+            final Boolean cached = security.getCachedDecision(snapshot, operation, resource);
+            if (cached == null) {
+                pending.add(operation);
+            } else if (cached) {
+                allowed.add(operation);
+            }
+        }
+        if (pending.isEmpty()) {
+            return allowed;
+        }
+        final ResourceAccessGate.Operation[] operations = pending.toArray(new ResourceAccessGate.Operation[0]);
+        final ResolverAccessCache cache = security.getCache(resource.getResourceResolver());
+        final long epoch = ResourceAccessSecurityImpl.getEpoch(cache);
+        final boolean[] results = evaluateOperations(snapshot, operations, resource, epoch, start);
+        for (int i = 0; i < operations.length; i++) {
+            if (results[i]) {
+                allowed.add(operations[i]);
+            }
+            if (cache != null) {
+                cache.putDecision(snapshot, operations[i], resource.getPath(), results[i], epoch);
+            }
+        }
+        return allowed;
+    }
+
+    /**
+     * Runs the gate chains of several operations on a resource at once, applying the same rules as
+     * {@link ResourceAccessSecurityImpl#evaluateOperation} to each chain. The handlers are visited in
+     * ranking order, a handler called for several of the operations is path matched once and then
+     * asked for each operation whose chain is not decided yet, a {@link MultiOperationResourceAccessGate}
+     * for all of these operations in one call. The gates are called one after another.
+     *
+     * @return the decisions in the order of the operations
+     */
+    private boolean[] evaluateOperations(
+            final GateHandlerIndex snapshot,
+            final ResourceAccessGate.Operation[] operations,
+            final Resource resource,
+            final long epoch,
+            final long start) {
+        final boolean[] results = new boolean[operations.length];
+        if (snapshot.isEmpty()) {
+            return results;
+        }
+        final String path = resource.getPath();
+        final ResourceResolver resolver = resource.getResourceResolver();
+        final OperationChain[] chains = new OperationChain[operations.length];
+        final ResourceAccessGateHandler[][] candidates = new ResourceAccessGateHandler[operations.length][];
+        final int[] positions = new int[operations.length];
+        final long[][] restrictions = new long[operations.length][];
+        final DecisionRecorder.Trace[] traces = new DecisionRecorder.Trace[operations.length];
+        for (int i = 0; i < operations.length; i++) {
+            chains[i] = new OperationChain(operations[i], security.isDefaultAllowIfNoGateMatches());
+            candidates[i] = snapshot.getCandidates(operations[i], path);
+            restrictions[i] = security.getRestrictions(snapshot, operations[i], resolver);
+            traces[i] = security.sample(operations[i], path, resolver, start);
+        }
+        final long[] automatonMatches = security.matchAll(snapshot, snapshot.getHandlers(), path);
+
+        while (true) {
+            // the highest ranked handler which is next in any of the undecided chains
+            ResourceAccessGateHandler handler = null;
+            int handlerIndex = Integer.MAX_VALUE;
+            for (int i = 0; i < operations.length; i++) {
+                if (positions[i] < candidates[i].length) {
+                    final int index = snapshot.indexOf(candidates[i][positions[i]]);
+                    if (index < handlerIndex) {
+                        handlerIndex = index;
+                        handler = candidates[i][positions[i]];
+                    }
+                }
+            }
+            if (handler == null) {
+                break;
+            }
+            final boolean matches = security.matchesPath(snapshot, handler, path, automatonMatches);
+            // bit sets over the chains which are at the handler and which need the gate to be called
+            int matching = 0;
+            int restricted = 0;
+            for (int i = 0; i < operations.length; i++) {
+                if (positions[i] == candidates[i].length || candidates[i][positions[i]] != handler) {
+                    continue;
+                }
+                positions[i]++;
+                if (matches) {
+                    matching |= 1 << i;
+                    if (security.hasRestrictions(snapshot, handler, operations[i], resolver, restrictions[i])) {
+                        restricted |= 1 << i;
+                    }
+                }
+            }
+            final Map<ResourceAccessGate.Operation, GateResult> gateResults =
+                    Integer.bitCount(restricted) > 1 ? callAtOnce(handler, operations, restricted, resource) : null;
+            for (int i = 0; i < operations.length; i++) {
+                if ((matching & (1 << i)) == 0) {
+                    continue;
+                }
+                final GateResult gateResult = (restricted & (1 << i)) == 0
+                        ? GateResult.GRANTED
+                        : gateResults != null
+                                ? gateResults.get(operations[i])
+                                : security.callGate(snapshot, handler, operations[i], path, resource, resolver);
+                if (gateResult == null) {
+                    continue;
+                }
+                if (traces[i] != null) {
+                    traces[i].add(handler, gateResult);
+                }
+                if (chains[i].apply(handler, gateResult)) {
+                    // the chain is decided, none of its remaining handlers is visited
+                    positions[i] = candidates[i].length;
+                }
+            }
+        }
+
+        for (int i = 0; i < operations.length; i++) {
+            results[i] = chains[i].getDecision();
+            if (!results[i] && chains[i].getSubtreeDeniedBy() != null) {
+                security.putDeniedSubtree(
+                        snapshot, operations[i], path, resolver, chains[i].getSubtreeDeniedBy(), epoch);
+            }
+            if (traces[i] != null) {
+                traces[i].finish(results[i]);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Asks a {@link MultiOperationResourceAccessGate} for several operations on a resource in one call.
+     *
+     * @param restricted the bit set over the operations to ask for
+     * @return the results or <code>null</code> if the gate is to be called once per operation
+     */
+    private Map<ResourceAccessGate.Operation, GateResult> callAtOnce(
+            final ResourceAccessGateHandler handler,
+            final ResourceAccessGate.Operation[] operations,
+            final int restricted,
+            final Resource resource) {
+        if (!(handler.getResourceAccessGate() instanceof MultiOperationResourceAccessGate)) {
+            return null;
+        }
+        final Set<ResourceAccessGate.Operation> requested = EnumSet.noneOf(ResourceAccessGate.Operation.class);
+        for (int i = 0; i < operations.length; i++) {
+            if ((restricted & (1 << i)) != 0) {
+                requested.add(operations[i]);
+            }
+        }
+        return security.callAtOnce(handler, requested, resource);
+    }
+}
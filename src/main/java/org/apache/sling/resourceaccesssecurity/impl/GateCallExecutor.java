@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.resourceaccesssecurity.impl;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The <code>GateCallExecutor</code> runs the speculative gate calls of the
+ * {@link SpeculativeGateCalls}, the synchronous gates called by asynchronous
+ * checks and the gates with a timeout. On Java 21 and later each call runs in its own virtual thread, otherwise
+ * a bounded pool of daemon threads is used.
+ *
+ * A speculative call which could not be started because the pool is saturated
+ * is run by the checking thread once its result is needed, any other call is
+ * {@link #execute(Runnable) rejected}.
+ */
+public class GateCallExecutor implements Executor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(GateCallExecutor.class);
+
+    /** the number of calls waiting for a pool thread per thread of the pool */
+    private static final int QUEUE_SIZE_PER_THREAD = 16;
+
+    private final ExecutorService executor;
+
+    /**
+     * Creates the executor.
+     *
+     * @param maxThreads the maximum number of pool threads, not used if virtual threads are available
+     * @param name the name of the pool threads
+     */
+    public GateCallExecutor(final int maxThreads, @NotNull final String name) {
+        final ExecutorService virtualThreads = newVirtualThreadExecutor();
+        if (virtualThreads != null) {
+            this.executor = virtualThreads;
+        } else {
+            final ThreadPoolExecutor pool = new ThreadPoolExecutor(
+                    maxThreads,
+                    maxThreads,
+                    60,
+                    TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(maxThreads * QUEUE_SIZE_PER_THREAD),
+                    new DaemonThreadFactory(name),
+                    new ThreadPoolExecutor.AbortPolicy());
+            pool.allowCoreThreadTimeOut(true);
+            this.executor = pool;
+        }
+    }
+
+    /**
+     * Returns an executor starting a virtual thread per task or <code>null</code> if the
+     * Java runtime does not support virtual threads.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            final Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (final ReflectiveOperationException | RuntimeException e) {
+            LOGGER.debug("Virtual threads are not available, using a thread pool for the gate calls", e);
+            return null;
+        }
+    }
+
+    /**
+     * Starts the task unless the executor is saturated or shut down.
+     *
+     * @return <code>false</code> if the task has not been started
+     */
+    boolean tryExecute(@NotNull final Runnable task) {
+        try {
+            executor.execute(task);
+            return true;
+        } catch (final RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Runs the task with the executor, the task is never run by the calling thread.
+     *
+     * @throws RejectedExecutionException if the executor is saturated or shut down
+     */
+    @Override
+    public void execute(@NotNull final Runnable task) {
+        executor.execute(task);
+    }
+
+    /**
+     * Stops the executor, calls in progress are interrupted.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static final class DaemonThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        private final String name;
+
+        DaemonThreadFactory(final String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
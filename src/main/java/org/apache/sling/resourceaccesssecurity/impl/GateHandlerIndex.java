@@ -0,0 +1,173 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.resourceaccesssecurity.impl;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.sling.resourceaccesssecurity.MultiOperationResourceAccessGate;
+import org.apache.sling.resourceaccesssecurity.ResourceAccessGate;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The <code>GateHandlerIndex</code> holds the gate handlers, sorted from the
+ * highest to the lowest ranked one, and precomputes per operation the handlers
+ * called for that operation together with a {@link PathPrefixIndex} over them.
+ *
+ * An instance is immutable and can be used concurrently.
+ */
+public class GateHandlerIndex {
+
+    private static final AtomicLong GENERATIONS = new AtomicLong();
+
+    private final long generation = GENERATIONS.incrementAndGet();
+
+    private final ResourceAccessGateHandler[] handlers;
+
+    private final EnumMap<ResourceAccessGate.Operation, ResourceAccessGateHandler[]> handlersByOperation =
+            new EnumMap<>(ResourceAccessGate.Operation.class);
+
+    private final EnumMap<ResourceAccessGate.Operation, PathPrefixIndex> pathIndexByOperation =
+            new EnumMap<>(ResourceAccessGate.Operation.class);
+
+    private final EnumMap<ResourceAccessGate.Operation, ResourceAccessGateHandler> anyPathHandlerByOperation =
+            new EnumMap<>(ResourceAccessGate.Operation.class);
+
+    private final MultiPatternMatcher pathMatcher;
+
+    private final Map<ResourceAccessGateHandler, Integer> handlerIndexes = new IdentityHashMap<>();
+
+    /** whether any gate is a {@link MultiOperationResourceAccessGate} */
+    private final boolean multiOperationGates;
+
+    /**
+     * Creates the index.
+     *
+     * @param handlers the handlers, sorted from highest to lowest ranked
+     * @param multiPatternMatching whether to match all path patterns at once
+     *      with a {@link MultiPatternMatcher}
+     */
+    public GateHandlerIndex(
+            @NotNull final List<ResourceAccessGateHandler> handlers, final boolean multiPatternMatching) {
+        this.handlers = handlers.toArray(new ResourceAccessGateHandler[0]);
+        this.pathMatcher = multiPatternMatching ? new MultiPatternMatcher(this.handlers) : null;
+        boolean multiOperationGates = false;
+        for (int i = 0; i < this.handlers.length; i++) {
+            handlerIndexes.put(this.handlers[i], i);
+            this.handlers[i].setRank(i);
+            multiOperationGates |= this.handlers[i].getResourceAccessGate() instanceof MultiOperationResourceAccessGate;
+        }
+        this.multiOperationGates = multiOperationGates;
+        for (final ResourceAccessGate.Operation operation : ResourceAccessGate.Operation.values()) {
+            final List<ResourceAccessGateHandler> operationHandlers = new ArrayList<>();
+            for (final ResourceAccessGateHandler handler : handlers) {
+                if (handler.handles(operation)) {
+                    operationHandlers.add(handler);
+                    if (handler.matchesAnyPath()) {
+                        anyPathHandlerByOperation.putIfAbsent(operation, handler);
+                    }
+                }
+            }
+            handlersByOperation.put(operation, operationHandlers.toArray(new ResourceAccessGateHandler[0]));
+            pathIndexByOperation.put(operation, new PathPrefixIndex(operationHandlers));
+        }
+    }
+
+    /**
+     * Returns all handlers, sorted from highest to lowest ranked.
+     * The returned array must not be modified.
+     */
+    public @NotNull ResourceAccessGateHandler[] getHandlers() {
+        return handlers;
+    }
+
+    /**
+     * Returns the handlers called for the operation, sorted from highest to lowest ranked.
+     * The returned array must not be modified.
+     */
+    public @NotNull ResourceAccessGateHandler[] getHandlers(@NotNull final ResourceAccessGate.Operation operation) {
+        return handlersByOperation.get(operation);
+    }
+
+    /**
+     * Returns the handlers called for the operation whose path pattern might match the path,
+     * sorted from highest to lowest ranked. The returned array must not be modified.
+     *
+     * @param operation the operation
+     * @param path the path, if <code>null</code> all handlers for the operation are returned
+     */
+    public @NotNull ResourceAccessGateHandler[] getCandidates(
+            @NotNull final ResourceAccessGate.Operation operation, @Nullable final String path) {
+        return pathIndexByOperation.get(operation).getCandidates(path);
+    }
+
+    /**
+     * Returns the highest ranked handler called for the operation whose path pattern
+     * {@link ResourceAccessGateHandler#matchesAnyPath() matches any path}.
+     *
+     * @return the handler or <code>null</code> if there is none
+     */
+    public @Nullable ResourceAccessGateHandler getAnyPathHandler(
+            @NotNull final ResourceAccessGate.Operation operation) {
+        return anyPathHandlerByOperation.get(operation);
+    }
+
+    /**
+     * Returns the matcher evaluating all path patterns at once or <code>null</code>
+     * if the path patterns are evaluated per handler.
+     */
+    public @Nullable MultiPatternMatcher getPathMatcher() {
+        return pathMatcher;
+    }
+
+    /**
+     * Returns the position of the handler in the {@link #getHandlers() ranked handlers}.
+     */
+    public int indexOf(@NotNull final ResourceAccessGateHandler handler) {
+        // the rank is set by the latest index, an older index looks the handler up
+        final int rank = handler.getRank();
+        if (rank >= 0 && rank < handlers.length && handlers[rank] == handler) {
+            return rank;
+        }
+        return handlerIndexes.get(handler);
+    }
+
+    /**
+     * Returns the generation of this index, an index created later has a higher generation.
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Returns whether any gate is able to decide several operations in one call.
+     */
+    public boolean hasMultiOperationGates() {
+        return multiOperationGates;
+    }
+
+    public boolean isEmpty() {
+        return handlers.length == 0;
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.resourceaccesssecurity.impl;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.sling.resourceaccesssecurity.ResourceAccessGate;
+import org.apache.sling.resourceaccesssecurity.ResourceAccessGate.GateResult;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The <code>GateMetrics</code> count the calls to one gate per operation, their results
+ * and their latency, and how often the path pattern of the gate matched.
+ *
+ * All counters are {@link LongAdder}s, so recording from many threads does not contend.
+ * The latency is kept in a histogram with buckets of powers of two nanoseconds.
+ */
+public class GateMetrics {
+
+    /** the index used for {@link ResourceAccessGate#transformQuery(String, String, org.apache.sling.api.resource.ResourceResolver)} */
+    public static final int QUERY = ResourceAccessGate.Operation.values().length;
+
+    /** the number of latency buckets, the last bucket contains all calls taking 2^30 ns or longer */
+    public static final int LATENCY_BUCKETS = 32;
+
+    private final AtomicReferenceArray<Counters> counters = new AtomicReferenceArray<>(QUERY + 1);
+
+    private final LongAdder pathMatches = new LongAdder();
+
+    private final LongAdder pathMisses = new LongAdder();
+
+    /**
+     * Returns the name of the operation or <code>query</code> for the given index.
+     */
+    public static @NotNull String getName(final int index) {
+        return index == QUERY ? "query" : ResourceAccessGate.Operation.values()[index].getText();
+    }
+
+    /**
+     * Records a call to the gate.
+     *
+     * @param index the ordinal of the operation or {@link #QUERY}
+     * @param result the result of the call, <code>null</code> for query transformations
+     * @param nanos the duration of the call
+     */
+    public void record(final int index, @Nullable final GateResult result, final long nanos) {
+        Counters c = counters.get(index);
+        if (c == null) {
+            counters.compareAndSet(index, null, new Counters());
+            c = counters.get(index);
+        }
+        c.calls.increment();
+        if (result != null) {
+            c.results[result.ordinal()].increment();
+        }
+        c.totalNanos.add(nanos);
+        final int bucket = nanos <= 0 ? 0 : Math.min(LATENCY_BUCKETS - 1, 63 - Long.numberOfLeadingZeros(nanos));
+        c.latency[bucket].increment();
+    }
+
+    public void recordPathMatch(final boolean matched) {
+        (matched ? pathMatches : pathMisses).increment();
+    }
+
+    public long getPathMatches() {
+        return pathMatches.sum();
+    }
+
+    public long getPathMisses() {
+        return pathMisses.sum();
+    }
+
+    public long getCalls(final int index) {
+        final Counters c = counters.get(index);
+        return c == null ? 0 : c.calls.sum();
+    }
+
+    public long getResults(final int index, @NotNull final GateResult result) {
+        final Counters c = counters.get(index);
+        return c == null ? 0 : c.results[result.ordinal()].sum();
+    }
+
+    public long getTotalNanos(final int index) {
+        final Counters c = counters.get(index);
+        return c == null ? 0 : c.totalNanos.sum();
+    }
+
+    /**
+     * Returns the latency histogram, the bucket <code>i</code> counts the calls which took
+     * at least 2^i and less than 2^(i+1) nanoseconds.
+     */
+    public @NotNull long[] getLatencyHistogram(final int index) {
+        final long[] histogram = new long[LATENCY_BUCKETS];
+        final Counters c = counters.get(index);
+        if (c != null) {
+            for (int i = 0; i < histogram.length; i++) {
+                histogram[i] = c.latency[i].sum();
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Estimates a percentile of the latency as the upper bound of the histogram bucket
+     * which contains it.
+     *
+     * @param index the ordinal of the operation or {@link #QUERY}
+     * @param percentile the percentile, between 0 and 1
+     * @return the estimated latency in nanoseconds, <code>0</code> if there are no calls
+     */
+    public long getLatencyPercentile(final int index, final double percentile) {
+        final long[] histogram = getLatencyHistogram(index);
+        long total = 0;
+        for (final long count : histogram) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = (long) Math.ceil(total * percentile);
+        long seen = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            seen += histogram[i];
+            if (seen >= rank) {
+                return (1L << (i + 1)) - 1;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    public void reset() {
+        for (int i = 0; i < counters.length(); i++) {
+            counters.set(i, null);
+        }
+        pathMatches.reset();
+        pathMisses.reset();
+    }
+
+    private static final class Counters {
+
+        private final LongAdder calls = new LongAdder();
+
+        private final LongAdder[] results = new LongAdder[GateResult.values().length];
+
+        private final LongAdder totalNanos = new LongAdder();
+
+        private final LongAdder[] latency = new LongAdder[LATENCY_BUCKETS];
+
+        Counters() {
+            for (int i = 0; i < results.length; i++) {
+                results[i] = new LongAdder();
+            }
+            for (int i = 0; i < latency.length; i++) {
+                latency[i] = new LongAdder();
+            }
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.resourceaccesssecurity.impl;
+
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularData;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
+
+import java.util.function.Supplier;
+
+import org.apache.sling.resourceaccesssecurity.ResourceAccessGate.GateResult;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.osgi.framework.Constants;
+
+/**
+ * The <code>GateStatistics</code> expose the {@link GateMetrics} of the currently bound gates.
+ */
+public class GateStatistics implements GateStatisticsMBean {
+
+    private static final String[] GATE_ITEMS = {
+        "gate",
+        "operation",
+        "calls",
+        "granted",
+        "denied",
+        "cantDecide",
+        "totalNanos",
+        "meanNanos",
+        "p50Nanos",
+        "p99Nanos"
+    };
+
+    private static final String[] PATH_ITEMS = {"gate", "pathPattern", "matches", "misses"};
+
+    private static final String[] DECISION_ITEMS = {
+        "sequence", "timestamp", "operation", "path", "userId", "gates", "granted", "elapsedNanos"
+    };
+
+    private final Supplier<GateHandlerIndex> handlerIndex;
+
+    private final DecisionRecorder decisionRecorder;
+
+    /**
+     * @param handlerIndex supplies the current snapshot of the gates
+     * @param decisionRecorder the recorder of the sampled decisions, <code>null</code> if disabled
+     */
+    public GateStatistics(
+            @NotNull final Supplier<GateHandlerIndex> handlerIndex, @Nullable final DecisionRecorder decisionRecorder) {
+        this.handlerIndex = handlerIndex;
+        this.decisionRecorder = decisionRecorder;
+    }
+
+    @Override
+    public TabularData getGateStatistics() throws OpenDataException {
+        final OpenType<?>[] types = new OpenType<?>[GATE_ITEMS.length];
+        types[0] = SimpleType.STRING;
+        types[1] = SimpleType.STRING;
+        for (int i = 2; i < types.length; i++) {
+            types[i] = SimpleType.LONG;
+        }
+        final CompositeType rowType =
+                new CompositeType("GateStatistics", "Calls of a gate for an operation", GATE_ITEMS, GATE_ITEMS, types);
+        final TabularDataSupport data = new TabularDataSupport(new TabularType(
+                "GateStatistics", "Calls per gate and operation", rowType, new String[] {"gate", "operation"}));
+        for (final ResourceAccessGateHandler handler : handlerIndex.get().getHandlers()) {
+            final GateMetrics metrics = handler.getMetrics();
+            for (int index = 0; index <= GateMetrics.QUERY; index++) {
+                final long calls = metrics.getCalls(index);
+                if (calls == 0) {
+                    continue;
+                }
+                final long totalNanos = metrics.getTotalNanos(index);
+                data.put(new CompositeDataSupport(rowType, GATE_ITEMS, new Object[] {
+                    getName(handler),
+                    GateMetrics.getName(index),
+                    calls,
+                    metrics.getResults(index, GateResult.GRANTED),
+                    metrics.getResults(index, GateResult.DENIED),
+                    metrics.getResults(index, GateResult.CANT_DECIDE),
+                    totalNanos,
+                    totalNanos / calls,
+                    metrics.getLatencyPercentile(index, 0.5),
+                    metrics.getLatencyPercentile(index, 0.99)
+                }));
+            }
+        }
+        return data;
+    }
+
+    @Override
+    public TabularData getPathMatchStatistics() throws OpenDataException {
+        final CompositeType rowType = new CompositeType(
+                "PathMatchStatistics", "Path matches of a gate", PATH_ITEMS, PATH_ITEMS, new OpenType<?>[] {
+                    SimpleType.STRING, SimpleType.STRING, SimpleType.LONG, SimpleType.LONG
+                });
+        final TabularDataSupport data = new TabularDataSupport(
+                new TabularType("PathMatchStatistics", "Path matches per gate", rowType, new String[] {"gate"}));
+        for (final ResourceAccessGateHandler handler : handlerIndex.get().getHandlers()) {
+            final GateMetrics metrics = handler.getMetrics();
+            data.put(new CompositeDataSupport(rowType, PATH_ITEMS, new Object[] {
+                getName(handler), handler.getPathPattern().pattern(), metrics.getPathMatches(), metrics.getPathMisses()
+            }));
+        }
+        return data;
+    }
+
+    @Override
+    public TabularData getRecentDecisions() throws OpenDataException {
+        final CompositeType rowType = new CompositeType(
+                "RecentDecision", "A recorded access decision", DECISION_ITEMS, DECISION_ITEMS, new OpenType<?>[] {
+                    SimpleType.LONG,
+                    SimpleType.LONG,
+                    SimpleType.STRING,
+                    SimpleType.STRING,
+                    SimpleType.STRING,
+                    SimpleType.STRING,
+                    SimpleType.BOOLEAN,
+                    SimpleType.LONG
+                });
+        final TabularDataSupport data = new TabularDataSupport(
+                new TabularType("RecentDecisions", "Recorded access decisions", rowType, new String[] {"sequence"}));
+        if (decisionRecorder == null) {
+            return data;
+        }
+        for (final DecisionRecorder.Trace trace : decisionRecorder.getDecisions()) {
+            final StringBuilder gates = new StringBuilder();
+            for (int i = 0; i < trace.getGateCount(); i++) {
+                if (i > 0) {
+                    gates.append(", ");
+                }
+                gates.append(getName(trace.getGate(i))).append('=').append(trace.getResult(i));
+            }
+            data.put(new CompositeDataSupport(rowType, DECISION_ITEMS, new Object[] {
+                trace.getSequence(),
+                trace.getTimestamp(),
+                trace.getOperation().getText(),
+                trace.getPath(),
+                trace.getUserId(),
+                gates.toString(),
+                trace.isGranted(),
+                trace.getElapsedNanos()
+            }));
+        }
+        return data;
+    }
+
+    @Override
+    public void resetStatistics() {
+        for (final ResourceAccessGateHandler handler : handlerIndex.get().getHandlers()) {
+            handler.getMetrics().reset();
+        }
+        if (decisionRecorder != null) {
+            decisionRecorder.clear();
+        }
+    }
+
+    private static String getName(final ResourceAccessGateHandler handler) {
+        return handler.getResourceAccessGate().getClass().getName() + " (service.id="
+                + handler.getReference().getProperty(Constants.SERVICE_ID) + ")";
+    }
+}
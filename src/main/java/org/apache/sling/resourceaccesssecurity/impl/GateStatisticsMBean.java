@@ -0,0 +1,51 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.resourceaccesssecurity.impl;
+
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.TabularData;
+
+/**
+ * Statistics about the calls to the resource access gates of one context and a sample
+ * of the recently evaluated access decisions.
+ */
+public interface GateStatisticsMBean {
+
+    /**
+     * Returns a row per gate and operation (or <code>query</code> for query transformations)
+     * with the number of calls, the number of results per result type and the latency.
+     */
+    TabularData getGateStatistics() throws OpenDataException;
+
+    /**
+     * Returns a row per gate with the number of paths its path pattern matched or didn't match.
+     */
+    TabularData getPathMatchStatistics() throws OpenDataException;
+
+    /**
+     * Returns a row per recorded decision, the oldest first, with the path, the operation, the user ID,
+     * the consulted gates with their results in chain order and the time taken.
+     */
+    TabularData getRecentDecisions() throws OpenDataException;
+
+    /**
+     * Resets all statistics and discards the recorded decisions.
+     */
+    void resetStatistics();
+}
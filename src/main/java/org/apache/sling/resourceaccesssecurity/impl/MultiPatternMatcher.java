@@ -0,0 +1,813 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.resourceaccesssecurity.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The <code>MultiPatternMatcher</code> compiles the path patterns of all gate
+ * handlers into one automaton, which is run once over a path and yields the
+ * set of matching handlers.
+ *
+ * The patterns are compiled into a single nondeterministic automaton from which
+ * the deterministic states are created lazily while matching paths. The number
+ * of deterministic states is bounded, once the bound is reached a path needing
+ * another state is not matched by the automaton but by the pattern of each handler.
+ *
+ * Only a subset of the regular expression syntax is supported by the automaton:
+ * literals, <code>.</code>, character classes without nesting or intersections,
+ * the predefined classes <code>\d \w \s</code> and their negations, groups,
+ * alternations, greedy and reluctant quantifiers and <code>^</code>/<code>$</code>
+ * at the start and the end of the pattern. Handlers with other patterns
+ * (e.g. back references, look-arounds, flags or possessive quantifiers) are
+ * matched by their own pattern. Handlers with identical patterns share one
+ * pattern in the automaton.
+ */
+public class MultiPatternMatcher {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MultiPatternMatcher.class);
+
+    /** maximum number of states of the nondeterministic automaton */
+    private static final int MAX_NFA_STATES = 20000;
+
+    /** default maximum number of deterministic states */
+    private static final int MAX_DFA_STATES = 4096;
+
+    /** maximum number for bounded repetitions, larger repetitions are not supported */
+    private static final int MAX_REPETITION = 32;
+
+    private static final int MAX_CODE_POINT = Character.MAX_CODE_POINT;
+
+    private static final int TYPE_CHAR = 0;
+    private static final int TYPE_SPLIT = 1;
+    private static final int TYPE_MATCH = 2;
+
+    /** the ranked handlers */
+    private final ResourceAccessGateHandler[] handlers;
+
+    /** the index of each handler in the ranked handler array */
+    private final Map<ResourceAccessGateHandler, Integer> handlerIndexes = new IdentityHashMap<>();
+
+    /** handlers whose pattern is matched by the automaton */
+    private final BitSet supportedHandlers = new BitSet();
+
+    private final int handlerCount;
+
+    // the nondeterministic automaton
+    private final int[] types;
+    private final int[][] charRanges;
+    private final int[] out1;
+    private final int[] out2;
+    /** for match states: the handler indexes matched by the state */
+    private final int[][] matchedHandlers;
+
+    private final Map<BitSet, DfaState> dfaStates = new ConcurrentHashMap<>();
+
+    private final int maxDfaStates;
+
+    private final DfaState initialState;
+
+    private final long[] noMatches;
+
+    /**
+     * Creates the matcher.
+     *
+     * @param handlers the handlers, sorted from highest to lowest ranked
+     */
+    public MultiPatternMatcher(@NotNull final ResourceAccessGateHandler[] handlers) {
+        this(handlers, MAX_DFA_STATES);
+    }
+
+    /**
+     * Creates the matcher.
+     *
+     * @param handlers the handlers, sorted from highest to lowest ranked
+     * @param maxDfaStates the maximum number of deterministic states
+     */
+    MultiPatternMatcher(@NotNull final ResourceAccessGateHandler[] handlers, final int maxDfaStates) {
+        this.handlers = handlers;
+        this.handlerCount = handlers.length;
+        this.maxDfaStates = Math.max(1, maxDfaStates);
+        this.noMatches = new long[(handlerCount + 63) >>> 6];
+        final NfaBuilder builder = new NfaBuilder();
+        // the start state is split into the start states of all patterns
+        final int start = builder.addSplit();
+        int lastSplit = start;
+
+        // group the handlers by pattern, identical patterns are only compiled once
+        final Map<String, List<Integer>> handlersByPattern = new HashMap<>();
+        final List<String> patterns = new ArrayList<>();
+        for (int i = 0; i < handlers.length; i++) {
+            handlerIndexes.put(handlers[i], i);
+            final String pattern = handlers[i].getPathPattern().pattern();
+            handlersByPattern
+                    .computeIfAbsent(pattern, key -> {
+                        patterns.add(key);
+                        return new ArrayList<>();
+                    })
+                    .add(i);
+        }
+
+        for (final String pattern : patterns) {
+            final List<Integer> indexes = handlersByPattern.get(pattern);
+            final Node node;
+            try {
+                node = new PatternParser(pattern).parse();
+            } catch (final UnsupportedPatternException e) {
+                LOGGER.debug("Path pattern {} is not supported by the automaton: {}", pattern, e.getMessage());
+                continue;
+            }
+            final int mark = builder.size();
+            try {
+                final int match = builder.add(
+                        TYPE_MATCH,
+                        null,
+                        -1,
+                        -1,
+                        indexes.stream().mapToInt(Integer::intValue).toArray());
+                final int patternStart = builder.compile(node, match);
+                final int split = builder.add(TYPE_SPLIT, null, patternStart, -1, null);
+                builder.out2.set(lastSplit, split);
+                lastSplit = split;
+                for (final int index : indexes) {
+                    supportedHandlers.set(index);
+                }
+            } catch (final UnsupportedPatternException e) {
+                LOGGER.debug("Path pattern {} is not supported by the automaton: {}", pattern, e.getMessage());
+                builder.truncate(mark);
+            }
+        }
+
+        this.types = builder.types.stream().mapToInt(Integer::intValue).toArray();
+        this.charRanges = builder.charRanges.toArray(new int[0][]);
+        this.out1 = builder.out1.stream().mapToInt(Integer::intValue).toArray();
+        this.out2 = builder.out2.stream().mapToInt(Integer::intValue).toArray();
+        this.matchedHandlers = builder.matchedHandlers.toArray(new int[0][]);
+
+        final BitSet startSet = new BitSet();
+        addWithClosure(startSet, start);
+        this.initialState = new DfaState(startSet);
+        dfaStates.put(startSet, initialState);
+    }
+
+    /**
+     * Runs the automaton over the path.
+     *
+     * @param path the path
+     * @return a bit set over the indexes of the handlers whose pattern matches the path. Only
+     *      handlers {@link #isSupported(ResourceAccessGateHandler) supported} by the automaton
+     *      are contained. The returned array must not be modified. <code>null</code> if the path
+     *      needs more deterministic states than kept, the patterns are to be evaluated per handler then.
+     */
+    public @Nullable long[] match(@NotNull final String path) {
+        DfaState state = initialState;
+        for (int i = 0; i < path.length(); ) {
+            if (state.isDead()) {
+                // no pattern can consume the remaining characters
+                return noMatches;
+            }
+            final int codePoint = path.codePointAt(i);
+            i += Character.charCount(codePoint);
+            state = next(state, codePoint);
+            if (state == null) {
+                return null;
+            }
+        }
+        return state.matches;
+    }
+
+    /**
+     * Checks whether the pattern of the handler is evaluated by the automaton.
+     */
+    public boolean isSupported(@NotNull final ResourceAccessGateHandler handler) {
+        final int index = indexOf(handler);
+        return index >= 0 && supportedHandlers.get(index);
+    }
+
+    /**
+     * Checks whether the handler matches the path.
+     *
+     * @param matches the result of {@link #match(String)} for the path
+     * @param handler the handler
+     * @param path the path
+     */
+    public boolean matches(
+            @Nullable final long[] matches, @NotNull final ResourceAccessGateHandler handler, final String path) {
+        final int index = indexOf(handler);
+        if (matches == null || index < 0 || !supportedHandlers.get(index)) {
+            return handler.matchesPath(path);
+        }
+        return (matches[index >>> 6] & (1L << index)) != 0;
+    }
+
+    /**
+     * Returns the position of the handler, using its {@link GateHandlerIndex rank} if it is
+     * valid for this matcher.
+     *
+     * @return the position or <code>-1</code> if the handler is unknown
+     */
+    private int indexOf(final ResourceAccessGateHandler handler) {
+        final int rank = handler.getRank();
+        if (rank >= 0 && rank < handlers.length && handlers[rank] == handler) {
+            return rank;
+        }
+        final Integer index = handlerIndexes.get(handler);
+        return index != null ? index : -1;
+    }
+
+    /**
+     * Returns the state following the state for the character.
+     *
+     * @return the state or <code>null</code> if it is not kept and the maximum number of states is reached
+     */
+    private DfaState next(final DfaState state, final int codePoint) {
+        DfaState next = codePoint < state.ascii.length ? state.ascii[codePoint] : state.others.get(codePoint);
+        if (next == null) {
+            final BitSet nextSet = new BitSet();
+            for (final int nfaState : state.nfaStates) {
+                if (types[nfaState] == TYPE_CHAR && contains(charRanges[nfaState], codePoint)) {
+                    addWithClosure(nextSet, out1[nfaState]);
+                }
+            }
+            next = getState(nextSet);
+            if (next != null) {
+                // racy but safe, the states are immutable apart from their transitions
+                if (codePoint < state.ascii.length) {
+                    state.ascii[codePoint] = next;
+                } else {
+                    state.others.put(codePoint, next);
+                }
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Returns the kept state for the states of the nondeterministic automaton, creating it if
+     * the maximum number of states is not reached yet. A state not kept is not computed either,
+     * as it would need to be computed again for every character of every path.
+     */
+    private DfaState getState(final BitSet nfaStates) {
+        DfaState state = dfaStates.get(nfaStates);
+        if (state == null) {
+            if (dfaStates.size() >= maxDfaStates) {
+                return null;
+            }
+            state = new DfaState(nfaStates);
+            final DfaState existing = dfaStates.putIfAbsent(nfaStates, state);
+            if (existing != null) {
+                state = existing;
+            }
+        }
+        return state;
+    }
+
+    private void addWithClosure(final BitSet set, final int start) {
+        // every state is pushed at most once per incoming transition
+        final int[] stack = new int[2 * types.length + 1];
+        int size = 0;
+        stack[size++] = start;
+        while (size > 0) {
+            final int state = stack[--size];
+            if (state < 0 || set.get(state)) {
+                continue;
+            }
+            set.set(state);
+            if (types[state] == TYPE_SPLIT) {
+                stack[size++] = out1[state];
+                stack[size++] = out2[state];
+            }
+        }
+    }
+
+    private static boolean contains(final int[] ranges, final int codePoint) {
+        int low = 0;
+        int high = ranges.length / 2 - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            if (codePoint < ranges[2 * mid]) {
+                high = mid - 1;
+            } else if (codePoint > ranges[2 * mid + 1]) {
+                low = mid + 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private final class DfaState {
+
+        /** the states of the nondeterministic automaton consuming a character */
+        private final int[] nfaStates;
+
+        private final long[] matches;
+
+        private final DfaState[] ascii = new DfaState[128];
+
+        private final Map<Integer, DfaState> others = new ConcurrentHashMap<>(4);
+
+        DfaState(final BitSet states) {
+            final long[] matchBits = new long[(handlerCount + 63) >>> 6];
+            final List<Integer> charStates = new ArrayList<>();
+            for (int state = states.nextSetBit(0); state >= 0; state = states.nextSetBit(state + 1)) {
+                if (types[state] == TYPE_CHAR) {
+                    charStates.add(state);
+                } else if (types[state] == TYPE_MATCH) {
+                    for (final int index : matchedHandlers[state]) {
+                        matchBits[index >>> 6] |= 1L << index;
+                    }
+                }
+            }
+            this.nfaStates = charStates.stream().mapToInt(Integer::intValue).toArray();
+            this.matches = matchBits;
+        }
+
+        boolean isDead() {
+            return nfaStates.length == 0;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------
+    // parsing and compiling of the patterns
+
+    private static final class UnsupportedPatternException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        UnsupportedPatternException(final String message) {
+            super(message);
+        }
+    }
+
+    /** node of the syntax tree of a pattern */
+    private abstract static class Node {}
+
+    private static final class CharNode extends Node {
+        final int[] ranges;
+
+        CharNode(final int[] ranges) {
+            this.ranges = ranges;
+        }
+    }
+
+    private static final class ConcatNode extends Node {
+        final List<Node> nodes;
+
+        ConcatNode(final List<Node> nodes) {
+            this.nodes = nodes;
+        }
+    }
+
+    private static final class AltNode extends Node {
+        final List<Node> nodes;
+
+        AltNode(final List<Node> nodes) {
+            this.nodes = nodes;
+        }
+    }
+
+    private static final class RepeatNode extends Node {
+        final Node node;
+        final int min;
+        /** maximum number of repetitions, -1 for unbounded */
+        final int max;
+
+        RepeatNode(final Node node, final int min, final int max) {
+            this.node = node;
+            this.min = min;
+            this.max = max;
+        }
+    }
+
+    private static final class NfaBuilder {
+        final List<Integer> types = new ArrayList<>();
+        final List<int[]> charRanges = new ArrayList<>();
+        final List<Integer> out1 = new ArrayList<>();
+        final List<Integer> out2 = new ArrayList<>();
+        final List<int[]> matchedHandlers = new ArrayList<>();
+
+        int size() {
+            return types.size();
+        }
+
+        int addSplit() {
+            types.add(TYPE_SPLIT);
+            charRanges.add(null);
+            out1.add(-1);
+            out2.add(-1);
+            matchedHandlers.add(null);
+            return types.size() - 1;
+        }
+
+        void truncate(final int size) {
+            while (types.size() > size) {
+                final int last = types.size() - 1;
+                types.remove(last);
+                charRanges.remove(last);
+                out1.remove(last);
+                out2.remove(last);
+                matchedHandlers.remove(last);
+            }
+        }
+
+        int add(final int type, final int[] ranges, final int next1, final int next2, final int[] handlers)
+                throws UnsupportedPatternException {
+            if (types.size() >= MAX_NFA_STATES) {
+                throw new UnsupportedPatternException("automaton too large");
+            }
+            types.add(type);
+            charRanges.add(ranges);
+            out1.add(next1);
+            out2.add(next2);
+            matchedHandlers.add(handlers);
+            return types.size() - 1;
+        }
+
+        /**
+         * Compiles the node so that it continues with the next state once the node is matched.
+         *
+         * @return the start state of the node
+         */
+        int compile(final Node node, final int next) throws UnsupportedPatternException {
+            if (node instanceof CharNode) {
+                return add(TYPE_CHAR, ((CharNode) node).ranges, next, -1, null);
+            } else if (node instanceof ConcatNode) {
+                int start = next;
+                final List<Node> nodes = ((ConcatNode) node).nodes;
+                for (int i = nodes.size() - 1; i >= 0; i--) {
+                    start = compile(nodes.get(i), start);
+                }
+                return start;
+            } else if (node instanceof AltNode) {
+                final List<Node> nodes = ((AltNode) node).nodes;
+                int start = compile(nodes.get(nodes.size() - 1), next);
+                for (int i = nodes.size() - 2; i >= 0; i--) {
+                    start = add(TYPE_SPLIT, null, compile(nodes.get(i), next), start, null);
+                }
+                return start;
+            } else {
+                final RepeatNode repeat = (RepeatNode) node;
+                int start;
+                if (repeat.max < 0) {
+                    // loop: split to the node (which returns to the split) or to next
+                    start = add(TYPE_SPLIT, null, -1, next, null);
+                    out1.set(start, compile(repeat.node, start));
+                } else {
+                    start = next;
+                    for (int i = repeat.min; i < repeat.max; i++) {
+                        start = add(TYPE_SPLIT, null, compile(repeat.node, start), next, null);
+                    }
+                }
+                for (int i = 0; i < repeat.min; i++) {
+                    start = compile(repeat.node, start);
+                }
+                return start;
+            }
+        }
+    }
+
+    /**
+     * Parser for the supported subset of the {@link java.util.regex.Pattern} syntax.
+     */
+    private static final class PatternParser {
+
+        private static final int[] ANY_BUT_LINE_TERMINATORS =
+                complement(normalize(new int[] {'\n', '\n', '\r', '\r', 0x85, 0x85, 0x2028, 0x2029}));
+        private static final int[] DIGITS = {'0', '9'};
+        private static final int[] WORD = normalize(new int[] {'0', '9', 'A', 'Z', '_', '_', 'a', 'z'});
+        private static final int[] SPACE = normalize(new int[] {'\t', '\r', ' ', ' '});
+
+        private final String pattern;
+
+        private int pos;
+
+        PatternParser(final String pattern) {
+            this.pattern = pattern;
+        }
+
+        Node parse() throws UnsupportedPatternException {
+            if (pattern.startsWith("^")) {
+                pos++;
+            }
+            final Node node = parseAlternation();
+            if (pos < pattern.length()) {
+                if (pattern.charAt(pos) == '$' && pos == pattern.length() - 1) {
+                    // with full matching a trailing $ does not change the matched paths
+                    pos++;
+                } else {
+                    throw new UnsupportedPatternException("unexpected '" + pattern.charAt(pos) + "'");
+                }
+            }
+            return node;
+        }
+
+        private boolean atEnd() {
+            return pos >= pattern.length();
+        }
+
+        private Node parseAlternation() throws UnsupportedPatternException {
+            final List<Node> alternatives = new ArrayList<>();
+            alternatives.add(parseConcatenation());
+            while (!atEnd() && pattern.charAt(pos) == '|') {
+                pos++;
+                alternatives.add(parseConcatenation());
+            }
+            return alternatives.size() == 1 ? alternatives.get(0) : new AltNode(alternatives);
+        }
+
+        private Node parseConcatenation() throws UnsupportedPatternException {
+            final List<Node> nodes = new ArrayList<>();
+            while (!atEnd()) {
+                final char c = pattern.charAt(pos);
+                if (c == '|' || c == ')' || (c == '$' && pos == pattern.length() - 1)) {
+                    break;
+                }
+                nodes.add(parseQuantified());
+            }
+            return nodes.size() == 1 ? nodes.get(0) : new ConcatNode(nodes);
+        }
+
+        private Node parseQuantified() throws UnsupportedPatternException {
+            Node node = parseAtom();
+            while (!atEnd()) {
+                final char c = pattern.charAt(pos);
+                int min;
+                int max;
+                if (c == '*') {
+                    min = 0;
+                    max = -1;
+                    pos++;
+                } else if (c == '+') {
+                    min = 1;
+                    max = -1;
+                    pos++;
+                } else if (c == '?') {
+                    min = 0;
+                    max = 1;
+                    pos++;
+                } else if (c == '{') {
+                    pos++;
+                    min = parseNumber();
+                    max = min;
+                    if (!atEnd() && pattern.charAt(pos) == ',') {
+                        pos++;
+                        max = !atEnd() && pattern.charAt(pos) == '}' ? -1 : parseNumber();
+                    }
+                    expect('}');
+                    if (max >= 0 && max < min) {
+                        throw new UnsupportedPatternException("invalid repetition");
+                    }
+                } else {
+                    break;
+                }
+                if (!atEnd() && pattern.charAt(pos) == '?') {
+                    // reluctant quantifiers match the same paths with full matching
+                    pos++;
+                } else if (!atEnd() && pattern.charAt(pos) == '+') {
+                    throw new UnsupportedPatternException("possessive quantifier");
+                }
+                node = new RepeatNode(node, min, max);
+            }
+            return node;
+        }
+
+        private int parseNumber() throws UnsupportedPatternException {
+            final int start = pos;
+            while (!atEnd() && pattern.charAt(pos) >= '0' && pattern.charAt(pos) <= '9') {
+                pos++;
+            }
+            if (start == pos || pos - start > 3) {
+                throw new UnsupportedPatternException("invalid repetition");
+            }
+            final int number = Integer.parseInt(pattern.substring(start, pos));
+            if (number > MAX_REPETITION) {
+                throw new UnsupportedPatternException("repetition too large");
+            }
+            return number;
+        }
+
+        private void expect(final char c) throws UnsupportedPatternException {
+            if (atEnd() || pattern.charAt(pos) != c) {
+                throw new UnsupportedPatternException("expected '" + c + "'");
+            }
+            pos++;
+        }
+
+        private Node parseAtom() throws UnsupportedPatternException {
+            final int c = pattern.codePointAt(pos);
+            switch (c) {
+                case '(':
+                    pos++;
+                    if (!atEnd() && pattern.charAt(pos) == '?') {
+                        if (pattern.startsWith("?:", pos)) {
+                            pos += 2;
+                        } else {
+                            throw new UnsupportedPatternException("special group");
+                        }
+                    }
+                    final Node node = parseAlternation();
+                    expect(')');
+                    return node;
+                case '[':
+                    return new CharNode(parseClass());
+                case '.':
+                    pos++;
+                    return new CharNode(ANY_BUT_LINE_TERMINATORS);
+                case '\\':
+                    return new CharNode(parseEscape());
+                case '^':
+                case '$':
+                case ')':
+                case ']':
+                case '{':
+                case '}':
+                case '*':
+                case '+':
+                case '?':
+                case '|':
+                    throw new UnsupportedPatternException("unexpected '" + (char) c + "'");
+                default:
+                    pos += Character.charCount(c);
+                    return new CharNode(new int[] {c, c});
+            }
+        }
+
+        /** parses an escape sequence outside or inside of a character class */
+        private int[] parseEscape() throws UnsupportedPatternException {
+            pos++;
+            if (atEnd()) {
+                throw new UnsupportedPatternException("incomplete escape");
+            }
+            final int c = pattern.codePointAt(pos);
+            pos += Character.charCount(c);
+            switch (c) {
+                case 'd':
+                    return DIGITS;
+                case 'D':
+                    return complement(DIGITS);
+                case 'w':
+                    return WORD;
+                case 'W':
+                    return complement(WORD);
+                case 's':
+                    return SPACE;
+                case 'S':
+                    return complement(SPACE);
+                case 't':
+                    return new int[] {'\t', '\t'};
+                case 'n':
+                    return new int[] {'\n', '\n'};
+                case 'r':
+                    return new int[] {'\r', '\r'};
+                case 'f':
+                    return new int[] {'\f', '\f'};
+                default:
+                    if (c < 128 && Character.isLetterOrDigit(c)) {
+                        throw new UnsupportedPatternException("escape \\" + (char) c);
+                    }
+                    return new int[] {c, c};
+            }
+        }
+
+        private int[] parseClass() throws UnsupportedPatternException {
+            pos++;
+            boolean negated = false;
+            if (!atEnd() && pattern.charAt(pos) == '^') {
+                negated = true;
+                pos++;
+            }
+            final List<int[]> parts = new ArrayList<>();
+            boolean first = true;
+            while (true) {
+                if (atEnd()) {
+                    throw new UnsupportedPatternException("unclosed character class");
+                }
+                final int c = pattern.codePointAt(pos);
+                if (c == ']' && !first) {
+                    pos++;
+                    break;
+                }
+                if (c == '[' || c == ']' || pattern.startsWith("&&", pos)) {
+                    throw new UnsupportedPatternException("nested character class");
+                }
+                first = false;
+                final int[] single;
+                if (c == '\\') {
+                    single = parseEscape();
+                } else {
+                    pos += Character.charCount(c);
+                    single = new int[] {c, c};
+                }
+                if (single.length == 2
+                        && single[0] == single[1]
+                        && pos + 1 < pattern.length()
+                        && pattern.charAt(pos) == '-'
+                        && pattern.charAt(pos + 1) != ']') {
+                    // a range
+                    pos++;
+                    final int end;
+                    final int d = pattern.codePointAt(pos);
+                    if (d == '[') {
+                        throw new UnsupportedPatternException("nested character class");
+                    } else if (d == '\\') {
+                        final int[] escaped = parseEscape();
+                        if (escaped.length != 2 || escaped[0] != escaped[1]) {
+                            throw new UnsupportedPatternException("invalid range");
+                        }
+                        end = escaped[0];
+                    } else {
+                        pos += Character.charCount(d);
+                        end = d;
+                    }
+                    if (end < single[0]) {
+                        throw new UnsupportedPatternException("invalid range");
+                    }
+                    parts.add(new int[] {single[0], end});
+                } else {
+                    parts.add(single);
+                }
+            }
+            int total = 0;
+            for (final int[] part : parts) {
+                total += part.length;
+            }
+            final int[] ranges = new int[total];
+            int offset = 0;
+            for (final int[] part : parts) {
+                System.arraycopy(part, 0, ranges, offset, part.length);
+                offset += part.length;
+            }
+            final int[] normalized = normalize(ranges);
+            return negated ? complement(normalized) : normalized;
+        }
+
+        /** sorts and merges the ranges */
+        private static int[] normalize(final int[] ranges) {
+            final int count = ranges.length / 2;
+            final long[] sorted = new long[count];
+            for (int i = 0; i < count; i++) {
+                sorted[i] = ((long) ranges[2 * i] << 32) | ranges[2 * i + 1];
+            }
+            Arrays.sort(sorted);
+            final List<Integer> result = new ArrayList<>();
+            for (final long range : sorted) {
+                final int low = (int) (range >>> 32);
+                final int high = (int) range;
+                final int last = result.size() - 1;
+                if (last > 0 && low <= result.get(last) + 1) {
+                    result.set(last, Math.max(result.get(last), high));
+                } else {
+                    result.add(low);
+                    result.add(high);
+                }
+            }
+            return result.stream().mapToInt(Integer::intValue).toArray();
+        }
+
+        /** complements normalized ranges */
+        private static int[] complement(final int[] ranges) {
+            final List<Integer> result = new ArrayList<>();
+            int next = 0;
+            for (int i = 0; i < ranges.length; i += 2) {
+                if (ranges[i] > next) {
+                    result.add(next);
+                    result.add(ranges[i] - 1);
+                }
+                next = ranges[i + 1] + 1;
+            }
+            if (next <= MAX_CODE_POINT) {
+                result.add(next);
+                result.add(MAX_CODE_POINT);
+            }
+            return result.stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.resourceaccesssecurity.impl;
+
+import org.apache.sling.resourceaccesssecurity.ResourceAccessGate;
+import org.apache.sling.resourceaccesssecurity.ResourceAccessGate.GateResult;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The <code>OperationChain</code> is the state of the gate chain for an operation other than
+ * {@link ResourceAccessGate.Operation#READ}, used by the asynchronous checks and the
+ * {@link EffectivePermissions}. It applies the same rules as
+ * {@link ResourceAccessSecurityImpl#evaluateOperation}.
+ */
+public class OperationChain {
+
+    private final ResourceAccessGate.Operation operation;
+
+    private final boolean defaultAllowIfNoGateMatches;
+
+    private GateResult finalGateResult;
+
+    private boolean noGateMatched = true;
+
+    /** the first gate with subtree semantics which denied the operation, <code>null</code> if none */
+    private ResourceAccessGateHandler subtreeDeniedBy;
+
+    OperationChain(final ResourceAccessGate.Operation operation, final boolean defaultAllowIfNoGateMatches) {
+        this.operation = operation;
+        this.defaultAllowIfNoGateMatches = defaultAllowIfNoGateMatches;
+    }
+
+    /**
+     * Applies the result of a gate whose path matches the resource.
+     *
+     * @return <code>true</code> if no further gate needs to be called
+     */
+    boolean apply(final ResourceAccessGateHandler handler, final GateResult gateResult) {
+        noGateMatched = false;
+        if (finalGateResult == null || finalGateResult == GateResult.DENIED) {
+            finalGateResult = gateResult;
+        }
+        if (gateResult == GateResult.DENIED && subtreeDeniedBy == null && handler.isSubtreeOperation(operation)) {
+            subtreeDeniedBy = handler;
+        }
+        return finalGateResult == GateResult.GRANTED
+                || gateResult != GateResult.CANT_DECIDE && handler.isFinalOperation(operation);
+    }
+
+    boolean getDecision() {
+        return finalGateResult == GateResult.GRANTED || (noGateMatched && defaultAllowIfNoGateMatches);
+    }
+
+    /**
+     * @return the first gate with subtree semantics which denied the operation, <code>null</code> if none
+     */
+    @Nullable
+    ResourceAccessGateHandler getSubtreeDeniedBy() {
+        return subtreeDeniedBy;
+    }
+}
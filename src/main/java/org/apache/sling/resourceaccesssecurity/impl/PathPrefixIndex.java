@@ -0,0 +1,268 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.resourceaccesssecurity.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The <code>PathPrefixIndex</code> is a trie over path segments built from
+ * the literal prefixes of the path patterns of the gate handlers.
+ *
+ * For a given path it returns the handlers whose pattern might match the path,
+ * all other handlers can't match as the path does not start with the literal
+ * prefix of their pattern. The returned handlers are in the order of the list
+ * the index has been built from. The regular expressions still need to be
+ * evaluated for the returned handlers.
+ */
+public class PathPrefixIndex {
+
+    private static final ResourceAccessGateHandler[] NO_HANDLERS = new ResourceAccessGateHandler[0];
+
+    private final ResourceAccessGateHandler[] allHandlers;
+
+    private final Node root;
+
+    /**
+     * Builds the index.
+     *
+     * @param handlers the handlers, sorted from highest to lowest ranked
+     */
+    public PathPrefixIndex(@NotNull final List<ResourceAccessGateHandler> handlers) {
+        this.allHandlers = handlers.toArray(NO_HANDLERS);
+
+        final BuildNode buildRoot = new BuildNode();
+        for (int i = 0; i < allHandlers.length; i++) {
+            final String prefix = allHandlers[i].getLiteralPathPrefix();
+            // only complete segments are indexed, the remainder is checked by the pattern
+            final String dirPart = prefix.substring(0, prefix.lastIndexOf('/') + 1);
+            BuildNode node = buildRoot;
+            int start = 0;
+            int slash;
+            while ((slash = dirPart.indexOf('/', start)) != -1) {
+                node = node.children.computeIfAbsent(dirPart.substring(start, slash), key -> new BuildNode());
+                start = slash + 1;
+            }
+            node.handlerIndexes.add(i);
+        }
+        this.root = buildRoot.freeze(new boolean[allHandlers.length], allHandlers);
+    }
+
+    /**
+     * Returns the handlers which might match the given path.
+     *
+     * @param path the path or <code>null</code>, in which case all handlers are returned
+     * @return the candidate handlers, sorted like the list the index has been built from.
+     *      The returned array must not be modified.
+     */
+    public @NotNull ResourceAccessGateHandler[] getCandidates(@Nullable final String path) {
+        if (path == null) {
+            return allHandlers;
+        }
+        Node node = root;
+        int start = 0;
+        int slash;
+        while ((slash = path.indexOf('/', start)) != -1) {
+            final Node child = node.getChild(path, start, slash);
+            if (child == null) {
+                break;
+            }
+            node = child;
+            start = slash + 1;
+        }
+        return node.candidates;
+    }
+
+    /**
+     * Extracts the literal prefix of a regular expression, i.e. the longest string every
+     * input matched by the expression starts with, as far as it can be determined without
+     * fully parsing the expression.
+     *
+     * @param regex the regular expression
+     * @return the literal prefix, an empty string if there is none
+     */
+    public static @NotNull String getLiteralPrefix(@NotNull final String regex) {
+        final StringBuilder prefix = new StringBuilder();
+        scanLiteralPrefix(regex, prefix);
+        return prefix.toString();
+    }
+
+    /**
+     * Scans the literal prefix of a regular expression.
+     *
+     * @param regex the regular expression
+     * @param prefix receives the literal prefix
+     * @return the index of the first character of the expression which is not part of
+     *      the literal prefix or <code>-1</code> if the expression has no literal prefix
+     *      due to a top level alternation
+     */
+    static int scanLiteralPrefix(@NotNull final String regex, @NotNull final StringBuilder prefix) {
+        if (hasTopLevelAlternation(regex)) {
+            return -1;
+        }
+        int i = 0;
+        if (regex.startsWith("^")) {
+            i++;
+        }
+        while (i < regex.length()) {
+            final int start = i;
+            final char c = regex.charAt(i);
+            final char literal;
+            if (c == '\\') {
+                if (i + 1 >= regex.length() || Character.isLetterOrDigit(regex.charAt(i + 1))) {
+                    // character classes, back references, quotes and boundaries end the literal part
+                    return start;
+                }
+                literal = regex.charAt(i + 1);
+                i += 2;
+            } else if (".[]{}()*+?^$|".indexOf(c) != -1) {
+                return start;
+            } else if (Character.isHighSurrogate(c)) {
+                // keep the prefix free of incomplete code points
+                return start;
+            } else {
+                literal = c;
+                i++;
+            }
+            if (i < regex.length()) {
+                final char next = regex.charAt(i);
+                if (next == '?' || next == '*' || next == '{') {
+                    // the last literal is optional or repeated an unknown number of times
+                    return start;
+                }
+                prefix.append(literal);
+                if (next == '+') {
+                    return i;
+                }
+            } else {
+                prefix.append(literal);
+            }
+        }
+        return i;
+    }
+
+    private static boolean hasTopLevelAlternation(final String regex) {
+        int depth = 0;
+        boolean inClass = false;
+        for (int i = 0; i < regex.length(); i++) {
+            final char c = regex.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (inClass) {
+                if (c == ']') {
+                    inClass = false;
+                }
+            } else if (c == '[') {
+                inClass = true;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == '|' && depth <= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final class BuildNode {
+
+        private final Map<String, BuildNode> children = new TreeMap<>();
+
+        private final List<Integer> handlerIndexes = new ArrayList<>();
+
+        Node freeze(final boolean[] inherited, final ResourceAccessGateHandler[] handlers) {
+            final boolean[] selected = inherited.clone();
+            for (final int index : handlerIndexes) {
+                selected[index] = true;
+            }
+            final List<ResourceAccessGateHandler> candidates = new ArrayList<>();
+            for (int i = 0; i < selected.length; i++) {
+                if (selected[i]) {
+                    candidates.add(handlers[i]);
+                }
+            }
+            final String[] segments = new String[children.size()];
+            final Node[] nodes = new Node[children.size()];
+            int i = 0;
+            for (final Map.Entry<String, BuildNode> entry : children.entrySet()) {
+                segments[i] = entry.getKey();
+                nodes[i] = entry.getValue().freeze(selected, handlers);
+                i++;
+            }
+            return new Node(segments, nodes, candidates.toArray(NO_HANDLERS));
+        }
+    }
+
+    private static final class Node {
+
+        /** sorted segment names of the child nodes */
+        private final String[] segments;
+
+        private final Node[] children;
+
+        /** handlers of this node and all its ancestors */
+        private final ResourceAccessGateHandler[] candidates;
+
+        Node(final String[] segments, final Node[] children, final ResourceAccessGateHandler[] candidates) {
+            this.segments = segments;
+            this.children = children;
+            this.candidates = candidates;
+        }
+
+        Node getChild(final String path, final int start, final int end) {
+            int low = 0;
+            int high = segments.length - 1;
+            while (low <= high) {
+                final int mid = (low + high) >>> 1;
+                final int cmp = compare(segments[mid], path, start, end);
+                if (cmp < 0) {
+                    low = mid + 1;
+                } else if (cmp > 0) {
+                    high = mid - 1;
+                } else {
+                    return children[mid];
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Compares the segment with the region of the path in the same way as
+         * {@link String#compareTo(String)} without creating a substring.
+         */
+        private static int compare(final String segment, final String path, final int start, final int end) {
+            final int regionLength = end - start;
+            final int length = Math.min(segment.length(), regionLength);
+            for (int i = 0; i < length; i++) {
+                final char c1 = segment.charAt(i);
+                final char c2 = path.charAt(start + i);
+                if (c1 != c2) {
+                    return c1 - c2;
+                }
+            }
+            return segment.length() - regionLength;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.resourceaccesssecurity.impl;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The <code>QueryTransformationCache</code> keeps the queries transformed by runs of
+ * consecutive gates whose transformations are cacheable. An entry is keyed by the
+ * position of the first gate of the run, the gates having read restrictions for the
+ * resource resolver, the query, the language and the user ID of the resource resolver.
+ *
+ * The least recently used entry is evicted once the cache is full and entries expire
+ * after the configured time. Like the {@link ResolverAccessCache} the cache is bound
+ * to the snapshot of the gates it has been filled for, once the gates change all
+ * entries are discarded.
+ */
+public class QueryTransformationCache {
+
+    private final long ttlNanos;
+
+    private final Map<Key, CachedQuery> entries;
+
+    /** the snapshot of the gates the entries have been computed for */
+    private GateHandlerIndex index;
+
+    /** incremented by each eviction, transformations done before an eviction are not stored */
+    private long epoch;
+
+    /**
+     * Creates the cache.
+     *
+     * @param maxSize the maximum number of entries
+     * @param ttlSeconds the time after which an entry expires, <code>0</code> if entries don't expire
+     */
+    public QueryTransformationCache(final int maxSize, final int ttlSeconds) {
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+        this.entries = new LinkedHashMap<Key, CachedQuery>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Key, CachedQuery> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Returns the query transformed by the run of gates starting at the position.
+     *
+     * @return the transformed query or <code>null</code> if not cached
+     */
+    public synchronized @Nullable String get(
+            @NotNull final GateHandlerIndex index,
+            final int start,
+            @NotNull final long[] restrictions,
+            @NotNull final String query,
+            @Nullable final String language,
+            @Nullable final String userId) {
+        if (index != this.index) {
+            return null;
+        }
+        final Key key = new Key(start, restrictions, query, language, userId);
+        final CachedQuery entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (ttlNanos > 0 && System.nanoTime() - entry.created > ttlNanos) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.transformedQuery;
+    }
+
+    /**
+     * Returns the current epoch, which is to be read before the query is transformed.
+     */
+    public synchronized long getEpoch() {
+        return epoch;
+    }
+
+    public synchronized void put(
+            @NotNull final GateHandlerIndex index,
+            final int start,
+            @NotNull final long[] restrictions,
+            @NotNull final String query,
+            @Nullable final String language,
+            @Nullable final String userId,
+            @NotNull final String transformedQuery,
+            final long epoch) {
+        if (epoch != this.epoch) {
+            return;
+        }
+        if (index != this.index) {
+            // don't let a transformation which started before the gates changed replace newer entries
+            if (this.index != null && index.getGeneration() < this.index.getGeneration()) {
+                return;
+            }
+            this.index = index;
+            entries.clear();
+        }
+        entries.put(
+                new Key(start, restrictions, query, language, userId),
+                new CachedQuery(transformedQuery, System.nanoTime()));
+    }
+
+    /**
+     * Discards the transformations for the user, as the policy for the user changed.
+     * Transformations done before the eviction are not stored anymore.
+     *
+     * @param userId the user ID or <code>null</code> to discard the transformations of all users
+     */
+    public synchronized void evict(@Nullable final String userId) {
+        epoch++;
+        if (userId == null) {
+            entries.clear();
+        } else {
+            entries.keySet().removeIf(key -> userId.equals(key.userId));
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private static final class Key {
+
+        private final int start;
+
+        /** the bit set over the handler indexes of the gates having read restrictions */
+        private final long[] restrictions;
+
+        private final String query;
+
+        private final String language;
+
+        private final String userId;
+
+        Key(
+                final int start,
+                final long[] restrictions,
+                final String query,
+                final String language,
+                final String userId) {
+            this.start = start;
+            this.restrictions = restrictions;
+            this.query = query;
+            this.language = language;
+            this.userId = userId;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return start == other.start
+                    && Arrays.equals(restrictions, other.restrictions)
+                    && query.equals(other.query)
+                    && Objects.equals(language, other.language)
+                    && Objects.equals(userId, other.userId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(start, Arrays.hashCode(restrictions), query, language, userId);
+        }
+    }
+
+    private static final class CachedQuery {
+
+        private final String transformedQuery;
+
+        private final long created;
+
+        CachedQuery(final String transformedQuery, final long created) {
+            this.transformedQuery = transformedQuery;
+            this.created = created;
+        }
+    }
+}
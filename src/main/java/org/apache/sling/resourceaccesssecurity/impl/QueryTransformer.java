@@ -0,0 +1,232 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.resourceaccesssecurity.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.security.AccessSecurityException;
+import org.apache.sling.commons.osgi.PropertiesUtil;
+import org.apache.sling.resourceaccesssecurity.ParsedQueryResourceAccessGate;
+import org.apache.sling.resourceaccesssecurity.QueryCodec;
+import org.apache.sling.resourceaccesssecurity.ResourceAccessGate;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.osgi.framework.ServiceReference;
+
+/**
+ * The <code>QueryTransformer</code> passes queries through the gates, sharing the parsed query
+ * between {@link ParsedQueryResourceAccessGate}s by the {@link QueryCodec} of its language. It
+ * keeps the bound codecs and the {@link QueryTransformationCache}.
+ */
+public class QueryTransformer {
+
+    private final ResourceAccessSecurityImpl security;
+
+    /** the bound query codecs by service reference, guarded by itself */
+    private final Map<ServiceReference<QueryCodec>, QueryCodec> boundCodecs = new HashMap<>();
+
+    /** the highest ranked query codec per language */
+    private volatile Map<String, QueryCodec> queryCodecs = Collections.emptyMap();
+
+    /** the cache of the transformed queries, <code>null</code> if disabled */
+    private final QueryTransformationCache cache;
+
+    /**
+     * @param cacheSize the maximum number of transformed queries kept, 0 to disable the cache
+     * @param cacheTtl the time to live of a transformed query in seconds
+     */
+    QueryTransformer(@NotNull final ResourceAccessSecurityImpl security, final int cacheSize, final int cacheTtl) {
+        this.security = security;
+        this.cache = cacheSize > 0 ? new QueryTransformationCache(cacheSize, cacheTtl) : null;
+    }
+
+    void bindCodec(@NotNull final ServiceReference<QueryCodec> ref, @NotNull final QueryCodec codec) {
+        synchronized (boundCodecs) {
+            boundCodecs.put(ref, codec);
+            publishCodecs();
+        }
+    }
+
+    void unbindCodec(@NotNull final ServiceReference<QueryCodec> ref) {
+        synchronized (boundCodecs) {
+            if (boundCodecs.remove(ref) != null) {
+                publishCodecs();
+            }
+        }
+    }
+
+    /**
+     * Discards the transformed queries of the user, transformed queries are not bound to a path.
+     *
+     * @param userId the user or <code>null</code> for all users
+     */
+    void evict(@Nullable final String userId) {
+        if (cache != null) {
+            cache.evict(userId);
+        }
+    }
+
+    /**
+     * Passes the query through the gates handling {@link ResourceAccessGate.Operation#READ} which
+     * have read restrictions for the resolver, in ranking order.
+     */
+    String transformQuery(
+            final GateHandlerIndex snapshot,
+            final String query,
+            final String language,
+            final ResourceResolver resourceResolver)
+            throws AccessSecurityException {
+        final ResourceAccessGateHandler[] handlers = snapshot.getHandlers(ResourceAccessGate.Operation.READ);
+        long[] restrictions = security.getRestrictions(snapshot, ResourceAccessGate.Operation.READ, resourceResolver);
+        if (restrictions == null) {
+            restrictions = ResourceAccessSecurityImpl.computeRestrictions(
+                    snapshot, ResourceAccessGate.Operation.READ, resourceResolver);
+        }
+        final QueryCodec codec = language != null ? queryCodecs.get(language) : null;
+        if (cache == null || resourceResolver == null) {
+            return transformQuery(
+                    snapshot, handlers, 0, handlers.length, restrictions, codec, query, language, resourceResolver);
+        }
+        final String userId = resourceResolver.getUserID();
+        String returnValue = query;
+        int i = 0;
+        while (i < handlers.length) {
+            if (!handlers[i].isQueryTransformationCacheable()) {
+                returnValue = transformQuery(
+                        snapshot, handlers, i, i + 1, restrictions, codec, returnValue, language, resourceResolver);
+                i++;
+                continue;
+            }
+            // the transformation of a run of cacheable gates is cached as a whole
+            int end = i + 1;
+            while (end < handlers.length && handlers[end].isQueryTransformationCacheable()) {
+                end++;
+            }
+            final String cached = cache.get(snapshot, i, restrictions, returnValue, language, userId);
+            if (cached != null) {
+                returnValue = cached;
+            } else {
+                final long epoch = cache.getEpoch();
+                final String transformed = transformQuery(
+                        snapshot, handlers, i, end, restrictions, codec, returnValue, language, resourceResolver);
+                cache.put(snapshot, i, restrictions, returnValue, language, userId, transformed, epoch);
+                returnValue = transformed;
+            }
+            i = end;
+        }
+        return returnValue;
+    }
+
+    /**
+     * Passes the query through the restricted gates from <code>start</code> to <code>end</code> (exclusive).
+     * If a codec is given, consecutive {@link ParsedQueryResourceAccessGate}s share the parsed query.
+     */
+    private String transformQuery(
+            final GateHandlerIndex snapshot,
+            final ResourceAccessGateHandler[] handlers,
+            final int start,
+            final int end,
+            final long[] restrictions,
+            final QueryCodec codec,
+            final String query,
+            final String language,
+            final ResourceResolver resourceResolver)
+            throws AccessSecurityException {
+        String returnValue = query;
+        Object parsedQuery = null;
+
+        for (int i = start; i < end; i++) {
+            final ResourceAccessGateHandler handler = handlers[i];
+            if (!security.hasRestrictions(
+                    snapshot, handler, ResourceAccessGate.Operation.READ, resourceResolver, restrictions)) {
+                continue;
+            }
+            final ResourceAccessGate gate = handler.getResourceAccessGate();
+            final long startTime = security.startTime();
+            if (codec != null && gate instanceof ParsedQueryResourceAccessGate) {
+                if (parsedQuery == null) {
+                    parsedQuery = parse(codec, returnValue, language);
+                }
+                parsedQuery = ((ParsedQueryResourceAccessGate) gate)
+                        .transformParsedQuery(parsedQuery, language, resourceResolver);
+                security.record(handler, GateMetrics.QUERY, null, startTime);
+                if (parsedQuery == null) {
+                    throw new AccessSecurityException("Method transformParsedQuery in ParsedQueryResourceAccessGate "
+                            + gate.getClass().getName() + " returned null.");
+                }
+                continue;
+            }
+            if (parsedQuery != null) {
+                returnValue = serialize(codec, parsedQuery, language);
+                parsedQuery = null;
+            }
+            returnValue = gate.transformQuery(returnValue, language, resourceResolver);
+            security.record(handler, GateMetrics.QUERY, null, startTime);
+            if (returnValue == null) {
+                throw new AccessSecurityException("Method transformQuery in ResourceAccessGate "
+                        + gate.getClass().getName() + " returned null.");
+            }
+        }
+        if (parsedQuery != null) {
+            returnValue = serialize(codec, parsedQuery, language);
+        }
+
+        return returnValue;
+    }
+
+    private static Object parse(final QueryCodec codec, final String query, final String language)
+            throws AccessSecurityException {
+        final Object parsedQuery = codec.parse(query, language);
+        if (parsedQuery == null) {
+            throw new AccessSecurityException(
+                    "Method parse in QueryCodec " + codec.getClass().getName() + " returned null.");
+        }
+        return parsedQuery;
+    }
+
+    private static String serialize(final QueryCodec codec, final Object parsedQuery, final String language)
+            throws AccessSecurityException {
+        final String query = codec.serialize(parsedQuery, language);
+        if (query == null) {
+            throw new AccessSecurityException(
+                    "Method serialize in QueryCodec " + codec.getClass().getName() + " returned null.");
+        }
+        return query;
+    }
+
+    private void publishCodecs() {
+        final List<ServiceReference<QueryCodec>> refs = new ArrayList<>(boundCodecs.keySet());
+        refs.sort(Collections.reverseOrder());
+        final Map<String, QueryCodec> codecs = new HashMap<>();
+        for (final ServiceReference<QueryCodec> ref : refs) {
+            final String[] languages = PropertiesUtil.toStringArray(ref.getProperty(QueryCodec.LANGUAGE));
+            if (languages != null) {
+                for (final String language : languages) {
+                    codecs.putIfAbsent(language, boundCodecs.get(ref));
+                }
+            }
+        }
+        this.queryCodecs = codecs;
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.resourceaccesssecurity.impl;
+
+import java.util.List;
+
+import org.apache.sling.resourceaccesssecurity.ResourceAccessGate;
+
+/**
+ * The outcome of evaluating the read gates for a resource.
+ */
+public class ReadDecision {
+
+    /** the resource and all of its values are readable */
+    public static final ReadDecision GRANTED = new ReadDecision(true, true, null);
+
+    public static final ReadDecision DENIED = new ReadDecision(false, false, null);
+
+    /** the read access is denied by a gate whose denial applies to the whole subtree */
+    public static final ReadDecision SUBTREE_DENIED = new ReadDecision(false, false, null);
+
+    private final boolean readable;
+
+    private final boolean canReadAllValues;
+
+    private final List<ResourceAccessGate> accessGatesForReadValues;
+
+    public ReadDecision(
+            final boolean readable,
+            final boolean canReadAllValues,
+            final List<ResourceAccessGate> accessGatesForReadValues) {
+        this.readable = readable;
+        this.canReadAllValues = canReadAllValues;
+        this.accessGatesForReadValues = accessGatesForReadValues;
+    }
+
+    public boolean isReadable() {
+        return readable;
+    }
+
+    public boolean canReadAllValues() {
+        return canReadAllValues;
+    }
+
+    /**
+     * The gates which granted read access but restrict reading of some values,
+     * <code>null</code> if there are no such gates.
+     */
+    public List<ResourceAccessGate> getAccessGatesForReadValues() {
+        return accessGatesForReadValues;
+    }
+}
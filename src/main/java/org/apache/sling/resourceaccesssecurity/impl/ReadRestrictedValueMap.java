@@ -0,0 +1,198 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.resourceaccesssecurity.impl;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.api.wrappers.ValueMapDecorator;
+import org.apache.sling.resourceaccesssecurity.ResourceAccessGate;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A view on the values of a resource which hides the values none of the given
+ * gates allows to read.
+ *
+ * The gates are asked lazily, only for the keys which are accessed or iterated,
+ * and the result is kept per key. Modifications are passed to the underlying map.
+ */
+public class ReadRestrictedValueMap extends AbstractMap<String, Object> implements ValueMap {
+
+    private final Map<String, Object> base;
+
+    private final Resource resource;
+
+    private final List<ResourceAccessGate> accessGatesForReadValues;
+
+    private final Map<String, Boolean> readableKeys = new HashMap<>();
+
+    private Set<Map.Entry<String, Object>> entrySet;
+
+    /**
+     * @param base the values of the resource
+     * @param resource the resource
+     * @param accessGatesForReadValues the gates to ask, a value is readable if one of them
+     *      grants reading it
+     */
+    public ReadRestrictedValueMap(
+            @NotNull final Map<String, Object> base,
+            @NotNull final Resource resource,
+            @NotNull final List<ResourceAccessGate> accessGatesForReadValues) {
+        this.base = base;
+        this.resource = resource;
+        this.accessGatesForReadValues = accessGatesForReadValues;
+    }
+
+    private boolean isReadable(final Object key) {
+        if (!(key instanceof String)) {
+            return false;
+        }
+        Boolean readable = readableKeys.get(key);
+        if (readable == null) {
+            readable = Boolean.FALSE;
+            for (final ResourceAccessGate gate : accessGatesForReadValues) {
+                if (gate.canReadValue(resource, (String) key) == ResourceAccessGate.GateResult.GRANTED) {
+                    readable = Boolean.TRUE;
+                    break;
+                }
+            }
+            readableKeys.put((String) key, readable);
+        }
+        return readable;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T> T get(@NotNull final String name, @NotNull final Class<T> type) {
+        if (!isReadable(name)) {
+            return null;
+        }
+        if (base instanceof ValueMap) {
+            return ((ValueMap) base).get(name, type);
+        }
+        return new ValueMapDecorator(base).get(name, type);
+    }
+
+    @Override
+    public <T> T get(@NotNull final String name, @NotNull final T defaultValue) {
+        if (!isReadable(name)) {
+            return defaultValue;
+        }
+        if (base instanceof ValueMap) {
+            return ((ValueMap) base).get(name, defaultValue);
+        }
+        return new ValueMapDecorator(base).get(name, defaultValue);
+    }
+
+    @Override
+    public Object get(final Object key) {
+        return isReadable(key) ? base.get(key) : null;
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+        return base.containsKey(key) && isReadable(key);
+    }
+
+    @Override
+    public Object put(final String key, final Object value) {
+        final Object previous = base.put(key, value);
+        return isReadable(key) ? previous : null;
+    }
+
+    @Override
+    public Object remove(final Object key) {
+        final Object previous = base.remove(key);
+        return isReadable(key) ? previous : null;
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new AbstractSet<Map.Entry<String, Object>>() {
+
+                @Override
+                public Iterator<Map.Entry<String, Object>> iterator() {
+                    return new ReadableEntryIterator(base.entrySet().iterator());
+                }
+
+                @Override
+                public int size() {
+                    int size = 0;
+                    for (final String key : base.keySet()) {
+                        if (isReadable(key)) {
+                            size++;
+                        }
+                    }
+                    return size;
+                }
+            };
+        }
+        return entrySet;
+    }
+
+    private final class ReadableEntryIterator implements Iterator<Map.Entry<String, Object>> {
+
+        private final Iterator<Map.Entry<String, Object>> entries;
+
+        private Map.Entry<String, Object> next;
+
+        ReadableEntryIterator(final Iterator<Map.Entry<String, Object>> entries) {
+            this.entries = entries;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && entries.hasNext()) {
+                final Map.Entry<String, Object> entry = entries.next();
+                if (isReadable(entry.getKey())) {
+                    next = entry;
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<String, Object> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final Map.Entry<String, Object> entry = next;
+            next = null;
+            return entry;
+        }
+
+        @Override
+        public void remove() {
+            if (next != null) {
+                // the underlying iterator already moved past the entry to remove
+                throw new IllegalStateException("remove() must be called before hasNext()");
+            }
+            entries.remove();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.resourceaccesssecurity.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.resourceaccesssecurity.ExtendedResourceAccessSecurity;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The <code>ReadableResourceIterator</code> filters the resources of another
+ * iterator. The resources are read ahead in batches which are checked with
+ * {@link ExtendedResourceAccessSecurity#getReadableResources(List)}.
+ */
+public class ReadableResourceIterator implements Iterator<Resource> {
+
+    private final Iterator<Resource> resources;
+
+    private final ExtendedResourceAccessSecurity resourceAccessSecurity;
+
+    private final int batchSize;
+
+    private Iterator<Resource> readableResources = Collections.emptyIterator();
+
+    public ReadableResourceIterator(
+            @NotNull final Iterator<Resource> resources,
+            @NotNull final ExtendedResourceAccessSecurity resourceAccessSecurity,
+            final int batchSize) {
+        this.resources = resources;
+        this.resourceAccessSecurity = resourceAccessSecurity;
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!readableResources.hasNext() && resources.hasNext()) {
+            final List<Resource> batch = new ArrayList<>(batchSize);
+            while (batch.size() < batchSize && resources.hasNext()) {
+                batch.add(resources.next());
+            }
+            readableResources =
+                    resourceAccessSecurity.getReadableResources(batch).iterator();
+        }
+        return readableResources.hasNext();
+    }
+
+    @Override
+    public Resource next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return readableResources.next();
+    }
+}
@@ -0,0 +1,390 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.resourceaccesssecurity.impl;
+
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.resourceaccesssecurity.ResourceAccessGate;
+import org.apache.sling.resourceaccesssecurity.ResourceAccessGate.GateResult;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The <code>ResolverAccessCache</code> keeps the access decisions taken by one
+ * <code>ResourceAccessSecurityImpl</code> for one <code>ResourceResolver</code>,
+ * the value checks, the subtrees in which an operation is denied and the subtree
+ * results returned by the gates. It only exists if at least one of these caches
+ * is enabled, as its state has to be evicted when a policy changes.
+ *
+ * The cache is stored in the {@link ResourceResolver#getPropertyMap() property map}
+ * of the resolver and is therefore discarded together with the resolver. It is
+ * bound to the security service instance which created it and to the snapshot
+ * of the gates the state has been computed for, once the gates change all kept
+ * state is discarded.
+ */
+public class ResolverAccessCache implements Closeable {
+
+    private static final String PROPERTY_PREFIX = ResolverAccessCache.class.getName() + ".";
+
+    /** the maximum number of resources whose value checks are kept */
+    private static final int MAX_VALUE_CHECKS = 32;
+
+    private final Object owner;
+
+    /** the user ID of the resolver */
+    private final String userId;
+
+    /** the live caches of the owner, this cache is removed once closed */
+    private final Set<ResolverAccessCache> liveCaches;
+
+    /** the decisions per operation, <code>null</code> if decisions are not cached */
+    private final Map<String, Object>[] decisions;
+
+    /** the denied subtrees per operation, <code>null</code> if they are not kept */
+    private final SubtreeMap<Boolean>[] deniedSubtrees;
+
+    private final int deniedSubtreesSize;
+
+    /** the subtree results per operation and handler index, <code>null</code> if they are not kept */
+    private final SubtreeMap<GateResult>[][] subtreeResults;
+
+    private final int subtreeResultsSize;
+
+    /** the snapshot of the gates all kept state has been computed for */
+    private GateHandlerIndex index;
+
+    /** value checks per operation and path */
+    private final Map<String, ValueChecks> valueChecks = new LinkedHashMap<String, ValueChecks>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, ValueChecks> eldest) {
+            return size() > MAX_VALUE_CHECKS;
+        }
+    };
+
+    /** incremented by each eviction, state computed before an eviction is not stored */
+    private long epoch;
+
+    private boolean closed;
+
+    @SuppressWarnings("unchecked")
+    private ResolverAccessCache(
+            @NotNull final Object owner,
+            @Nullable final String userId,
+            @NotNull final Set<ResolverAccessCache> liveCaches,
+            final int maxSize,
+            final int deniedSubtreesSize,
+            final int subtreeResultsSize) {
+        this.owner = owner;
+        this.userId = userId;
+        this.liveCaches = liveCaches;
+        this.decisions = maxSize > 0
+                ? (Map<String, Object>[]) new Map<?, ?>[ResourceAccessGate.Operation.values().length]
+                : null;
+        this.deniedSubtreesSize = deniedSubtreesSize;
+        this.deniedSubtrees = deniedSubtreesSize > 0
+                ? (SubtreeMap<Boolean>[]) new SubtreeMap<?>[ResourceAccessGate.Operation.values().length]
+                : null;
+        this.subtreeResultsSize = subtreeResultsSize;
+        this.subtreeResults = subtreeResultsSize > 0
+                ? (SubtreeMap<GateResult>[][]) new SubtreeMap<?>[ResourceAccessGate.Operation.values().length][]
+                : null;
+        for (int i = 0; decisions != null && i < decisions.length; i++) {
+            decisions[i] = new LinkedHashMap<String, Object>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<String, Object> eldest) {
+                    return size() > maxSize;
+                }
+            };
+        }
+    }
+
+    /**
+     * Returns the key of the resolver property holding the cache of an owner, it is
+     * meant to be computed once per owner.
+     */
+    public static @NotNull String getPropertyKey(@NotNull final Object owner) {
+        return PROPERTY_PREFIX + owner.getClass().getName();
+    }
+
+    /**
+     * Returns the cache of the given owner for the resolver, creating it if required.
+     *
+     * @param resolver the resource resolver, might be <code>null</code>
+     * @param owner the security service instance using the cache
+     * @param key the {@link #getPropertyKey(Object) property key} of the owner
+     * @param liveCaches the caches of the owner which have not been closed yet, a created cache is added
+     * @param maxSize the maximum number of decisions per operation, decisions are not cached
+     *      if this is <code>0</code>
+     * @param deniedSubtreesSize the maximum number of denied subtrees per operation, denied
+     *      subtrees are not kept if this is <code>0</code>
+     * @param subtreeResultsSize the maximum number of subtree results per operation and gate, subtree
+     *      results are not kept if this is <code>0</code>
+     * @return the cache or <code>null</code> if caching is disabled or not possible for this resolver
+     */
+    public static @Nullable ResolverAccessCache get(
+            @Nullable final ResourceResolver resolver,
+            @NotNull final Object owner,
+            @NotNull final String key,
+            @NotNull final Set<ResolverAccessCache> liveCaches,
+            final int maxSize,
+            final int deniedSubtreesSize,
+            final int subtreeResultsSize) {
+        if (resolver == null || (maxSize <= 0 && deniedSubtreesSize <= 0 && subtreeResultsSize <= 0)) {
+            return null;
+        }
+        final Map<String, Object> propertyMap = resolver.getPropertyMap();
+        if (propertyMap == null) {
+            return null;
+        }
+        final Object value = propertyMap.get(key);
+        if (value instanceof ResolverAccessCache && ((ResolverAccessCache) value).owner == owner) {
+            return (ResolverAccessCache) value;
+        }
+        final ResolverAccessCache cache = new ResolverAccessCache(
+                owner, resolver.getUserID(), liveCaches, maxSize, deniedSubtreesSize, subtreeResultsSize);
+        propertyMap.put(key, cache);
+        liveCaches.add(cache);
+        return cache;
+    }
+
+    /**
+     * Returns the current epoch, which is to be read before the state to store is computed.
+     */
+    public synchronized long getEpoch() {
+        return epoch;
+    }
+
+    public synchronized Object getDecision(
+            @NotNull final GateHandlerIndex index,
+            @NotNull final ResourceAccessGate.Operation operation,
+            @Nullable final String path) {
+        if (closed || decisions == null || index != this.index) {
+            return null;
+        }
+        return decisions[operation.ordinal()].get(path);
+    }
+
+    public synchronized void putDecision(
+            @NotNull final GateHandlerIndex index,
+            @NotNull final ResourceAccessGate.Operation operation,
+            @Nullable final String path,
+            @NotNull final Object decision,
+            final long epoch) {
+        if (!closed && decisions != null && epoch == this.epoch && switchTo(index)) {
+            decisions[operation.ordinal()].put(path, decision);
+        }
+    }
+
+    /**
+     * Discards all state if it has been computed for another snapshot of the gates.
+     *
+     * @return <code>false</code> if the index is outdated and nothing should be stored
+     */
+    private boolean switchTo(final GateHandlerIndex index) {
+        if (index != this.index) {
+            // don't let a check which started before the gates changed replace newer state
+            if (this.index != null && index.getGeneration() < this.index.getGeneration()) {
+                return false;
+            }
+            this.index = index;
+            clear();
+        }
+        return true;
+    }
+
+    private void clear() {
+        valueChecks.clear();
+        if (deniedSubtrees != null) {
+            Arrays.fill(deniedSubtrees, null);
+        }
+        if (subtreeResults != null) {
+            Arrays.fill(subtreeResults, null);
+        }
+        if (decisions != null) {
+            for (final Map<String, Object> map : decisions) {
+                map.clear();
+            }
+        }
+    }
+
+    /**
+     * Checks whether the operation has been denied for the path or one of its ancestors
+     * by a gate with subtree semantics.
+     *
+     * @param index the index the denied subtrees have been recorded for
+     * @param operation the operation
+     * @param path the path, might be <code>null</code>
+     */
+    public synchronized boolean isDeniedSubtree(
+            @NotNull final GateHandlerIndex index,
+            @NotNull final ResourceAccessGate.Operation operation,
+            @Nullable final String path) {
+        if (closed || deniedSubtrees == null || path == null || index != this.index) {
+            return false;
+        }
+        final SubtreeMap<Boolean> operationSubtrees = deniedSubtrees[operation.ordinal()];
+        return operationSubtrees != null && operationSubtrees.contains(path);
+    }
+
+    public synchronized void putDeniedSubtree(
+            @NotNull final GateHandlerIndex index,
+            @NotNull final ResourceAccessGate.Operation operation,
+            @NotNull final String path,
+            final long epoch) {
+        if (!closed && deniedSubtrees != null && epoch == this.epoch && switchTo(index)) {
+            SubtreeMap<Boolean> operationSubtrees = deniedSubtrees[operation.ordinal()];
+            if (operationSubtrees == null) {
+                operationSubtrees = new SubtreeMap<>(deniedSubtreesSize);
+                deniedSubtrees[operation.ordinal()] = operationSubtrees;
+            }
+            operationSubtrees.put(path, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Returns the subtree result the gate of a handler returned for the path or its closest ancestor.
+     *
+     * @param index the index the subtree results have been recorded for
+     * @param handlerIndex the position of the handler in the index
+     * @param operation the operation
+     * @param path the path
+     * @return the result or <code>null</code> if not known
+     */
+    public synchronized GateResult getSubtreeResult(
+            @NotNull final GateHandlerIndex index,
+            final int handlerIndex,
+            @NotNull final ResourceAccessGate.Operation operation,
+            @NotNull final String path) {
+        if (closed || subtreeResults == null || index != this.index) {
+            return null;
+        }
+        final SubtreeMap<GateResult>[] operationResults = subtreeResults[operation.ordinal()];
+        final SubtreeMap<GateResult> handlerResults = operationResults != null ? operationResults[handlerIndex] : null;
+        return handlerResults != null ? handlerResults.get(path) : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public synchronized void putSubtreeResult(
+            @NotNull final GateHandlerIndex index,
+            final int handlerIndex,
+            @NotNull final ResourceAccessGate.Operation operation,
+            @NotNull final String path,
+            @NotNull final GateResult result,
+            final long epoch) {
+        if (!closed && subtreeResults != null && epoch == this.epoch && switchTo(index)) {
+            SubtreeMap<GateResult>[] operationResults = subtreeResults[operation.ordinal()];
+            if (operationResults == null) {
+                operationResults = (SubtreeMap<GateResult>[]) new SubtreeMap<?>[index.getHandlers().length];
+                subtreeResults[operation.ordinal()] = operationResults;
+            }
+            if (operationResults[handlerIndex] == null) {
+                operationResults[handlerIndex] = new SubtreeMap<>(subtreeResultsSize);
+            }
+            operationResults[handlerIndex].put(path, result);
+        }
+    }
+
+    /**
+     * Returns the value checks of the last resource checked for the operation at the path.
+     *
+     * @param index the index the value checks have been computed for
+     * @param operation the operation
+     * @param path the path of the resource
+     * @return the value checks or <code>null</code> if not known
+     */
+    public synchronized ValueChecks getValueChecks(
+            @NotNull final GateHandlerIndex index,
+            @NotNull final ResourceAccessGate.Operation operation,
+            @NotNull final String path) {
+        if (closed || index != this.index) {
+            return null;
+        }
+        return valueChecks.get(operation.getText() + ':' + path);
+    }
+
+    public synchronized void putValueChecks(
+            @NotNull final GateHandlerIndex index,
+            @NotNull final ResourceAccessGate.Operation operation,
+            @NotNull final String path,
+            @NotNull final ValueChecks checks,
+            final long epoch) {
+        if (!closed && epoch == this.epoch && switchTo(index)) {
+            valueChecks.put(operation.getText() + ':' + path, checks);
+        }
+    }
+
+    /**
+     * Discards the state kept for the subtree, as the policy for the subtree changed. This includes
+     * the subtrees of ancestors, as their denials and subtree results apply to the subtree as well.
+     * State computed before the eviction is not stored anymore, as it might be outdated.
+     *
+     * @param path the root of the subtree
+     * @param userId the user the policy changed for or <code>null</code> for all users
+     */
+    public synchronized void evict(@NotNull final String path, @Nullable final String userId) {
+        if (closed || (userId != null && !userId.equals(this.userId))) {
+            return;
+        }
+        epoch++;
+        if (decisions != null) {
+            for (final Map<String, Object> map : decisions) {
+                // a decision without a path is discarded as well, it might be below the subtree
+                map.keySet()
+                        .removeIf(decisionPath -> decisionPath == null || SubtreeMap.isInSubtree(decisionPath, path));
+            }
+        }
+        valueChecks.keySet().removeIf(key -> SubtreeMap.isInSubtree(key.substring(key.indexOf(':') + 1), path));
+        if (deniedSubtrees != null) {
+            for (final SubtreeMap<Boolean> operationSubtrees : deniedSubtrees) {
+                if (operationSubtrees != null) {
+                    operationSubtrees.removeOverlapping(path);
+                }
+            }
+        }
+        if (subtreeResults != null) {
+            for (final SubtreeMap<GateResult>[] operationResults : subtreeResults) {
+                for (int i = 0; operationResults != null && i < operationResults.length; i++) {
+                    if (operationResults[i] != null) {
+                        operationResults[i].removeOverlapping(path);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Called by the resource resolver when it is closed.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        index = null;
+        clear();
+        liveCaches.remove(this);
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.resourceaccesssecurity.impl;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.resourceaccesssecurity.ResourceAccessGate;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The <code>ResolverRestrictions</code> keep which gates have restrictions for one
+ * <code>ResourceResolver</code>, as computed by one <code>ResourceAccessSecurityImpl</code>.
+ *
+ * Like the {@link ResolverAccessCache} they are stored in the
+ * {@link ResourceResolver#getPropertyMap() property map} of the resolver. As the
+ * restrictions only depend on the resolver and the snapshot of the gates, they are
+ * not affected by policy changes and are kept even if all caches are disabled.
+ */
+public class ResolverRestrictions {
+
+    private static final String PROPERTY_PREFIX = ResolverRestrictions.class.getName() + ".";
+
+    private final Object owner;
+
+    /** the snapshot of the gates the restrictions have been computed for */
+    private GateHandlerIndex index;
+
+    /** bit masks over the handler indexes per operation */
+    private final long[][] restrictions = new long[ResourceAccessGate.Operation.values().length][];
+
+    private ResolverRestrictions(@NotNull final Object owner) {
+        this.owner = owner;
+    }
+
+    /**
+     * Returns the key of the resolver property holding the restrictions of an owner, it is
+     * meant to be computed once per owner.
+     */
+    public static @NotNull String getPropertyKey(@NotNull final Object owner) {
+        return PROPERTY_PREFIX + owner.getClass().getName();
+    }
+
+    /**
+     * Returns the restrictions of the given owner for the resolver, creating them if required.
+     *
+     * @param resolver the resource resolver, might be <code>null</code>
+     * @param owner the security service instance using the restrictions
+     * @param key the {@link #getPropertyKey(Object) property key} of the owner
+     * @return the restrictions or <code>null</code> if they can't be kept for this resolver
+     */
+    public static @Nullable ResolverRestrictions get(
+            @Nullable final ResourceResolver resolver, @NotNull final Object owner, @NotNull final String key) {
+        if (resolver == null) {
+            return null;
+        }
+        final Map<String, Object> propertyMap = resolver.getPropertyMap();
+        if (propertyMap == null) {
+            return null;
+        }
+        final Object value = propertyMap.get(key);
+        if (value instanceof ResolverRestrictions && ((ResolverRestrictions) value).owner == owner) {
+            return (ResolverRestrictions) value;
+        }
+        final ResolverRestrictions resolverRestrictions = new ResolverRestrictions(owner);
+        propertyMap.put(key, resolverRestrictions);
+        return resolverRestrictions;
+    }
+
+    /**
+     * Returns the restrictions for the operation.
+     *
+     * @param index the index the restrictions have been computed for
+     * @param operation the operation
+     * @return a bit set over the handler indexes, containing the handlers which have restrictions
+     *      for the operation or <code>null</code> if not known
+     */
+    public synchronized long[] get(
+            @NotNull final GateHandlerIndex index, @NotNull final ResourceAccessGate.Operation operation) {
+        return index == this.index ? restrictions[operation.ordinal()] : null;
+    }
+
+    public synchronized void put(
+            @NotNull final GateHandlerIndex index,
+            @NotNull final ResourceAccessGate.Operation operation,
+            @NotNull final long[] operationRestrictions) {
+        if (index != this.index) {
+            // don't let a check which started before the gates changed replace newer restrictions
+            if (this.index != null && index.getGeneration() < this.index.getGeneration()) {
+                return;
+            }
+            this.index = index;
+            Arrays.fill(restrictions, null);
+        }
+        restrictions[operation.ordinal()] = operationRestrictions;
+    }
+}
@@ -18,15 +18,13 @@
  */
 package org.apache.sling.resourceaccesssecurity.impl;
 
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.Set;
-import java.util.regex.Matcher;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
 import org.apache.sling.commons.osgi.PropertiesUtil;
 import org.apache.sling.resourceaccesssecurity.ResourceAccessGate;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.osgi.framework.ServiceReference;
 
 public class ResourceAccessGateHandler {
@@ -36,8 +34,40 @@ public class ResourceAccessGateHandler {
     private final @NotNull ServiceReference<ResourceAccessGate> reference;
 
     private final @NotNull Pattern pathPattern;
-    private final Set<ResourceAccessGate.Operation> operations = new HashSet<>();
-    private final Set<ResourceAccessGate.Operation> finalOperations = new HashSet<>();
+    private final @NotNull String literalPathPrefix;
+    /** one of the MATCH_* constants, telling how the pattern can be evaluated */
+    private final int matchMode;
+    /** bit mask of the operations, using the ordinal of the operation as bit index */
+    private final int operations;
+    /** bit mask of the final operations, using the ordinal of the operation as bit index */
+    private final int finalOperations;
+    /** bit mask of the operations a denial is inherited by the subtree for */
+    private final int subtreeOperations;
+    /** bit mask of the operations whose results may be shared between resolvers of a user */
+    private final int sharedOperations;
+    /** whether the query transformations of the gate may be cached */
+    private final boolean queryTransformationCacheable;
+    /** the time the gate may take to decide, <code>0</code> if unlimited */
+    private final long timeoutNanos;
+    /** the result used if the gate takes longer */
+    private final @NotNull ResourceAccessGate.GateResult timeoutResult;
+    /** the circuit breaker of a gate with a timeout, <code>null</code> otherwise */
+    private final @Nullable CircuitBreaker circuitBreaker;
+
+    private final @NotNull GateMetrics metrics = new GateMetrics();
+
+    /**
+     * the position in the ranked handlers of the latest {@link GateHandlerIndex}, older
+     * snapshots verify it before using it
+     */
+    private int rank = -1;
+
+    /** the pattern is a literal path */
+    private static final int MATCH_LITERAL = 0;
+    /** the pattern is a literal path prefix followed by <code>.*</code> */
+    private static final int MATCH_PREFIX = 1;
+    /** the pattern needs to be evaluated as regular expression */
+    private static final int MATCH_REGEX = 2;
 
     /**
      * constructor
@@ -54,53 +84,206 @@ public class ResourceAccessGateHandler {
         } else {
             pathPattern = Pattern.compile(".*");
         }
+        final StringBuilder prefix = new StringBuilder();
+        final int literalEnd = PathPrefixIndex.scanLiteralPrefix(pathPattern.pattern(), prefix);
+        literalPathPrefix = prefix.toString();
+        final String remainder = literalEnd < 0 ? null : pathPattern.pattern().substring(literalEnd);
+        if ("".equals(remainder) || "$".equals(remainder)) {
+            matchMode = MATCH_LITERAL;
+        } else if (".*".equals(remainder) || ".*$".equals(remainder)) {
+            matchMode = MATCH_PREFIX;
+        } else {
+            matchMode = MATCH_REGEX;
+        }
 
         // extract the service property "operations"
         final String[] ops =
                 PropertiesUtil.toStringArray(resourceAccessGateRef.getProperty(ResourceAccessGate.OPERATIONS));
         if (ops != null && ops.length > 0) {
-            for (final String opAsString : ops) {
-                final ResourceAccessGate.Operation operation = ResourceAccessGate.Operation.fromString(opAsString);
-                if (operation != null) {
-                    operations.add(operation);
-                }
-            }
+            operations = toMask(ops);
         } else {
-            Collections.addAll(operations, ResourceAccessGate.Operation.values());
+            operations = (1 << ResourceAccessGate.Operation.values().length) - 1;
         }
 
         // extract the service property "finaloperations"
         final String[] finalOps =
                 PropertiesUtil.toStringArray(resourceAccessGateRef.getProperty(ResourceAccessGate.FINALOPERATIONS));
-        if (finalOps != null) {
-            for (final String opAsString : finalOps) {
-                final ResourceAccessGate.Operation operation = ResourceAccessGate.Operation.fromString(opAsString);
-                if (operation != null) {
-                    finalOperations.add(operation);
+        finalOperations = finalOps != null ? toMask(finalOps) : 0;
+
+        // extract the service property "subtreeoperations"
+        final String[] subtreeOps =
+                PropertiesUtil.toStringArray(resourceAccessGateRef.getProperty(ResourceAccessGate.SUBTREEOPERATIONS));
+        subtreeOperations = subtreeOps != null ? toMask(subtreeOps) : 0;
+
+        // extract the service property "sharedoperations"
+        final String[] sharedOps =
+                PropertiesUtil.toStringArray(resourceAccessGateRef.getProperty(ResourceAccessGate.SHAREDOPERATIONS));
+        sharedOperations = sharedOps != null ? toMask(sharedOps) : 0;
+
+        // extract the service property "cacheablequerytransformation"
+        queryTransformationCacheable = PropertiesUtil.toBoolean(
+                resourceAccessGateRef.getProperty(ResourceAccessGate.CACHEABLE_QUERY_TRANSFORMATION), true);
+
+        // extract the service properties "timeout" and "timeoutresult"
+        timeoutNanos = TimeUnit.MILLISECONDS.toNanos(
+                Math.max(0, PropertiesUtil.toLong(resourceAccessGateRef.getProperty(ResourceAccessGate.TIMEOUT), 0)));
+        timeoutResult = toGateResult(
+                PropertiesUtil.toString(resourceAccessGateRef.getProperty(ResourceAccessGate.TIMEOUTRESULT), null));
+        circuitBreaker = timeoutNanos > 0 ? new CircuitBreaker() : null;
+    }
+
+    private static ResourceAccessGate.GateResult toGateResult(final String name) {
+        if (name != null) {
+            for (final ResourceAccessGate.GateResult result : ResourceAccessGate.GateResult.values()) {
+                if (result.name().equalsIgnoreCase(name.trim())) {
+                    return result;
                 }
             }
         }
+        return ResourceAccessGate.GateResult.DENIED;
+    }
+
+    private static int toMask(final String[] ops) {
+        int mask = 0;
+        for (final String opAsString : ops) {
+            final ResourceAccessGate.Operation operation = ResourceAccessGate.Operation.fromString(opAsString);
+            if (operation != null) {
+                mask |= 1 << operation.ordinal();
+            }
+        }
+        return mask;
     }
 
     public boolean matches(final String path, final ResourceAccessGate.Operation operation) {
-        boolean returnValue = false;
-
-        if (operations.contains(operation)) {
-            if (path != null) {
-                final Matcher match = pathPattern.matcher(path);
-                returnValue = match.matches();
-            } else {
-                // if no path is given just add every ResourceAccessGate for
-                // security reason
+        return handles(operation) && matchesPath(path);
+    }
+
+    /**
+     * Checks whether this handler is called for the given operation.
+     */
+    public boolean handles(final ResourceAccessGate.Operation operation) {
+        return (operations & (1 << operation.ordinal())) != 0;
+    }
+
+    /**
+     * Checks whether the path matches the path pattern of this handler.
+     *
+     * @param path the path, if no path is given every handler matches for security reasons
+     */
+    public boolean matchesPath(final String path) {
+        if (path == null) {
+            return true;
+        }
+        switch (matchMode) {
+            case MATCH_LITERAL:
+                return path.equals(literalPathPrefix);
+            case MATCH_PREFIX:
+                return path.startsWith(literalPathPrefix) && !containsLineTerminator(path, literalPathPrefix.length());
+            default:
+                return pathPattern.matcher(path).matches();
+        }
+    }
+
+    /**
+     * Checks whether the path pattern matches every path without a line terminator, like the
+     * default pattern used if no path is configured.
+     */
+    public boolean matchesAnyPath() {
+        return matchMode == MATCH_PREFIX && literalPathPrefix.isEmpty();
+    }
+
+    /**
+     * Checks for the characters not matched by <code>.</code> in a pattern without the DOTALL flag.
+     */
+    private static boolean containsLineTerminator(final String path, final int start) {
+        for (int i = start; i < path.length(); i++) {
+            final char c = path.charAt(i);
+            if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
                 return true;
             }
         }
+        return false;
+    }
+
+    public @NotNull Pattern getPathPattern() {
+        return pathPattern;
+    }
+
+    /**
+     * Returns the literal prefix of the path pattern, every path matched by this
+     * handler starts with this prefix.
+     */
+    public @NotNull String getLiteralPathPrefix() {
+        return literalPathPrefix;
+    }
 
-        return returnValue;
+    /**
+     * Checks whether the path pattern of this handler might match a path below the given path.
+     * It is only decided by the literal prefix, so the pattern might still not match any of these paths.
+     */
+    public boolean mightMatchBelow(@NotNull final String path) {
+        final String below = path.endsWith("/") ? path : path.concat("/");
+        if (matchMode == MATCH_LITERAL) {
+            return literalPathPrefix.length() > below.length() && literalPathPrefix.startsWith(below);
+        }
+        return below.startsWith(literalPathPrefix) || literalPathPrefix.startsWith(below);
     }
 
     public boolean isFinalOperation(final ResourceAccessGate.Operation operation) {
-        return finalOperations.contains(operation);
+        return (finalOperations & (1 << operation.ordinal())) != 0;
+    }
+
+    /**
+     * Checks whether a denial of the operation by the gate applies to the whole subtree.
+     */
+    public boolean isSubtreeOperation(final ResourceAccessGate.Operation operation) {
+        return (subtreeOperations & (1 << operation.ordinal())) != 0;
+    }
+
+    /**
+     * Checks whether the results of the gate for the operation only depend on the user and the path.
+     */
+    public boolean isSharedOperation(final ResourceAccessGate.Operation operation) {
+        return (sharedOperations & (1 << operation.ordinal())) != 0;
+    }
+
+    /**
+     * Returns the time the gate may take to decide an operation, <code>0</code> if unlimited.
+     */
+    public long getTimeoutNanos() {
+        return timeoutNanos;
+    }
+
+    public @NotNull ResourceAccessGate.GateResult getTimeoutResult() {
+        return timeoutResult;
+    }
+
+    public @Nullable CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public boolean isQueryTransformationCacheable() {
+        return queryTransformationCacheable;
+    }
+
+    int getRank() {
+        return rank;
+    }
+
+    void setRank(final int rank) {
+        this.rank = rank;
+    }
+
+    public @NotNull ServiceReference<ResourceAccessGate> getReference() {
+        return reference;
+    }
+
+    /**
+     * Returns the metrics of the calls to the gate, they are only recorded if enabled
+     * for the security service.
+     */
+    public @NotNull GateMetrics getMetrics() {
+        return metrics;
     }
 
     public @NotNull ResourceAccessGate getResourceAccessGate() {
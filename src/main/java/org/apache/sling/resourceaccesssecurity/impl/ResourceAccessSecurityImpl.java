@@ -18,280 +18,1841 @@
  */
 package org.apache.sling.resourceaccesssecurity.impl;
 
+import javax.management.DynamicMBean;
+import javax.management.NotCompliantMBeanException;
+import javax.management.StandardMBean;
+
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Dictionary;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.NoSuchElementException;
-import java.util.function.Function;
-import java.util.function.Predicate;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ValueMap;
 import org.apache.sling.api.security.AccessSecurityException;
-import org.apache.sling.api.security.ResourceAccessSecurity;
+import org.apache.sling.resourceaccesssecurity.AsyncResourceAccessSecurity;
+import org.apache.sling.resourceaccesssecurity.BatchResourceAccessGate;
+import org.apache.sling.resourceaccesssecurity.ExtendedResourceAccessSecurity;
+import org.apache.sling.resourceaccesssecurity.MultiOperationResourceAccessGate;
+import org.apache.sling.resourceaccesssecurity.QueryCodec;
 import org.apache.sling.resourceaccesssecurity.ResourceAccessGate;
 import org.apache.sling.resourceaccesssecurity.ResourceAccessGate.GateResult;
+import org.apache.sling.resourceaccesssecurity.ResourceAccessPolicyEvents;
+import org.apache.sling.resourceaccesssecurity.ScopedGateResult;
+import org.apache.sling.resourceaccesssecurity.SubtreeResourceAccessGate;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
 import org.osgi.framework.ServiceReference;
-import org.osgi.service.component.ComponentContext;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventHandler;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public abstract class ResourceAccessSecurityImpl
+        implements ExtendedResourceAccessSecurity, AsyncResourceAccessSecurity, EventHandler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResourceAccessSecurityImpl.class);
+
+    /** the number of resources read ahead and checked at once by the iterator returned from the batch filter */
+    private static final int ITERATOR_BATCH_SIZE = 100;
+
+    /** the operations a multi-operation gate is asked for when a resource is read */
+    private static final Set<ResourceAccessGate.Operation> READ_AND_UPDATE = Collections.unmodifiableSet(
+            EnumSet.of(ResourceAccessGate.Operation.READ, ResourceAccessGate.Operation.UPDATE));
+
+    /**
+     * The configuration shared by the provider and the application resource access security.
+     */
+    @ObjectClassDefinition(
+            name = "Apache Sling Resource Access Security",
+            description = "Configures how the resource access security services of the provider and the "
+                    + "application context call the resource access gates.")
+    public @interface Config {
+
+        @AttributeDefinition(
+                name = "Decision Cache Size",
+                description = "Maximum number of access decisions cached per resource resolver and operation. "
+                        + "Decisions are cached by path and discarded when the resolver is closed. "
+                        + "A value of 0 disables the cache.")
+        int decision_cache_size() default 0;
+
+        @AttributeDefinition(
+                name = "Single-Pass Path Matching",
+                description = "If enabled, the path patterns of all gates are compiled into one automaton which "
+                        + "is run once per checked path. Patterns not supported by the automaton are evaluated "
+                        + "per gate.")
+        boolean multi_pattern_matching() default false;
+
+        @AttributeDefinition(
+                name = "Gate Metrics",
+                description = "If enabled, the calls to the gates are counted and timed per gate and operation "
+                        + "and published through JMX.")
+        boolean gate_metrics() default false;
+
+        @AttributeDefinition(
+                name = "Parallel Gate Evaluation Threads",
+                description = "If greater than 0, the gates matching a resource are called concurrently and their "
+                        + "results are combined in ranking order. Only enable this if all gates tolerate being called "
+                        + "concurrently for the same resource resolver. On Java 21 and later each call runs in a "
+                        + "virtual thread, otherwise at most this number of threads is used. "
+                        + "A value of 0 calls the gates one after another.")
+        int parallel_evaluation_threads() default 0;
+
+        @AttributeDefinition(
+                name = "Asynchronous Check Threads",
+                description = "Maximum number of threads calling the gates which do not implement "
+                        + "AsyncResourceAccessGate for the asynchronous checks. On Java 21 and later each call "
+                        + "runs in a virtual thread instead. At least one thread is used. A check fails with a "
+                        + "RejectedExecutionException if all threads are busy and no more calls can be queued.")
+        int async_gate_threads() default 8;
+
+        @AttributeDefinition(
+                name = "Query Transformation Cache Size",
+                description = "Maximum number of transformed queries cached by query, language and user ID. "
+                        + "The cache is cleared when the gates change, gates registered with "
+                        + "cacheablequerytransformation=false are always called. A value of 0 disables the cache.")
+        int query_cache_size() default 0;
 
-public abstract class ResourceAccessSecurityImpl implements ResourceAccessSecurity {
+        @AttributeDefinition(
+                name = "Query Transformation Cache TTL",
+                description = "Time in seconds after which a cached query transformation expires. "
+                        + "A value of 0 keeps the transformations until they are evicted or the gates change.")
+        int query_cache_ttl() default 300;
 
-    private List<ResourceAccessGateHandler> allHandlers = Collections.emptyList();
+        @AttributeDefinition(
+                name = "Denied Subtrees",
+                description = "Maximum number of subtrees kept per resource resolver and operation in which the "
+                        + "operation has been denied by a gate registered with the operation in its "
+                        + "subtreeoperations, if the gate is final for the operation or no other gate matches below "
+                        + "the denied resource. Checks below such a subtree are denied without calling any gate. "
+                        + "A value of 0 disables this.")
+        int denied_subtrees_size() default 0;
+
+        @AttributeDefinition(
+                name = "Subtree Results",
+                description = "Maximum number of subtree results of a SubtreeResourceAccessGate, or denials of a "
+                        + "gate registered with the operation in its subtreeoperations, kept per resource "
+                        + "resolver, operation and gate. The gate is not called again for resources below a path "
+                        + "it returned a subtree result for. A value of 0 disables this.")
+        int subtree_results_size() default 100;
+
+        @AttributeDefinition(
+                name = "Shared Decision Cache Size",
+                description = "Maximum number of gate results shared between all resource resolvers of a user. "
+                        + "Only the results of gates registered with the operation in their sharedoperations "
+                        + "are shared, keyed by gate, operation, user ID and path. A new result only replaces "
+                        + "a cached one if it is requested more often. A value of 0 disables the cache.")
+        int shared_cache_size() default 0;
+
+        @AttributeDefinition(
+                name = "Shared Decision Cache TTL",
+                description = "Time in seconds after which a shared gate result expires. "
+                        + "A value of 0 keeps the results until they are evicted or the gates change.")
+        int shared_cache_ttl() default 300;
+
+        @AttributeDefinition(
+                name = "Decision Sample Rate",
+                description = "One in this number of evaluated access decisions is recorded with the consulted "
+                        + "gates, their results, the user ID and the time taken. The recorded decisions are "
+                        + "published through JMX. A value of 1 records every decision, 0 disables the recording.")
+        int decision_sample_rate() default 100;
+
+        @AttributeDefinition(
+                name = "Recorded Decisions",
+                description = "Number of recorded decisions which are kept, the oldest one is replaced by a new one.")
+        int decision_buffer_size() default 256;
+
+        @AttributeDefinition(
+                name = "Timed Gate Call Threads",
+                description = "Maximum number of threads calling the gates registered with a timeout, so the "
+                        + "checking thread waits at most for the timeout. Such a gate is then called concurrently "
+                        + "with the checking thread using the same resource resolver, which is not thread-safe, "
+                        + "and keeps running after a timeout. Only enable this if all gates registered with a "
+                        + "timeout support this. On Java 21 and later each call runs in a virtual thread instead. "
+                        + "A value of 0 calls these gates in the checking thread without a timeout.")
+        int timed_gate_threads() default 0;
+    }
+
+    /** the lock guarding the bound handlers */
+    private final Object handlersLock = new Object();
+
+    /** the bound handlers by service reference */
+    private final Map<ServiceReference<ResourceAccessGate>, ResourceAccessGateHandler> boundHandlers = new HashMap<>();
+
+    /**
+     * The current snapshot of the bound handlers. It is replaced whenever a gate is bound,
+     * unbound or modified, checks in progress complete with the snapshot they started with.
+     */
+    private volatile GateHandlerIndex handlerIndex;
 
     private final boolean defaultAllowIfNoGateMatches;
 
-    protected ResourceAccessSecurityImpl(
-            final boolean defaultAllowIfNoGateMatches,
-            List<ServiceReference<ResourceAccessGate>> resourceAccessGateRefs,
-            ComponentContext componentContext,
-            String resourceAccessGateReferenceName) {
+    private final int decisionCacheSize;
+
+    /** the maximum number of denied subtrees kept per resolver and operation */
+    private final int deniedSubtreesSize;
+
+    /** the maximum number of subtree results kept per resolver, operation and gate */
+    private final int subtreeResultsSize;
+
+    private final boolean multiPatternMatching;
+
+    /** whether the calls to the gates are recorded in their {@link GateMetrics} */
+    private final boolean metricsEnabled;
+
+    private ServiceRegistration<DynamicMBean> statisticsRegistration;
+
+    /** the executor of the speculative gate calls, <code>null</code> if the gates are called one after another */
+    private final GateCallExecutor gateCallExecutor;
+
+    /** the executor calling the gates with a timeout, <code>null</code> if timeouts are not enforced */
+    private final GateCallExecutor timedGateExecutor;
+
+    /** the gate results shared between the resolvers of a user, <code>null</code> if disabled */
+    private final SharedDecisionCache sharedDecisionCache;
+
+    /** the recorder of sampled decisions, <code>null</code> if disabled */
+    private final DecisionRecorder decisionRecorder;
+
+    private final AsyncChecks asyncChecks;
+
+    private final ValuePermissions valuePermissions;
+
+    private final QueryTransformer queryTransformer;
+
+    private final EffectivePermissions effectivePermissions;
+
+    /** the caches of the resolvers which have not been closed yet, weakly referenced */
+    private final Set<ResolverAccessCache> liveCaches =
+            Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+    /** the key of the resolver property holding the {@link ResolverAccessCache} of this service */
+    private final String cacheKey = ResolverAccessCache.getPropertyKey(this);
+
+    /** the key of the resolver property holding the {@link ResolverRestrictions} of this service */
+    private final String restrictionsKey = ResolverRestrictions.getPropertyKey(this);
+
+    /**
+     * @param defaultAllowIfNoGateMatches whether an operation is allowed if no gate matches the path
+     * @param config the configuration of the service
+     */
+    protected ResourceAccessSecurityImpl(final boolean defaultAllowIfNoGateMatches, final Config config) {
         this.defaultAllowIfNoGateMatches = defaultAllowIfNoGateMatches;
-        // sort from highest ranked service to lowest ranked (opposite of default sorting of ServiceReference)
-        this.allHandlers = resourceAccessGateRefs.stream()
-                .sorted(Collections.reverseOrder())
-                .map(ref -> new ResourceAccessGateHandler(
-                        ref, componentContext.locateService(resourceAccessGateReferenceName, ref)))
-                .collect(Collectors.toList());
+        this.decisionCacheSize = config.decision_cache_size();
+        this.deniedSubtreesSize = config.denied_subtrees_size();
+        this.subtreeResultsSize = config.subtree_results_size();
+        this.multiPatternMatching = config.multi_pattern_matching();
+        this.metricsEnabled = config.gate_metrics();
+        this.gateCallExecutor = config.parallel_evaluation_threads() > 0
+                ? new GateCallExecutor(
+                        config.parallel_evaluation_threads(), getClass().getSimpleName() + "-gate")
+                : null;
+        this.timedGateExecutor = config.timed_gate_threads() > 0
+                ? new GateCallExecutor(config.timed_gate_threads(), getClass().getSimpleName() + "-timed-gate")
+                : null;
+        this.sharedDecisionCache = config.shared_cache_size() > 0
+                ? new SharedDecisionCache(config.shared_cache_size(), config.shared_cache_ttl())
+                : null;
+        this.decisionRecorder = config.decision_sample_rate() > 0 && config.decision_buffer_size() > 0
+                ? new DecisionRecorder(config.decision_sample_rate(), config.decision_buffer_size())
+                : null;
+        this.handlerIndex = new GateHandlerIndex(Collections.emptyList(), multiPatternMatching);
+        this.asyncChecks =
+                new AsyncChecks(this, config.async_gate_threads(), getClass().getSimpleName() + "-async-gate");
+        this.valuePermissions = new ValuePermissions(this);
+        this.queryTransformer = new QueryTransformer(this, config.query_cache_size(), config.query_cache_ttl());
+        this.effectivePermissions = new EffectivePermissions(this);
     }
 
     /**
-     * This method returns either an iterator delivering the matching handlers
-     * or <code>null</code>.
+     * Registers the {@link GateStatisticsMBean} of this service, if metrics are enabled.
+     *
+     * @param bundleContext the bundle context
+     * @param context the context of this service, used in the object name of the MBean
      */
-    private Iterator<ResourceAccessGateHandler> getMatchingResourceAccessGateHandlerIterator(
-            final String path, final ResourceAccessGate.Operation operation) {
-        //
-        // TODO: maybe caching some frequent paths with read operation would be
-        // a good idea
-        //
-        final List<ResourceAccessGateHandler> handlers = allHandlers;
-        if (!handlers.isEmpty()) {
-
-            final Iterator<ResourceAccessGateHandler> iter = handlers.iterator();
-            return new Iterator<ResourceAccessGateHandler>() {
+    protected void registerStatistics(final BundleContext bundleContext, final String context) {
+        if (!metricsEnabled && decisionRecorder == null) {
+            return;
+        }
+        try {
+            final StandardMBean mbean = new StandardMBean(
+                    new GateStatistics(() -> handlerIndex, decisionRecorder), GateStatisticsMBean.class);
+            final Dictionary<String, Object> properties = new Hashtable<>();
+            properties.put("jmx.objectname", "org.apache.sling:type=ResourceAccessSecurity,name=" + context);
+            properties.put(Constants.SERVICE_DESCRIPTION, "Apache Sling Resource Access Gate Statistics");
+            statisticsRegistration = bundleContext.registerService(DynamicMBean.class, mbean, properties);
+        } catch (final NotCompliantMBeanException e) {
+            LOGGER.error("Unable to register the gate statistics for context " + context, e);
+        }
+    }
 
-                private ResourceAccessGateHandler next;
+    protected void unregisterStatistics() {
+        if (statisticsRegistration != null) {
+            statisticsRegistration.unregister();
+            statisticsRegistration = null;
+        }
+    }
 
-                {
-                    peek();
-                }
+    /**
+     * Stops the threads calling the gates concurrently, for the asynchronous checks or with a timeout.
+     */
+    protected void shutdownGateCalls() {
+        if (gateCallExecutor != null) {
+            gateCallExecutor.shutdown();
+        }
+        asyncChecks.shutdown();
+        if (timedGateExecutor != null) {
+            timedGateExecutor.shutdown();
+        }
+    }
 
-                private void peek() {
-                    this.next = null;
-                    while (iter.hasNext() && next == null) {
-                        final ResourceAccessGateHandler handler = iter.next();
-                        if (handler.matches(path, operation)) {
-                            next = handler;
-                        }
-                    }
-                }
+    /**
+     * Discards the decisions and gate results kept for a subtree once its policy changed,
+     * see {@link ResourceAccessPolicyEvents}.
+     */
+    @Override
+    public void handleEvent(final Event event) {
+        final Object path = event.getProperty(ResourceAccessPolicyEvents.PROPERTY_PATH);
+        final Object userId = event.getProperty(ResourceAccessPolicyEvents.PROPERTY_USER_ID);
+        evict(path instanceof String ? (String) path : "/", userId instanceof String ? (String) userId : null);
+    }
 
-                @Override
-                public boolean hasNext() {
-                    return next != null;
-                }
+    /**
+     * Discards the decisions and gate results for the subtree.
+     *
+     * @param path the root of the subtree
+     * @param userId the user the policy changed for or <code>null</code> for all users
+     */
+    private void evict(final String path, final String userId) {
+        final ResolverAccessCache[] caches;
+        synchronized (liveCaches) {
+            caches = liveCaches.toArray(new ResolverAccessCache[0]);
+        }
+        for (final ResolverAccessCache cache : caches) {
+            cache.evict(path, userId);
+        }
+        if (sharedDecisionCache != null) {
+            sharedDecisionCache.evict(path, userId);
+        }
+        queryTransformer.evict(userId);
+    }
 
-                @Override
-                public ResourceAccessGateHandler next() {
-                    if (next == null) {
-                        throw new NoSuchElementException();
-                    }
-                    final ResourceAccessGateHandler handler = this.next;
-                    peek();
-                    return handler;
-                }
+    protected void bindGate(final ServiceReference<ResourceAccessGate> ref, final ResourceAccessGate gate) {
+        final ResourceAccessGateHandler handler = new ResourceAccessGateHandler(ref, gate);
+        if (handler.getTimeoutNanos() > 0 && timedGateExecutor == null) {
+            LOGGER.warn(
+                    "ResourceAccessGate {} declares a {}, which is not enforced as no threads are configured "
+                            + "for the timed gate calls.",
+                    gate.getClass().getName(),
+                    ResourceAccessGate.TIMEOUT);
+        }
+        synchronized (handlersLock) {
+            boundHandlers.put(ref, handler);
+            publishHandlers();
+        }
+    }
 
-                @Override
-                public void remove() {
-                    throw new UnsupportedOperationException();
-                }
-            };
+    protected void unbindGate(final ServiceReference<ResourceAccessGate> ref) {
+        synchronized (handlersLock) {
+            if (boundHandlers.remove(ref) != null) {
+                publishHandlers();
+            }
         }
+    }
+
+    protected void updatedGate(final ServiceReference<ResourceAccessGate> ref, final ResourceAccessGate gate) {
+        // the path, operations or ranking might have changed
+        bindGate(ref, gate);
+    }
 
-        return null;
+    protected void bindCodec(final ServiceReference<QueryCodec> ref, final QueryCodec codec) {
+        queryTransformer.bindCodec(ref, codec);
+    }
+
+    protected void unbindCodec(final ServiceReference<QueryCodec> ref) {
+        queryTransformer.unbindCodec(ref);
+    }
+
+    protected void updatedCodec(final ServiceReference<QueryCodec> ref, final QueryCodec codec) {
+        // the languages or ranking might have changed
+        bindCodec(ref, codec);
+    }
+
+    private void publishHandlers() {
+        // sort from highest ranked service to lowest ranked (opposite of default sorting of ServiceReference)
+        final List<ServiceReference<ResourceAccessGate>> refs = new ArrayList<>(boundHandlers.keySet());
+        refs.sort(Collections.reverseOrder());
+        final List<ResourceAccessGateHandler> handlers = new ArrayList<>(refs.size());
+        for (final ServiceReference<ResourceAccessGate> ref : refs) {
+            handlers.add(boundHandlers.get(ref));
+        }
+        this.handlerIndex = new GateHandlerIndex(handlers, multiPatternMatching);
     }
 
     @Override
     public Resource getReadableResource(final Resource resource) {
-        Resource returnValue = null;
+        final long start = traceStartTime();
+        // all checks of one call are done on the same snapshot of the gates
+        final GateHandlerIndex snapshot = handlerIndex;
+        if (isUnrestricted(
+                snapshot, ResourceAccessGate.Operation.READ, resource.getPath(), resource.getResourceResolver())) {
+            return toReadableResource(snapshot, resource, getUnrestrictedReadDecision(snapshot, resource), null, 0);
+        }
+        // the update results the multi-operation gates returned together with their read results
+        final Map<ResourceAccessGateHandler, GateResult> prefetchedUpdates =
+                snapshot.hasMultiOperationGates() ? new IdentityHashMap<>() : null;
+        final long epoch = getEpoch(getCache(resource.getResourceResolver()));
+        final ReadDecision readDecision = getReadDecision(snapshot, resource, prefetchedUpdates, start);
+        if (!readDecision.isReadable()) {
+            return null;
+        }
+        return toReadableResource(snapshot, resource, readDecision, prefetchedUpdates, epoch);
+    }
 
-        final Iterator<ResourceAccessGateHandler> accessGateHandlers =
-                getMatchingResourceAccessGateHandlerIterator(resource.getPath(), ResourceAccessGate.Operation.READ);
+    /**
+     * @param prefetchedUpdates the update results of the gates asked together with the read access,
+     *      might be <code>null</code>
+     * @param epoch the epoch of the resolver's cache read before the prefetched results were computed
+     */
+    Resource toReadableResource(
+            final GateHandlerIndex snapshot,
+            final Resource resource,
+            final ReadDecision readDecision,
+            final Map<ResourceAccessGateHandler, GateResult> prefetchedUpdates,
+            final long epoch) {
+        if (readDecision.canReadAllValues()
+                && isUnrestricted(
+                        snapshot,
+                        ResourceAccessGate.Operation.UPDATE,
+                        resource.getPath(),
+                        resource.getResourceResolver())) {
+            return resource;
+        }
+        // the update permission is only checked once a modifiable map is requested, unless it is known already,
+        // can be decided from the prefetched results or no gate restricts updates of the resource for the
+        // resolver, in which case no gate needs to be called
+        Boolean canUpdateResource = getCachedDecision(snapshot, ResourceAccessGate.Operation.UPDATE, resource);
+        if (canUpdateResource == null && prefetchedUpdates != null && !prefetchedUpdates.isEmpty()) {
+            canUpdateResource = evaluatePrefetchedUpdate(snapshot, resource, prefetchedUpdates, epoch);
+        }
+        if (canUpdateResource == null && !isRestricted(snapshot, ResourceAccessGate.Operation.UPDATE, resource)) {
+            canUpdateResource = canDoOperation(
+                    snapshot,
+                    ResourceAccessGate.Operation.UPDATE,
+                    resource.getPath(),
+                    resource,
+                    resource.getResourceResolver());
+        }
+        if (canUpdateResource == null) {
+            // the later check uses the same gates as the read check
+            return new AccessGateResourceWrapper(
+                    resource,
+                    readDecision.getAccessGatesForReadValues(),
+                    () -> canDoOperation(
+                            snapshot,
+                            ResourceAccessGate.Operation.UPDATE,
+                            resource.getPath(),
+                            resource,
+                            resource.getResourceResolver()));
+        }
 
-        GateResult finalGateResult = null;
-        List<ResourceAccessGate> accessGatesForReadValues = null;
-        boolean canReadAllValues = false;
+        // wrap Resource if read access is not or partly (values) not granted
+        if (!readDecision.canReadAllValues() || !canUpdateResource) {
+            return new AccessGateResourceWrapper(
+                    resource, readDecision.getAccessGatesForReadValues(), canUpdateResource);
+        }
+        return resource;
+    }
 
-        if (accessGateHandlers != null) {
+    Boolean getCachedDecision(
+            final GateHandlerIndex snapshot, final ResourceAccessGate.Operation operation, final Resource resource) {
+        final ResolverAccessCache cache = getCache(resource.getResourceResolver());
+        if (cache == null) {
+            return null;
+        }
+        if (cache.isDeniedSubtree(snapshot, operation, resource.getPath())) {
+            return false;
+        }
+        return (Boolean) cache.getDecision(snapshot, operation, resource.getPath());
+    }
 
-            boolean noGateMatched = true;
+    private ReadDecision getReadDecision(
+            final GateHandlerIndex snapshot,
+            final Resource resource,
+            final Map<ResourceAccessGateHandler, GateResult> prefetchedUpdates,
+            final long start) {
+        final ResolverAccessCache cache = getCache(resource.getResourceResolver());
+        final ReadDecision cached = getCachedReadDecision(snapshot, cache, resource.getPath());
+        if (cached != null) {
+            return cached;
+        }
+        final long epoch = getEpoch(cache);
+        final ReadDecision readDecision = evaluateRead(snapshot, resource, prefetchedUpdates, start);
+        putReadDecision(snapshot, cache, resource.getPath(), readDecision, epoch);
+        return readDecision;
+    }
 
-            while (accessGateHandlers.hasNext()) {
-                noGateMatched = false;
-                final ResourceAccessGateHandler resourceAccessGateHandler = accessGateHandlers.next();
-
-                final GateResult gateResult = !resourceAccessGateHandler
-                                .getResourceAccessGate()
-                                .hasReadRestrictions(resource.getResourceResolver())
-                        ? GateResult.GRANTED
-                        : resourceAccessGateHandler.getResourceAccessGate().canRead(resource);
-                if (!canReadAllValues && gateResult == GateResult.GRANTED) {
-                    if (resourceAccessGateHandler.getResourceAccessGate().canReadAllValues(resource)) {
-                        canReadAllValues = true;
-                        accessGatesForReadValues = null;
-                    } else {
-                        if (accessGatesForReadValues == null) {
-                            accessGatesForReadValues = new ArrayList<>();
-                        }
-                        accessGatesForReadValues.add(resourceAccessGateHandler.getResourceAccessGate());
-                    }
+    /**
+     * Returns the epoch of the cache, which is read before a decision is evaluated, so a decision
+     * evaluated while the policy changed is not stored.
+     */
+    static long getEpoch(final ResolverAccessCache cache) {
+        return cache != null ? cache.getEpoch() : 0;
+    }
+
+    ResolverAccessCache getCache(final ResourceResolver resolver) {
+        return ResolverAccessCache.get(
+                resolver, this, cacheKey, liveCaches, decisionCacheSize, deniedSubtreesSize, subtreeResultsSize);
+    }
+
+    /**
+     * Returns the known read decision for the path, which is denied if the path is in a denied subtree.
+     */
+    static ReadDecision getCachedReadDecision(
+            final GateHandlerIndex snapshot, final ResolverAccessCache cache, final String path) {
+        if (cache == null) {
+            return null;
+        }
+        if (cache.isDeniedSubtree(snapshot, ResourceAccessGate.Operation.READ, path)) {
+            return ReadDecision.DENIED;
+        }
+        return (ReadDecision) cache.getDecision(snapshot, ResourceAccessGate.Operation.READ, path);
+    }
+
+    static void putReadDecision(
+            final GateHandlerIndex snapshot,
+            final ResolverAccessCache cache,
+            final String path,
+            final ReadDecision readDecision,
+            final long epoch) {
+        if (cache != null) {
+            cache.putDecision(snapshot, ResourceAccessGate.Operation.READ, path, readDecision, epoch);
+            if (readDecision == ReadDecision.SUBTREE_DENIED && path != null) {
+                cache.putDeniedSubtree(snapshot, ResourceAccessGate.Operation.READ, path, epoch);
+            }
+        }
+    }
+
+    /**
+     * Runs the read gate chain for a resource.
+     *
+     * @param prefetchedUpdates if not <code>null</code>, a {@link MultiOperationResourceAccessGate} restricting
+     *      updates is asked for the update permission in the same call and its result is put into the map
+     */
+    private ReadDecision evaluateRead(
+            final GateHandlerIndex snapshot,
+            final Resource resource,
+            final Map<ResourceAccessGateHandler, GateResult> prefetchedUpdates,
+            final long start) {
+        if (snapshot.isEmpty()) {
+            return ReadDecision.DENIED;
+        }
+        final String path = resource.getPath();
+        final ReadChain chain = new ReadChain(snapshot, resource);
+
+        // only the handlers whose literal path prefix matches need to evaluate their pattern
+        final ResourceAccessGateHandler[] candidates = snapshot.getCandidates(ResourceAccessGate.Operation.READ, path);
+        final long[] automatonMatches = matchAll(snapshot, candidates, path);
+        final long[] restrictions =
+                getRestrictions(snapshot, ResourceAccessGate.Operation.READ, resource.getResourceResolver());
+        final SpeculativeGateCalls calls = startGateCalls(
+                snapshot,
+                ResourceAccessGate.Operation.READ,
+                path,
+                resource,
+                resource.getResourceResolver(),
+                candidates,
+                automatonMatches,
+                restrictions);
+        final DecisionRecorder.Trace trace =
+                sample(ResourceAccessGate.Operation.READ, path, resource.getResourceResolver(), start);
+        try {
+            for (int i = 0; i < candidates.length; i++) {
+                final GateResult gateResult = calls != null
+                        ? calls.getResult(i)
+                        : prefetchedUpdates != null
+                                ? checkReadAndUpdate(
+                                        snapshot,
+                                        candidates[i],
+                                        resource,
+                                        automatonMatches,
+                                        restrictions,
+                                        prefetchedUpdates)
+                                : checkGate(
+                                        snapshot,
+                                        candidates[i],
+                                        ResourceAccessGate.Operation.READ,
+                                        path,
+                                        resource,
+                                        resource.getResourceResolver(),
+                                        automatonMatches,
+                                        restrictions);
+                if (gateResult == null) {
+                    continue;
                 }
-                if (finalGateResult == null || finalGateResult == GateResult.DENIED) {
-                    finalGateResult = gateResult;
+                if (trace != null) {
+                    trace.add(candidates[i], gateResult);
                 }
-                // stop checking if the operation is final and the result not GateResult.CANT_DECIDE
-                if (gateResult != GateResult.CANT_DECIDE
-                        && resourceAccessGateHandler.isFinalOperation(ResourceAccessGate.Operation.READ)) {
+                if (chain.apply(candidates[i], gateResult)) {
                     break;
                 }
             }
+        } finally {
+            if (calls != null) {
+                calls.cancel();
+            }
+        }
+        final ReadDecision readDecision = chain.getDecision();
+        if (trace != null) {
+            trace.finish(readDecision.isReadable());
+        }
+        return readDecision;
+    }
 
-            // return null if access is denied or no ResourceAccessGate is present
-            if (finalGateResult == GateResult.DENIED) {
-                returnValue = null;
-            } else if (finalGateResult == GateResult.GRANTED) {
-                returnValue = resource;
-            } else if (noGateMatched && this.defaultAllowIfNoGateMatches) {
-                returnValue = resource;
+    /**
+     * Returns the read decision for a resource no gate restricts reading of for the resolver. Each
+     * matching gate grants access without being called, but is still asked whether all values are
+     * readable, so the values are filtered the same way as by the full read chain.
+     */
+    ReadDecision getUnrestrictedReadDecision(final GateHandlerIndex snapshot, final Resource resource) {
+        final String path = resource.getPath();
+        final ReadChain chain = new ReadChain(snapshot, resource);
+        final ResourceAccessGateHandler[] candidates = snapshot.getCandidates(ResourceAccessGate.Operation.READ, path);
+        final long[] automatonMatches = matchAll(snapshot, candidates, path);
+        for (final ResourceAccessGateHandler handler : candidates) {
+            if (matchesPath(snapshot, handler, path, automatonMatches) && chain.apply(handler, GateResult.GRANTED)) {
+                break;
             }
         }
+        return chain.getDecision();
+    }
 
-        boolean canUpdateResource = canUpdate(resource);
+    /**
+     * Returns the read result of one gate of the read chain. A {@link MultiOperationResourceAccessGate}
+     * which restricts updates of the resource as well is asked for both operations in one call.
+     *
+     * @return the result or <code>null</code> if the path pattern of the gate does not match
+     */
+    private GateResult checkReadAndUpdate(
+            final GateHandlerIndex snapshot,
+            final ResourceAccessGateHandler handler,
+            final Resource resource,
+            final long[] automatonMatches,
+            final long[] restrictions,
+            final Map<ResourceAccessGateHandler, GateResult> prefetchedUpdates) {
+        final String path = resource.getPath();
+        final ResourceResolver resolver = resource.getResourceResolver();
+        if (!matchesPath(snapshot, handler, path, automatonMatches)) {
+            return null;
+        }
+        if (!hasRestrictions(snapshot, handler, ResourceAccessGate.Operation.READ, resolver, restrictions)) {
+            return GateResult.GRANTED;
+        }
+        if (handler.getResourceAccessGate() instanceof MultiOperationResourceAccessGate
+                && handler.handles(ResourceAccessGate.Operation.UPDATE)
+                && hasRestrictions(
+                        snapshot,
+                        handler,
+                        ResourceAccessGate.Operation.UPDATE,
+                        resolver,
+                        getRestrictions(snapshot, ResourceAccessGate.Operation.UPDATE, resolver))) {
+            final Map<ResourceAccessGate.Operation, GateResult> gateResults =
+                    callAtOnce(handler, READ_AND_UPDATE, resource);
+            if (gateResults != null) {
+                prefetchedUpdates.put(handler, gateResults.get(ResourceAccessGate.Operation.UPDATE));
+                return gateResults.get(ResourceAccessGate.Operation.READ);
+            }
+        }
+        return callGate(snapshot, handler, ResourceAccessGate.Operation.READ, path, resource, resolver);
+    }
 
-        // wrap Resource if read access is not or partly (values) not granted
-        if (returnValue != null) {
-            if (!canReadAllValues || !canUpdateResource) {
-                returnValue = new AccessGateResourceWrapper(returnValue, accessGatesForReadValues, canUpdateResource);
+    /**
+     * Decides the update permission from the results the gates returned together with their
+     * read results, if no other gate needs to be called for it. The decision is cached like
+     * the one of {@link #canUpdate(Resource)}.
+     *
+     * @return the decision or <code>null</code> if a gate would need to be called
+     */
+    private Boolean evaluatePrefetchedUpdate(
+            final GateHandlerIndex snapshot,
+            final Resource resource,
+            final Map<ResourceAccessGateHandler, GateResult> prefetchedUpdates,
+            final long epoch) {
+        final String path = resource.getPath();
+        final ResourceResolver resolver = resource.getResourceResolver();
+        final ResourceAccessGateHandler[] candidates =
+                snapshot.getCandidates(ResourceAccessGate.Operation.UPDATE, path);
+        final long[] automatonMatches = matchAll(snapshot, candidates, path);
+        final long[] restrictions = getRestrictions(snapshot, ResourceAccessGate.Operation.UPDATE, resolver);
+        final OperationChain chain =
+                new OperationChain(ResourceAccessGate.Operation.UPDATE, defaultAllowIfNoGateMatches);
+        for (final ResourceAccessGateHandler handler : candidates) {
+            if (!matchesPath(snapshot, handler, path, automatonMatches)) {
+                continue;
+            }
+            final GateResult gateResult;
+            if (!hasRestrictions(snapshot, handler, ResourceAccessGate.Operation.UPDATE, resolver, restrictions)) {
+                gateResult = GateResult.GRANTED;
+            } else if (prefetchedUpdates.containsKey(handler)) {
+                gateResult = prefetchedUpdates.get(handler);
+            } else {
+                return null;
+            }
+            if (gateResult != null && chain.apply(handler, gateResult)) {
+                break;
+            }
+        }
+        final boolean result = chain.getDecision();
+        final ResolverAccessCache cache = getCache(resolver);
+        if (cache != null) {
+            cache.putDecision(snapshot, ResourceAccessGate.Operation.UPDATE, path, result, epoch);
+        }
+        if (!result && chain.getSubtreeDeniedBy() != null) {
+            putDeniedSubtree(
+                    snapshot, ResourceAccessGate.Operation.UPDATE, path, resolver, chain.getSubtreeDeniedBy(), epoch);
+        }
+        return result;
+    }
+
+    @Override
+    public List<Resource> getReadableResources(final List<Resource> resources) {
+        final GateHandlerIndex snapshot = handlerIndex;
+        final ReadDecision[] readDecisions = getReadDecisions(snapshot, resources);
+        final List<Resource> readableResources = new ArrayList<>(resources.size());
+        for (int i = 0; i < readDecisions.length; i++) {
+            if (readDecisions[i].isReadable()) {
+                readableResources.add(toReadableResource(snapshot, resources.get(i), readDecisions[i], null, 0));
+            }
+        }
+        return readableResources;
+    }
+
+    @Override
+    public Iterator<Resource> getReadableResources(final Iterator<Resource> resources) {
+        return new ReadableResourceIterator(resources, this, ITERATOR_BATCH_SIZE);
+    }
+
+    private ReadDecision[] getReadDecisions(final GateHandlerIndex snapshot, final List<Resource> resources) {
+        final long start = traceStartTime();
+        final ReadDecision[] readDecisions = new ReadDecision[resources.size()];
+        final List<Resource> pending = new ArrayList<>(resources.size());
+        final List<Integer> pendingIndexes = new ArrayList<>(resources.size());
+        final List<Long> pendingEpochs = new ArrayList<>(resources.size());
+        for (int i = 0; i < readDecisions.length; i++) {
+            final Resource resource = resources.get(i);
+            if (isUnrestricted(
+                    snapshot, ResourceAccessGate.Operation.READ, resource.getPath(), resource.getResourceResolver())) {
+                readDecisions[i] = getUnrestrictedReadDecision(snapshot, resource);
+                continue;
+            }
+            final ReadDecision cached =
+                    getCachedReadDecision(snapshot, getCache(resource.getResourceResolver()), resource.getPath());
+            if (cached != null) {
+                readDecisions[i] = cached;
+            } else {
+                pending.add(resource);
+                pendingIndexes.add(i);
+                pendingEpochs.add(getEpoch(getCache(resource.getResourceResolver())));
+            }
+        }
+        if (pending.size() == 1) {
+            readDecisions[pendingIndexes.get(0)] = getReadDecision(snapshot, pending.get(0), null, start);
+        } else if (!pending.isEmpty()) {
+            final ReadDecision[] evaluated = evaluateRead(snapshot, pending);
+            for (int i = 0; i < evaluated.length; i++) {
+                final Resource resource = pending.get(i);
+                readDecisions[pendingIndexes.get(i)] = evaluated[i];
+                putReadDecision(
+                        snapshot,
+                        getCache(resource.getResourceResolver()),
+                        resource.getPath(),
+                        evaluated[i],
+                        pendingEpochs.get(i));
+            }
+        }
+        return readDecisions;
+    }
+
+    /**
+     * Runs the read gate chain for several resources at once. The handlers are visited in
+     * ranking order and each gate is called once with all resources it has to decide,
+     * which allows a {@link BatchResourceAccessGate} to decide them in one call.
+     */
+    private ReadDecision[] evaluateRead(final GateHandlerIndex snapshot, final List<Resource> resources) {
+        final ReadDecision[] readDecisions = new ReadDecision[resources.size()];
+        if (snapshot.isEmpty()) {
+            Arrays.fill(readDecisions, ReadDecision.DENIED);
+            return readDecisions;
+        }
+        final ReadChain[] chains = new ReadChain[resources.size()];
+        final long[][] candidateSets = new long[resources.size()][];
+        final long[][] automatonMatches = new long[resources.size()][];
+        final long[][] restrictions = new long[resources.size()][];
+        for (int i = 0; i < chains.length; i++) {
+            final Resource resource = resources.get(i);
+            chains[i] = new ReadChain(snapshot, resource);
+            final ResourceAccessGateHandler[] candidates =
+                    snapshot.getCandidates(ResourceAccessGate.Operation.READ, resource.getPath());
+            candidateSets[i] = new long[(snapshot.getHandlers().length + 63) >>> 6];
+            for (final ResourceAccessGateHandler candidate : candidates) {
+                final int index = snapshot.indexOf(candidate);
+                candidateSets[i][index >>> 6] |= 1L << index;
+            }
+            automatonMatches[i] = matchAll(snapshot, candidates, resource.getPath());
+            restrictions[i] =
+                    getRestrictions(snapshot, ResourceAccessGate.Operation.READ, resource.getResourceResolver());
+        }
+
+        final List<ReadChain> restricted = new ArrayList<>();
+        for (final ResourceAccessGateHandler handler : snapshot.getHandlers(ResourceAccessGate.Operation.READ)) {
+            final int index = snapshot.indexOf(handler);
+            restricted.clear();
+            for (int i = 0; i < chains.length; i++) {
+                final Resource resource = chains[i].resource;
+                if (chains[i].done
+                        || (candidateSets[i][index >>> 6] & (1L << index)) == 0
+                        || !matchesPath(snapshot, handler, resource.getPath(), automatonMatches[i])) {
+                    continue;
+                }
+                if (hasRestrictions(
+                        snapshot,
+                        handler,
+                        ResourceAccessGate.Operation.READ,
+                        resource.getResourceResolver(),
+                        restrictions[i])) {
+                    restricted.add(chains[i]);
+                } else {
+                    chains[i].apply(handler, GateResult.GRANTED);
+                }
+            }
+            if (!restricted.isEmpty()) {
+                final GateResult[] gateResults = canRead(snapshot, handler, restricted);
+                for (int i = 0; i < gateResults.length; i++) {
+                    restricted.get(i).apply(handler, gateResults[i]);
+                }
             }
         }
 
-        return returnValue;
+        for (int i = 0; i < chains.length; i++) {
+            readDecisions[i] = chains[i].getDecision();
+        }
+        return readDecisions;
+    }
+
+    private GateResult[] canRead(
+            final GateHandlerIndex snapshot, final ResourceAccessGateHandler handler, final List<ReadChain> chains) {
+        final ResourceAccessGate gate = handler.getResourceAccessGate();
+        if (chains.size() > 1 && gate instanceof BatchResourceAccessGate) {
+            final List<Resource> resources = new ArrayList<>(chains.size());
+            for (final ReadChain chain : chains) {
+                resources.add(chain.resource);
+            }
+            final long start = startTime();
+            final GateResult[] gateResults = ((BatchResourceAccessGate) gate).canRead(resources);
+            if (gateResults != null && gateResults.length == resources.size()) {
+                if (metricsEnabled) {
+                    // the duration of the batch call is attributed evenly to its resources
+                    final long nanos = (System.nanoTime() - start) / gateResults.length;
+                    for (final GateResult gateResult : gateResults) {
+                        handler.getMetrics().record(ResourceAccessGate.Operation.READ.ordinal(), gateResult, nanos);
+                    }
+                }
+                return gateResults;
+            }
+            LOGGER.warn(
+                    "Method canRead(List) in BatchResourceAccessGate {} did not return a result per resource, "
+                            + "checking the resources one by one.",
+                    gate.getClass().getName());
+        }
+        final GateResult[] gateResults = new GateResult[chains.size()];
+        for (int i = 0; i < gateResults.length; i++) {
+            final Resource resource = chains.get(i).resource;
+            gateResults[i] = callGate(
+                    snapshot,
+                    handler,
+                    ResourceAccessGate.Operation.READ,
+                    resource.getPath(),
+                    resource,
+                    resource.getResourceResolver());
+        }
+        return gateResults;
+    }
+
+    boolean isDefaultAllowIfNoGateMatches() {
+        return defaultAllowIfNoGateMatches;
+    }
+
+    ReadChain newReadChain(final GateHandlerIndex snapshot, final Resource resource) {
+        return new ReadChain(snapshot, resource);
+    }
+
+    /**
+     * The state of the read gate chain for one resource.
+     */
+    final class ReadChain {
+
+        private final GateHandlerIndex snapshot;
+
+        private final Resource resource;
+
+        private GateResult finalGateResult;
+
+        private boolean canReadAllValues;
+
+        private List<ResourceAccessGate> accessGatesForReadValues;
+
+        /** whether a final gate decided and no further gate needs to be called */
+        private boolean done;
+
+        /** the first gate with subtree semantics which denied access, <code>null</code> if none */
+        private ResourceAccessGateHandler subtreeDeniedBy;
+
+        ReadChain(final GateHandlerIndex snapshot, final Resource resource) {
+            this.snapshot = snapshot;
+            this.resource = resource;
+        }
+
+        /**
+         * Applies the result of a gate whose path matches the resource.
+         *
+         * @return <code>true</code> if no further gate needs to be called
+         */
+        boolean apply(final ResourceAccessGateHandler handler, final GateResult gateResult) {
+            if (!canReadAllValues && gateResult == GateResult.GRANTED) {
+                if (handler.getResourceAccessGate().canReadAllValues(resource)) {
+                    canReadAllValues = true;
+                    accessGatesForReadValues = null;
+                } else {
+                    if (accessGatesForReadValues == null) {
+                        accessGatesForReadValues = new ArrayList<>();
+                    }
+                    accessGatesForReadValues.add(handler.getResourceAccessGate());
+                }
+            }
+            if (finalGateResult == null || finalGateResult == GateResult.DENIED) {
+                finalGateResult = gateResult;
+            }
+            if (gateResult == GateResult.DENIED
+                    && subtreeDeniedBy == null
+                    && handler.isSubtreeOperation(ResourceAccessGate.Operation.READ)) {
+                subtreeDeniedBy = handler;
+            }
+            // stop checking if the operation is final and the result not GateResult.CANT_DECIDE
+            done = gateResult != GateResult.CANT_DECIDE && handler.isFinalOperation(ResourceAccessGate.Operation.READ);
+            return done;
+        }
+
+        ReadDecision getDecision() {
+            // deny if access is denied or no gate matched and access is not allowed by default
+            final boolean readable =
+                    finalGateResult == GateResult.GRANTED || (finalGateResult == null && defaultAllowIfNoGateMatches);
+            if (!readable) {
+                return subtreeDeniedBy != null
+                                && isDeniedBelow(
+                                        snapshot,
+                                        ResourceAccessGate.Operation.READ,
+                                        resource.getPath(),
+                                        subtreeDeniedBy)
+                        ? ReadDecision.SUBTREE_DENIED
+                        : ReadDecision.DENIED;
+            }
+            return new ReadDecision(true, canReadAllValues, accessGatesForReadValues);
+        }
     }
 
     private boolean canDoOperation(
-            ResourceAccessGate.Operation operation,
-            String path,
-            Predicate<ResourceAccessGate> gatePredicate,
-            Function<ResourceAccessGate, GateResult> gateResultFilter) {
-        final Iterator<ResourceAccessGateHandler> handlers =
-                getMatchingResourceAccessGateHandlerIterator(path, operation);
+            final GateHandlerIndex snapshot,
+            final ResourceAccessGate.Operation operation,
+            final String path,
+            final Resource resource,
+            final ResourceResolver resolver) {
+        final long start = traceStartTime();
+        if (isUnrestricted(snapshot, operation, path, resolver)) {
+            return true;
+        }
+        final ResolverAccessCache cache = getCache(resolver);
+        if (cache != null) {
+            if (cache.isDeniedSubtree(snapshot, operation, path)) {
+                return false;
+            }
+            final Object cached = cache.getDecision(snapshot, operation, path);
+            if (cached != null) {
+                return (Boolean) cached;
+            }
+        }
+        final long epoch = getEpoch(cache);
+        final boolean result = evaluateOperation(snapshot, operation, path, resource, resolver, epoch, start);
+        if (cache != null) {
+            cache.putDecision(snapshot, operation, path, result, epoch);
+        }
+        return result;
+    }
+
+    /**
+     * Runs the gate chain for an operation other than {@link ResourceAccessGate.Operation#READ}.
+     * Unless parallel evaluation is enabled or the decision is sampled for recording the chain is
+     * evaluated without allocating any objects.
+     *
+     * @param operation the operation
+     * @param path the path of the resource, might be <code>null</code> for create
+     * @param resource the resource, <code>null</code> for create
+     * @param resolver the resource resolver
+     * @param epoch the epoch of the resolver's cache read before the evaluation
+     * @param start the start time of the check, see {@link #traceStartTime()}
+     */
+    private boolean evaluateOperation(
+            final GateHandlerIndex snapshot,
+            final ResourceAccessGate.Operation operation,
+            final String path,
+            final Resource resource,
+            final ResourceResolver resolver,
+            final long epoch,
+            final long start) {
         boolean result = false;
-        if (handlers != null) {
+        if (!snapshot.isEmpty()) {
             GateResult finalGateResult = null;
             boolean noGateMatched = true;
+            ResourceAccessGateHandler subtreeDeniedBy = null;
 
-            while (handlers.hasNext()) {
-                noGateMatched = false;
-                final ResourceAccessGateHandler resourceAccessGateHandler = handlers.next();
+            final ResourceAccessGateHandler[] candidates = snapshot.getCandidates(operation, path);
+            final long[] automatonMatches = matchAll(snapshot, candidates, path);
+            final long[] restrictions = getRestrictions(snapshot, operation, resolver);
+            final SpeculativeGateCalls calls = startGateCalls(
+                    snapshot, operation, path, resource, resolver, candidates, automatonMatches, restrictions);
+            final DecisionRecorder.Trace trace = sample(operation, path, resolver, start);
+            try {
+                for (int i = 0; i < candidates.length; i++) {
+                    final GateResult gateResult = calls != null
+                            ? calls.getResult(i)
+                            : checkGate(
+                                    snapshot,
+                                    candidates[i],
+                                    operation,
+                                    path,
+                                    resource,
+                                    resolver,
+                                    automatonMatches,
+                                    restrictions);
+                    if (gateResult == null) {
+                        continue;
+                    }
+                    noGateMatched = false;
+                    if (trace != null) {
+                        trace.add(candidates[i], gateResult);
+                    }
 
-                final GateResult gateResult = !gatePredicate.test(resourceAccessGateHandler.getResourceAccessGate())
-                        ? GateResult.GRANTED
-                        : gateResultFilter.apply(resourceAccessGateHandler.getResourceAccessGate());
-                if (finalGateResult == null || finalGateResult == GateResult.DENIED) {
-                    finalGateResult = gateResult;
+                    if (finalGateResult == null || finalGateResult == GateResult.DENIED) {
+                        finalGateResult = gateResult;
+                    }
+                    if (gateResult == GateResult.DENIED
+                            && subtreeDeniedBy == null
+                            && candidates[i].isSubtreeOperation(operation)) {
+                        subtreeDeniedBy = candidates[i];
+                    }
+                    if (finalGateResult == GateResult.GRANTED
+                            || gateResult != GateResult.CANT_DECIDE && candidates[i].isFinalOperation(operation)) {
+                        break;
+                    }
                 }
-                if (finalGateResult == GateResult.GRANTED
-                        || gateResult != GateResult.CANT_DECIDE
-                                && resourceAccessGateHandler.isFinalOperation(operation)) {
-                    break;
+            } finally {
+                if (calls != null) {
+                    calls.cancel();
                 }
             }
 
             if (finalGateResult == GateResult.GRANTED || (noGateMatched && this.defaultAllowIfNoGateMatches)) {
                 result = true;
+            } else if (subtreeDeniedBy != null) {
+                putDeniedSubtree(snapshot, operation, path, resolver, subtreeDeniedBy, epoch);
+            }
+            if (trace != null) {
+                trace.finish(result);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the time a check starts at, which is only taken if decisions are recorded.
+     * It is taken at the start of the public call, so a recorded decision includes the time
+     * spent on path matching and cache lookups.
+     */
+    long traceStartTime() {
+        return decisionRecorder != null ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Decides whether the evaluation of a decision is recorded.
+     *
+     * @param start the start time of the check, see {@link #traceStartTime()}
+     * @return the trace to fill or <code>null</code> if the decision is not recorded
+     */
+    DecisionRecorder.Trace sample(
+            final ResourceAccessGate.Operation operation,
+            final String path,
+            final ResourceResolver resolver,
+            final long start) {
+        return decisionRecorder != null ? decisionRecorder.sample(operation, path, resolver, start) : null;
+    }
+
+    /**
+     * Records that a gate with subtree semantics denied the operation at the path, if the
+     * denial holds for all resources below the path.
+     */
+    void putDeniedSubtree(
+            final GateHandlerIndex snapshot,
+            final ResourceAccessGate.Operation operation,
+            final String path,
+            final ResourceResolver resolver,
+            final ResourceAccessGateHandler deniedBy,
+            final long epoch) {
+        final ResolverAccessCache cache = getCache(resolver);
+        if (cache != null && isDeniedBelow(snapshot, operation, path, deniedBy)) {
+            cache.putDeniedSubtree(snapshot, operation, path, epoch);
+        }
+    }
+
+    /**
+     * Checks whether the denial of a gate with subtree semantics decides the operation for all
+     * resources below the path. This is the case if no other gate asked before it, or after it
+     * unless the gate is final for the operation, might match one of these resources. Otherwise
+     * only the gate itself is not asked again below the path.
+     */
+    static boolean isDeniedBelow(
+            final GateHandlerIndex snapshot,
+            final ResourceAccessGate.Operation operation,
+            final String path,
+            final ResourceAccessGateHandler deniedBy) {
+        if (path == null) {
+            return false;
+        }
+        final boolean isFinal = deniedBy.isFinalOperation(operation);
+        for (final ResourceAccessGateHandler handler : snapshot.getHandlers(operation)) {
+            if (handler == deniedBy) {
+                if (isFinal) {
+                    return true;
+                }
+            } else if (handler.mightMatchBelow(path)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the result of one gate of a chain.
+     *
+     * @return the result or <code>null</code> if the path pattern of the gate does not match
+     */
+    private GateResult checkGate(
+            final GateHandlerIndex snapshot,
+            final ResourceAccessGateHandler handler,
+            final ResourceAccessGate.Operation operation,
+            final String path,
+            final Resource resource,
+            final ResourceResolver resolver,
+            final long[] automatonMatches,
+            final long[] restrictions) {
+        if (!matchesPath(snapshot, handler, path, automatonMatches)) {
+            return null;
+        }
+        return !hasRestrictions(snapshot, handler, operation, resolver, restrictions)
+                ? GateResult.GRANTED
+                : callGate(snapshot, handler, operation, path, resource, resolver);
+    }
+
+    /**
+     * Starts the calls of all gates of a chain concurrently, if parallel evaluation is enabled.
+     * Gates ranked after the deciding one are called as well, their results are discarded.
+     *
+     * @return the calls or <code>null</code> if the gates are to be called one after another
+     */
+    private SpeculativeGateCalls startGateCalls(
+            final GateHandlerIndex snapshot,
+            final ResourceAccessGate.Operation operation,
+            final String path,
+            final Resource resource,
+            final ResourceResolver resolver,
+            final ResourceAccessGateHandler[] candidates,
+            final long[] automatonMatches,
+            final long[] restrictions) {
+        if (gateCallExecutor == null || candidates.length < 2) {
+            return null;
+        }
+        final SpeculativeGateCalls calls = new SpeculativeGateCalls(candidates.length);
+        for (int i = 0; i < candidates.length; i++) {
+            final ResourceAccessGateHandler handler = candidates[i];
+            if (!matchesPath(snapshot, handler, path, automatonMatches)) {
+                continue;
+            }
+            if (!hasRestrictions(snapshot, handler, operation, resolver, restrictions)) {
+                calls.setResult(i, GateResult.GRANTED);
+            } else {
+                // the resolver is only used by the gates in the calling threads
+                final String userId = getSharedUserId(handler, operation, path, resolver);
+                final ResolverAccessCache cache = getSubtreeCache(handler, operation, path, resolver);
+                calls.addCall(
+                        i,
+                        () -> callGate(snapshot, handler, operation, path, resource, resolver, userId, cache),
+                        gateCallExecutor);
+            }
+        }
+        return calls;
+    }
+
+    /**
+     * Runs the path patterns of all handlers at once, if enabled.
+     *
+     * @return the result of {@link MultiPatternMatcher#match(String)} or <code>null</code> if the
+     *      patterns are evaluated per handler
+     */
+    long[] matchAll(final GateHandlerIndex snapshot, final ResourceAccessGateHandler[] candidates, final String path) {
+        final MultiPatternMatcher pathMatcher = snapshot.getPathMatcher();
+        if (pathMatcher == null || path == null || candidates.length == 0) {
+            return null;
+        }
+        return pathMatcher.match(path);
+    }
+
+    boolean matchesPath(
+            final GateHandlerIndex snapshot,
+            final ResourceAccessGateHandler handler,
+            final String path,
+            final long[] automatonMatches) {
+        final boolean matches = automatonMatches == null
+                ? handler.matchesPath(path)
+                : snapshot.getPathMatcher().matches(automatonMatches, handler, path);
+        if (metricsEnabled) {
+            handler.getMetrics().recordPathMatch(matches);
+        }
+        return matches;
+    }
+
+    /**
+     * Calls the gate for the operation, using the result shared by another resolver of the
+     * same user if the gate declared the operation to be shared.
+     */
+    GateResult callGate(
+            final GateHandlerIndex snapshot,
+            final ResourceAccessGateHandler handler,
+            final ResourceAccessGate.Operation operation,
+            final String path,
+            final Resource resource,
+            final ResourceResolver resolver) {
+        return callGate(
+                snapshot,
+                handler,
+                operation,
+                path,
+                resource,
+                resolver,
+                getSharedUserId(handler, operation, path, resolver),
+                getSubtreeCache(handler, operation, path, resolver));
+    }
+
+    /**
+     * Calls the gate for the operation with the user ID and the cache already taken from the
+     * resolver, so that only the gate itself uses the resolver if called in another thread.
+     *
+     * @param userId the user ID if the result may be shared, <code>null</code> otherwise
+     * @param cache the cache of the subtree results or <code>null</code>
+     */
+    private GateResult callGate(
+            final GateHandlerIndex snapshot,
+            final ResourceAccessGateHandler handler,
+            final ResourceAccessGate.Operation operation,
+            final String path,
+            final Resource resource,
+            final ResourceResolver resolver,
+            final String userId,
+            final ResolverAccessCache cache) {
+        if (userId == null) {
+            return invokeGate(snapshot, handler, operation, path, resource, resolver, cache);
+        }
+        final int handlerIndex = snapshot.indexOf(handler);
+        GateResult result = sharedDecisionCache.get(snapshot, handlerIndex, operation, userId, path);
+        if (result == null) {
+            final long epoch = sharedDecisionCache.getEpoch();
+            result = invokeGate(snapshot, handler, operation, path, resource, resolver, cache);
+            if (result != null) {
+                sharedDecisionCache.put(snapshot, handlerIndex, operation, userId, path, result, epoch);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the user ID of the resolver if the result of the gate may be shared between
+     *      the resolvers of the user, <code>null</code> otherwise
+     */
+    private String getSharedUserId(
+            final ResourceAccessGateHandler handler,
+            final ResourceAccessGate.Operation operation,
+            final String path,
+            final ResourceResolver resolver) {
+        return sharedDecisionCache != null && path != null && resolver != null && handler.isSharedOperation(operation)
+                ? resolver.getUserID()
+                : null;
+    }
+
+    /**
+     * @return the cache of the subtree results if the gate is able to decide whole subtrees and
+     *      the results are cached, <code>null</code> otherwise
+     */
+    private ResolverAccessCache getSubtreeCache(
+            final ResourceAccessGateHandler handler,
+            final ResourceAccessGate.Operation operation,
+            final String path,
+            final ResourceResolver resolver) {
+        return subtreeResultsSize > 0 && path != null && isSubtreeGate(handler, operation) ? getCache(resolver) : null;
+    }
+
+    private static boolean isSubtreeGate(
+            final ResourceAccessGateHandler handler, final ResourceAccessGate.Operation operation) {
+        return handler.getResourceAccessGate() instanceof SubtreeResourceAccessGate
+                || handler.isSubtreeOperation(operation);
+    }
+
+    /**
+     * Calls the gate for the operation, recording the call if metrics are enabled.
+     *
+     * @param cache the cache of the subtree results or <code>null</code>
+     */
+    private GateResult invokeGate(
+            final GateHandlerIndex snapshot,
+            final ResourceAccessGateHandler handler,
+            final ResourceAccessGate.Operation operation,
+            final String path,
+            final Resource resource,
+            final ResourceResolver resolver,
+            final ResolverAccessCache cache) {
+        final ResourceAccessGate gate = handler.getResourceAccessGate();
+        if (isSubtreeGate(handler, operation) && path != null) {
+            return callSubtreeGate(snapshot, handler, operation, path, resource, resolver, cache);
+        }
+        final long start = startTime();
+        final GateResult result = handler.getTimeoutNanos() > 0 && timedGateExecutor != null
+                ? callWithTimeout(handler, () -> checkOperation(gate, operation, path, resource, resolver))
+                : checkOperation(gate, operation, path, resource, resolver);
+        return record(handler, operation.ordinal(), result, start);
+    }
+
+    /**
+     * Calls a gate which is able to decide whole subtrees, either a {@link SubtreeResourceAccessGate}
+     * or a gate whose denial of the operation applies to the subtree. A subtree result the gate
+     * returned for the path or one of its ancestors is reused instead of calling the gate again.
+     *
+     * @param cache the cache of the subtree results or <code>null</code>
+     */
+    private GateResult callSubtreeGate(
+            final GateHandlerIndex snapshot,
+            final ResourceAccessGateHandler handler,
+            final ResourceAccessGate.Operation operation,
+            final String path,
+            final Resource resource,
+            final ResourceResolver resolver,
+            final ResolverAccessCache cache) {
+        final int handlerIndex = snapshot.indexOf(handler);
+        if (cache != null) {
+            final GateResult subtreeResult = cache.getSubtreeResult(snapshot, handlerIndex, operation, path);
+            if (subtreeResult != null) {
+                return subtreeResult;
+            }
+        }
+        final long epoch = getEpoch(cache);
+        final ResourceAccessGate gate = handler.getResourceAccessGate();
+        final Callable<GateResult> call = gate instanceof SubtreeResourceAccessGate
+                ? () -> {
+                    final ScopedGateResult scopedResult =
+                            ((SubtreeResourceAccessGate) gate).check(operation, path, resource, resolver);
+                    if (scopedResult == null) {
+                        throw new IllegalStateException("Method check in SubtreeResourceAccessGate "
+                                + gate.getClass().getName() + " returned null.");
+                    }
+                    if (cache != null && scopedResult.isSubtree()) {
+                        cache.putSubtreeResult(
+                                snapshot, handlerIndex, operation, path, scopedResult.getResult(), epoch);
+                    }
+                    return scopedResult.getResult();
+                }
+                : () -> {
+                    // the denial of a gate with subtree semantics applies to the resources below the path
+                    final GateResult result = checkOperation(gate, operation, path, resource, resolver);
+                    if (cache != null && result == GateResult.DENIED) {
+                        cache.putSubtreeResult(snapshot, handlerIndex, operation, path, result, epoch);
+                    }
+                    return result;
+                };
+        final long start = startTime();
+        final GateResult result = handler.getTimeoutNanos() > 0 && timedGateExecutor != null
+                ? callWithTimeout(handler, call)
+                : callUnchecked(call);
+        return record(handler, operation.ordinal(), result, start);
+    }
+
+    /**
+     * Asks a {@link MultiOperationResourceAccessGate} for several operations on a resource in one call,
+     * unless its calls are bounded by a timeout, shared between resolvers or reused for subtrees,
+     * which is done per operation.
+     *
+     * @return the results or <code>null</code> if the gate is to be called once per operation
+     */
+    Map<ResourceAccessGate.Operation, GateResult> callAtOnce(
+            final ResourceAccessGateHandler handler,
+            final Set<ResourceAccessGate.Operation> operations,
+            final Resource resource) {
+        final ResourceAccessGate gate = handler.getResourceAccessGate();
+        if (!(gate instanceof MultiOperationResourceAccessGate)
+                || gate instanceof SubtreeResourceAccessGate
+                || handler.getTimeoutNanos() > 0 && timedGateExecutor != null) {
+            return null;
+        }
+        for (final ResourceAccessGate.Operation operation : operations) {
+            if (handler.isSubtreeOperation(operation)
+                    || sharedDecisionCache != null && handler.isSharedOperation(operation)) {
+                return null;
+            }
+        }
+        final long start = startTime();
+        final Map<ResourceAccessGate.Operation, GateResult> results =
+                ((MultiOperationResourceAccessGate) gate).checkOperations(resource, operations);
+        if (results == null || !results.keySet().containsAll(operations)) {
+            throw new IllegalStateException("Method checkOperations in MultiOperationResourceAccessGate "
+                    + gate.getClass().getName() + " did not return a result per operation.");
+        }
+        if (metricsEnabled) {
+            // the duration of the call is attributed evenly to its operations
+            final long nanos = (System.nanoTime() - start) / operations.size();
+            for (final ResourceAccessGate.Operation operation : operations) {
+                handler.getMetrics().record(operation.ordinal(), results.get(operation), nanos);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Calls a gate with a timeout in another thread and waits at most for its timeout. If the gate
+     * doesn't decide in time or its circuit breaker is open, the timeout result of the gate is used
+     * and the call completes in the background.
+     */
+    private GateResult callWithTimeout(final ResourceAccessGateHandler handler, final Callable<GateResult> call) {
+        final CircuitBreaker circuitBreaker = handler.getCircuitBreaker();
+        if (circuitBreaker.isOpen()) {
+            if (circuitBreaker.tryStartProbe()) {
+                probe(handler, call);
+            }
+            return handler.getTimeoutResult();
+        }
+        final FutureTask<GateResult> task = new FutureTask<>(call);
+        if (!timedGateExecutor.tryExecute(task)) {
+            // the executor is saturated, the call can't be bounded and counts as timed out
+            return recordTimeout(handler);
+        }
+        try {
+            final GateResult result = task.get(handler.getTimeoutNanos(), TimeUnit.NANOSECONDS);
+            circuitBreaker.recordSuccess();
+            return result;
+        } catch (final TimeoutException e) {
+            // the gate is not interrupted, as this might close channels of the repository it is reading from
+            task.cancel(false);
+            return recordTimeout(handler);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            task.cancel(false);
+            // an interrupted check must not grant access
+            return GateResult.DENIED;
+        } catch (final ExecutionException e) {
+            throw unwrap(e.getCause());
+        }
+    }
+
+    /**
+     * Records a timeout of the gate with its circuit breaker.
+     *
+     * @return the timeout result of the gate
+     */
+    private static GateResult recordTimeout(final ResourceAccessGateHandler handler) {
+        if (handler.getCircuitBreaker().recordTimeout()) {
+            LOGGER.warn(
+                    "ResourceAccessGate {} timed out {} times in a row, using its timeout result {} "
+                            + "until it decides in time again.",
+                    handler.getResourceAccessGate().getClass().getName(),
+                    CircuitBreaker.TIMEOUT_THRESHOLD,
+                    handler.getTimeoutResult());
+        }
+        return handler.getTimeoutResult();
+    }
+
+    /**
+     * Calls a gate whose circuit breaker is open in the background, closing the breaker if it decides in time.
+     * Failures of the call are ignored, the breaker stays open.
+     */
+    private void probe(final ResourceAccessGateHandler handler, final Callable<GateResult> call) {
+        timedGateExecutor.tryExecute(() -> {
+            final long start = System.nanoTime();
+            try {
+                call.call();
+                if (System.nanoTime() - start <= handler.getTimeoutNanos()) {
+                    handler.getCircuitBreaker().recordSuccess();
+                }
+            } catch (final Exception e) {
+                LOGGER.debug(
+                        "Probing ResourceAccessGate {} failed",
+                        handler.getResourceAccessGate().getClass().getName(),
+                        e);
             }
+        });
+    }
+
+    private static GateResult callUnchecked(final Callable<GateResult> call) {
+        try {
+            return call.call();
+        } catch (final Exception e) {
+            throw unwrap(e);
+        }
+    }
+
+    private static RuntimeException unwrap(final Throwable cause) {
+        if (cause instanceof RuntimeException) {
+            return (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new IllegalStateException(cause);
+    }
+
+    long startTime() {
+        return metricsEnabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records a call to the gate of the handler if metrics are enabled.
+     *
+     * @param index the ordinal of the operation or {@link GateMetrics#QUERY}
+     * @param result the result of the call
+     * @param start the value of {@link #startTime()} before the call
+     * @return the result
+     */
+    GateResult record(
+            final ResourceAccessGateHandler handler, final int index, final GateResult result, final long start) {
+        if (metricsEnabled) {
+            handler.getMetrics().record(index, result, System.nanoTime() - start);
         }
         return result;
     }
 
+    /**
+     * Returns which handlers have restrictions for the operation and the resolver. As the
+     * restrictions only depend on the resolver they are computed once per resolver.
+     *
+     * @return a bit set over the handler indexes of the {@link GateHandlerIndex} or <code>null</code>
+     *      if the restrictions can't be kept for the resolver
+     */
+    long[] getRestrictions(
+            final GateHandlerIndex snapshot,
+            final ResourceAccessGate.Operation operation,
+            final ResourceResolver resolver) {
+        final ResolverRestrictions resolverRestrictions = ResolverRestrictions.get(resolver, this, restrictionsKey);
+        if (resolverRestrictions == null) {
+            return null;
+        }
+        long[] restrictions = resolverRestrictions.get(snapshot, operation);
+        if (restrictions == null) {
+            restrictions = computeRestrictions(snapshot, operation, resolver);
+            resolverRestrictions.put(snapshot, operation, restrictions);
+        }
+        return restrictions;
+    }
+
+    static long[] computeRestrictions(
+            final GateHandlerIndex snapshot,
+            final ResourceAccessGate.Operation operation,
+            final ResourceResolver resolver) {
+        final long[] restrictions = new long[(snapshot.getHandlers().length + 63) >>> 6];
+        for (final ResourceAccessGateHandler handler : snapshot.getHandlers(operation)) {
+            if (hasRestrictions(handler.getResourceAccessGate(), operation, resolver)) {
+                final int index = snapshot.indexOf(handler);
+                restrictions[index >>> 6] |= 1L << index;
+            }
+        }
+        return restrictions;
+    }
+
+    /**
+     * Returns whether any gate has restrictions for the operation and the resolver.
+     */
+    private boolean isRestricted(
+            final GateHandlerIndex snapshot,
+            final ResourceAccessGate.Operation operation,
+            final ResourceResolver resolver) {
+        final long[] restrictions = getRestrictions(snapshot, operation, resolver);
+        if (restrictions == null) {
+            return true;
+        }
+        for (final long word : restrictions) {
+            if (word != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether any gate whose path matches the resource has restrictions for the operation
+     * and the resolver of the resource.
+     */
+    private boolean isRestricted(
+            final GateHandlerIndex snapshot, final ResourceAccessGate.Operation operation, final Resource resource) {
+        final ResourceResolver resolver = resource.getResourceResolver();
+        if (!isRestricted(snapshot, operation, resolver)) {
+            return false;
+        }
+        final String path = resource.getPath();
+        final ResourceAccessGateHandler[] candidates = snapshot.getCandidates(operation, path);
+        final long[] restrictions = getRestrictions(snapshot, operation, resolver);
+        final long[] automatonMatches = matchAll(snapshot, candidates, path);
+        for (final ResourceAccessGateHandler handler : candidates) {
+            if (hasRestrictions(snapshot, handler, operation, resolver, restrictions)
+                    && matchesPath(snapshot, handler, path, automatonMatches)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether the operation is granted without matching paths or calling any gate. This is the
+     * case if no gate has restrictions for the operation and the resolver, like for service users
+     * and admin sessions, and a gate for the operation matches any path or access is allowed if no
+     * gate matches.
+     */
+    boolean isUnrestricted(
+            final GateHandlerIndex snapshot,
+            final ResourceAccessGate.Operation operation,
+            final String path,
+            final ResourceResolver resolver) {
+        if (snapshot.isEmpty()) {
+            return false;
+        }
+        if (!defaultAllowIfNoGateMatches) {
+            final ResourceAccessGateHandler anyPathHandler = snapshot.getAnyPathHandler(operation);
+            if (anyPathHandler == null || !anyPathHandler.matchesPath(path)) {
+                return false;
+            }
+        }
+        return !isRestricted(snapshot, operation, resolver);
+    }
+
+    boolean hasRestrictions(
+            final GateHandlerIndex snapshot,
+            final ResourceAccessGateHandler handler,
+            final ResourceAccessGate.Operation operation,
+            final ResourceResolver resolver,
+            final long[] restrictions) {
+        if (restrictions == null) {
+            return hasRestrictions(handler.getResourceAccessGate(), operation, resolver);
+        }
+        final int index = snapshot.indexOf(handler);
+        return (restrictions[index >>> 6] & (1L << index)) != 0;
+    }
+
+    private static boolean hasRestrictions(
+            final ResourceAccessGate gate,
+            final ResourceAccessGate.Operation operation,
+            final ResourceResolver resolver) {
+        switch (operation) {
+            case READ:
+                return gate.hasReadRestrictions(resolver);
+            case CREATE:
+                return gate.hasCreateRestrictions(resolver);
+            case UPDATE:
+                return gate.hasUpdateRestrictions(resolver);
+            case DELETE:
+                return gate.hasDeleteRestrictions(resolver);
+            case EXECUTE:
+                return gate.hasExecuteRestrictions(resolver);
+            case ORDER_CHILDREN:
+                return gate.hasOrderChildrenRestrictions(resolver);
+            default:
+                throw new IllegalArgumentException("Unsupported operation " + operation);
+        }
+    }
+
+    private static GateResult checkOperation(
+            final ResourceAccessGate gate,
+            final ResourceAccessGate.Operation operation,
+            final String path,
+            final Resource resource,
+            final ResourceResolver resolver) {
+        switch (operation) {
+            case READ:
+                return gate.canRead(resource);
+            case CREATE:
+                return gate.canCreate(path, resolver);
+            case UPDATE:
+                return gate.canUpdate(resource);
+            case DELETE:
+                return gate.canDelete(resource);
+            case EXECUTE:
+                return gate.canExecute(resource);
+            case ORDER_CHILDREN:
+                return gate.canOrderChildren(resource);
+            default:
+                throw new IllegalArgumentException("Unsupported operation " + operation);
+        }
+    }
+
     @Override
     public boolean canOrderChildren(Resource resource) {
         return canDoOperation(
+                handlerIndex,
                 ResourceAccessGate.Operation.ORDER_CHILDREN,
                 resource.getPath(),
-                gate -> gate.hasOrderChildrenRestrictions(resource.getResourceResolver()),
-                gate -> gate.canOrderChildren(resource));
+                resource,
+                resource.getResourceResolver());
     }
 
     @Override
     public boolean canCreate(final String path, final ResourceResolver resolver) {
-        return canDoOperation(
-                ResourceAccessGate.Operation.CREATE,
-                path,
-                gate -> gate.hasCreateRestrictions(resolver),
-                gate -> gate.canCreate(path, resolver));
+        return canDoOperation(handlerIndex, ResourceAccessGate.Operation.CREATE, path, null, resolver);
     }
 
     @Override
     public boolean canUpdate(final Resource resource) {
         return canDoOperation(
+                handlerIndex,
                 ResourceAccessGate.Operation.UPDATE,
                 resource.getPath(),
-                gate -> gate.hasUpdateRestrictions(resource.getResourceResolver()),
-                gate -> gate.canUpdate(resource));
+                resource,
+                resource.getResourceResolver());
     }
 
     @Override
     public boolean canDelete(final Resource resource) {
         return canDoOperation(
+                handlerIndex,
                 ResourceAccessGate.Operation.DELETE,
                 resource.getPath(),
-                gate -> gate.hasDeleteRestrictions(resource.getResourceResolver()),
-                gate -> gate.canDelete(resource));
+                resource,
+                resource.getResourceResolver());
     }
 
     @Override
     public boolean canExecute(final Resource resource) {
         return canDoOperation(
+                handlerIndex,
                 ResourceAccessGate.Operation.EXECUTE,
                 resource.getPath(),
-                gate -> gate.hasExecuteRestrictions(resource.getResourceResolver()),
-                gate -> gate.canExecute(resource));
+                resource,
+                resource.getResourceResolver());
+    }
+
+    /**
+     * Checks the operations on an existing resource in one walk over the ranked handlers.
+     * Decisions known from the {@link ResolverAccessCache} are not evaluated again.
+     */
+    @Override
+    public EnumSet<ResourceAccessGate.Operation> getAllowedOperations(final Resource resource) {
+        return effectivePermissions.getAllowedOperations(handlerIndex, resource);
     }
 
     @Override
     public boolean canReadValue(final Resource resource, final String valueName) {
-        // TODO Auto-generated method stub
-        return false;
+        return valuePermissions.canDoOperation(handlerIndex, ResourceAccessGate.Operation.READ, resource, valueName);
     }
 
     @Override
     public boolean canSetValue(final Resource resource, final String valueName) {
-        // TODO Auto-generated method stub
-        return false;
+        // setting an existing value is an update, otherwise the value is created
+        final ValueMap properties = resource.getValueMap();
+        final ResourceAccessGate.Operation operation = properties != null && properties.containsKey(valueName)
+                ? ResourceAccessGate.Operation.UPDATE
+                : ResourceAccessGate.Operation.CREATE;
+        return valuePermissions.canDoOperation(handlerIndex, operation, resource, valueName);
     }
 
     @Override
     public boolean canDeleteValue(final Resource resource, final String valueName) {
-        // TODO Auto-generated method stub
-        return false;
+        return valuePermissions.canDoOperation(handlerIndex, ResourceAccessGate.Operation.DELETE, resource, valueName);
     }
 
     @Override
-    public String transformQuery(final String query, final String language, final ResourceResolver resourceResolver)
-            throws AccessSecurityException {
-        String returnValue = query;
+    public CompletionStage<Resource> getReadableResourceAsync(final Resource resource) {
+        return asyncChecks.getReadableResource(handlerIndex, resource);
+    }
 
-        for (ResourceAccessGateHandler handler : allHandlers) {
-            returnValue = handler.getResourceAccessGate().transformQuery(returnValue, language, resourceResolver);
-            if (returnValue == null) {
-                throw new AccessSecurityException("Method transformQuery in ResourceAccessGate "
-                        + handler.getResourceAccessGate().getClass().getName() + " returned null.");
-            }
-        }
+    @Override
+    public CompletionStage<Boolean> canCreateAsync(final String path, final ResourceResolver resolver) {
+        return asyncChecks.canDoOperation(handlerIndex, ResourceAccessGate.Operation.CREATE, path, null, resolver);
+    }
+
+    @Override
+    public CompletionStage<Boolean> canUpdateAsync(final Resource resource) {
+        return asyncChecks.canDoOperation(
+                handlerIndex,
+                ResourceAccessGate.Operation.UPDATE,
+                resource.getPath(),
+                resource,
+                resource.getResourceResolver());
+    }
 
-        return returnValue;
+    @Override
+    public CompletionStage<Boolean> canDeleteAsync(final Resource resource) {
+        return asyncChecks.canDoOperation(
+                handlerIndex,
+                ResourceAccessGate.Operation.DELETE,
+                resource.getPath(),
+                resource,
+                resource.getResourceResolver());
+    }
+
+    @Override
+    public CompletionStage<Boolean> canExecuteAsync(final Resource resource) {
+        return asyncChecks.canDoOperation(
+                handlerIndex,
+                ResourceAccessGate.Operation.EXECUTE,
+                resource.getPath(),
+                resource,
+                resource.getResourceResolver());
+    }
+
+    @Override
+    public CompletionStage<Boolean> canOrderChildrenAsync(final Resource resource) {
+        return asyncChecks.canDoOperation(
+                handlerIndex,
+                ResourceAccessGate.Operation.ORDER_CHILDREN,
+                resource.getPath(),
+                resource,
+                resource.getResourceResolver());
+    }
+
+    /**
+     * Passes the query through the gates handling {@link ResourceAccessGate.Operation#READ} which
+     * have read restrictions for the resolver, in ranking order.
+     */
+    @Override
+    public String transformQuery(final String query, final String language, final ResourceResolver resourceResolver)
+            throws AccessSecurityException {
+        return queryTransformer.transformQuery(handlerIndex, query, language, resourceResolver);
     }
 }
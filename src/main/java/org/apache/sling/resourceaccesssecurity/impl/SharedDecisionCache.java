@@ -0,0 +1,332 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.resourceaccesssecurity.impl;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.sling.resourceaccesssecurity.ResourceAccessGate;
+import org.apache.sling.resourceaccesssecurity.ResourceAccessGate.GateResult;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The <code>SharedDecisionCache</code> keeps the results of gates which declared that their
+ * result for an operation only depends on the user ID of the resource resolver and the path.
+ * Unlike the {@link ResolverAccessCache} it is shared by all resource resolvers, so short-lived
+ * resolvers of the same user benefit from the results computed for each other.
+ *
+ * The entries are spread over independently locked stripes, each keeping at most its share of
+ * the maximum size. Once a stripe is full a new entry is only admitted if it has been requested
+ * more often than the least recently used entry it would evict (TinyLFU), the frequencies are
+ * estimated by a count-min sketch of fixed size which is aged periodically. Entries expire after
+ * the configured time and all entries are discarded once the gates change.
+ */
+public class SharedDecisionCache {
+
+    /** the maximum number of stripes */
+    private static final int MAX_STRIPES = 16;
+
+    private final long ttlNanos;
+
+    private final Stripe[] stripes;
+
+    /** the snapshot of the gates the entries have been computed for */
+    private volatile GateHandlerIndex index;
+
+    /** incremented by each eviction, results computed before an eviction are not stored */
+    private final AtomicLong epoch = new AtomicLong();
+
+    /**
+     * Creates the cache.
+     *
+     * @param maxSize the maximum number of entries
+     * @param ttlSeconds the time after which an entry expires, <code>0</code> if entries don't expire
+     */
+    public SharedDecisionCache(final int maxSize, final int ttlSeconds) {
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+        final int stripeCount = Math.max(1, Math.min(MAX_STRIPES, Integer.highestOneBit(maxSize / 8)));
+        this.stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            // the remainder is spread over the first stripes, so the total never exceeds the maximum size
+            stripes[i] = new Stripe(maxSize / stripeCount + (i < maxSize % stripeCount ? 1 : 0));
+        }
+    }
+
+    /**
+     * Returns the result of the gate at the handler index for the user and the path.
+     *
+     * @return the result or <code>null</code> if not cached
+     */
+    public @Nullable GateResult get(
+            @NotNull final GateHandlerIndex index,
+            final int handlerIndex,
+            @NotNull final ResourceAccessGate.Operation operation,
+            @NotNull final String userId,
+            @NotNull final String path) {
+        final Key key = new Key(handlerIndex, operation, userId, path);
+        final Stripe stripe = stripeFor(key);
+        synchronized (stripe) {
+            // misses are counted as well, so a frequently requested result is admitted once computed
+            stripe.sketch.increment(key.hash);
+            if (index != this.index) {
+                return null;
+            }
+            final CachedResult entry = stripe.entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (ttlNanos > 0 && System.nanoTime() - entry.created > ttlNanos) {
+                stripe.entries.remove(key);
+                return null;
+            }
+            return entry.result;
+        }
+    }
+
+    /**
+     * Returns the current epoch, which is to be read before the gate is called.
+     */
+    public long getEpoch() {
+        return epoch.get();
+    }
+
+    public void put(
+            @NotNull final GateHandlerIndex index,
+            final int handlerIndex,
+            @NotNull final ResourceAccessGate.Operation operation,
+            @NotNull final String userId,
+            @NotNull final String path,
+            @NotNull final GateResult result,
+            final long epoch) {
+        if (index != this.index && !switchTo(index)) {
+            return;
+        }
+        final Key key = new Key(handlerIndex, operation, userId, path);
+        final Stripe stripe = stripeFor(key);
+        synchronized (stripe) {
+            // the eviction increments the epoch before it clears the stripes
+            if (index == this.index && epoch == this.epoch.get()) {
+                stripe.admit(key, new CachedResult(result, System.nanoTime()));
+            }
+        }
+    }
+
+    /**
+     * Discards the results for the subtree, as the policy for the subtree changed. Results
+     * computed before the eviction are not stored anymore, as they might be outdated.
+     *
+     * @param path the root of the subtree
+     * @param userId the user the policy changed for or <code>null</code> for all users
+     */
+    public void evict(@NotNull final String path, @Nullable final String userId) {
+        epoch.incrementAndGet();
+        for (final Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.entries
+                        .keySet()
+                        .removeIf(key -> (userId == null || userId.equals(key.userId))
+                                && SubtreeMap.isInSubtree(key.path, path));
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (final Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.entries.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Discards all entries if they have been computed for another snapshot of the gates.
+     *
+     * @return <code>false</code> if the index is outdated and nothing should be stored
+     */
+    private synchronized boolean switchTo(final GateHandlerIndex index) {
+        if (index != this.index) {
+            // don't let a check which started before the gates changed replace newer entries
+            if (this.index != null && index.getGeneration() < this.index.getGeneration()) {
+                return false;
+            }
+            this.index = index;
+            for (final Stripe stripe : stripes) {
+                synchronized (stripe) {
+                    stripe.entries.clear();
+                }
+            }
+        }
+        return true;
+    }
+
+    private Stripe stripeFor(final Key key) {
+        return stripes[(key.hash ^ (key.hash >>> 16)) & (stripes.length - 1)];
+    }
+
+    private static final class Stripe {
+
+        private final int capacity;
+
+        private final LinkedHashMap<Key, CachedResult> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+        private final FrequencySketch sketch;
+
+        Stripe(final int capacity) {
+            this.capacity = capacity;
+            this.sketch = new FrequencySketch(capacity);
+        }
+
+        void admit(final Key key, final CachedResult entry) {
+            if (capacity == 0) {
+                return;
+            }
+            if (entries.size() >= capacity && !entries.containsKey(key)) {
+                final Iterator<Map.Entry<Key, CachedResult>> iterator =
+                        entries.entrySet().iterator();
+                final Key victim = iterator.next().getKey();
+                if (sketch.frequency(key.hash) <= sketch.frequency(victim.hash)) {
+                    return;
+                }
+                iterator.remove();
+            }
+            entries.put(key, entry);
+        }
+    }
+
+    /**
+     * A count-min sketch of 4 bit counters estimating how often a key has been requested.
+     * All counters are halved once the number of increments reaches ten times the capacity,
+     * so keys which have been popular a long time ago do not stay in the cache forever.
+     */
+    static final class FrequencySketch {
+
+        private static final int[] SEEDS = {0x97CB3127, 0xB7C2A9D1, 0x0C6A5F3B, 0x5B3F29E7};
+
+        private static final long RESET_MASK = 0x7777777777777777L;
+
+        private final long[] table;
+
+        private final int counterMask;
+
+        private final int sampleSize;
+
+        private int additions;
+
+        FrequencySketch(final int capacity) {
+            final int counters = Math.max(64, Integer.highestOneBit(Math.max(1, capacity * 4 - 1)) << 1);
+            this.table = new long[counters >>> 4];
+            this.counterMask = counters - 1;
+            this.sampleSize = Math.max(10, 10 * capacity);
+        }
+
+        int frequency(final int hash) {
+            int frequency = Integer.MAX_VALUE;
+            for (final int seed : SEEDS) {
+                frequency = Math.min(frequency, get(indexOf(hash, seed)));
+            }
+            return frequency;
+        }
+
+        void increment(final int hash) {
+            boolean added = false;
+            for (final int seed : SEEDS) {
+                final int counter = indexOf(hash, seed);
+                if (get(counter) < 15) {
+                    table[counter >>> 4] += 1L << ((counter & 15) << 2);
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) {
+                for (int i = 0; i < table.length; i++) {
+                    table[i] = (table[i] >>> 1) & RESET_MASK;
+                }
+                additions /= 2;
+            }
+        }
+
+        private int get(final int counter) {
+            return (int) ((table[counter >>> 4] >>> ((counter & 15) << 2)) & 15);
+        }
+
+        private int indexOf(final int hash, final int seed) {
+            final int h = (hash + seed) * 0x9E3779B9;
+            return (h ^ (h >>> 15)) & counterMask;
+        }
+    }
+
+    private static final class Key {
+
+        private final int handlerIndex;
+
+        private final ResourceAccessGate.Operation operation;
+
+        private final String userId;
+
+        private final String path;
+
+        private final int hash;
+
+        Key(
+                final int handlerIndex,
+                final ResourceAccessGate.Operation operation,
+                final String userId,
+                final String path) {
+            this.handlerIndex = handlerIndex;
+            this.operation = operation;
+            this.userId = userId;
+            this.path = path;
+            this.hash = 31 * (31 * (31 * handlerIndex + operation.ordinal()) + userId.hashCode()) + path.hashCode();
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return handlerIndex == other.handlerIndex
+                    && operation == other.operation
+                    && userId.equals(other.userId)
+                    && path.equals(other.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class CachedResult {
+
+        private final GateResult result;
+
+        private final long created;
+
+        CachedResult(final GateResult result, final long created) {
+            this.result = result;
+            this.created = created;
+        }
+    }
+}
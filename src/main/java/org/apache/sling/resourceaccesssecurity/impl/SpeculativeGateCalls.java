@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.resourceaccesssecurity.impl;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.apache.sling.resourceaccesssecurity.ResourceAccessGate.GateResult;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The <code>SpeculativeGateCalls</code> hold the results of the gates of one gate
+ * chain, indexed by the position of the gate in the chain. The gate calls are
+ * started concurrently before the chain is evaluated, the chain then takes the
+ * results in ranking order and {@link #cancel() cancels} the calls still running
+ * once it is decided.
+ *
+ * The first call is not started but run by the checking thread when its result is
+ * needed, as the chain has to wait for it anyway. An instance must only be used by
+ * the thread which created it.
+ */
+public class SpeculativeGateCalls {
+
+    private final GateResult[] results;
+
+    private final FutureTask<GateResult>[] calls;
+
+    private boolean pendingCall;
+
+    @SuppressWarnings("unchecked")
+    SpeculativeGateCalls(final int size) {
+        this.results = new GateResult[size];
+        this.calls = (FutureTask<GateResult>[]) new FutureTask<?>[size];
+    }
+
+    /**
+     * Sets the result of a gate which does not need to be called.
+     */
+    void setResult(final int index, @NotNull final GateResult result) {
+        results[index] = result;
+    }
+
+    /**
+     * Adds the call of a gate, all calls but the first one are started with the executor.
+     */
+    void addCall(final int index, @NotNull final Callable<GateResult> call, @NotNull final GateCallExecutor executor) {
+        final FutureTask<GateResult> task = new FutureTask<>(call);
+        calls[index] = task;
+        if (pendingCall) {
+            // if the executor is saturated the call is run once its result is needed
+            executor.tryExecute(task);
+        }
+        pendingCall = true;
+    }
+
+    /**
+     * Returns the result of the gate at the position, waiting for the call to complete.
+     *
+     * @return the result or <code>null</code> if the gate does not match
+     */
+    @Nullable
+    GateResult getResult(final int index) {
+        final FutureTask<GateResult> task = calls[index];
+        if (task == null) {
+            return results[index];
+        }
+        // runs the call if it has not been started yet, does nothing otherwise
+        task.run();
+        try {
+            return task.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            // an interrupted check must not grant access
+            return GateResult.DENIED;
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Cancels the calls whose results are not needed anymore. Calls already running are not
+     * interrupted, as an interrupt might leave the resource resolver in an undefined state.
+     */
+    void cancel() {
+        for (final FutureTask<GateResult> task : calls) {
+            if (task != null) {
+                task.cancel(false);
+            }
+        }
+    }
+}
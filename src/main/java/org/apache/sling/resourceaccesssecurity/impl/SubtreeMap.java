@@ -0,0 +1,186 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.resourceaccesssecurity.impl;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The <code>SubtreeMap</code> maps paths to values which apply to the path and all
+ * resources below it, like the subtrees in which an operation is denied.
+ *
+ * The paths are kept in a bounded map, the least recently used one is evicted once the
+ * map is full. A Bloom filter over the paths answers most lookups for paths outside of
+ * all recorded subtrees without allocating or touching the map: a lookup hashes the
+ * ancestors of the path while scanning it once.
+ *
+ * Instances are not thread safe, they are guarded by the owning {@link ResolverAccessCache}.
+ */
+public class SubtreeMap<V> {
+
+    /** the number of bits of the Bloom filter per path */
+    private static final int BITS_PER_PATH = 16;
+
+    /** the number of hash functions of the Bloom filter */
+    private static final int HASHES = 3;
+
+    private final int maxSize;
+
+    private final Map<String, V> paths;
+
+    private final long[] bloomFilter;
+
+    private final int bloomMask;
+
+    /** the number of paths added to the Bloom filter since it has been built */
+    private int bloomSize;
+
+    public SubtreeMap(final int maxSize) {
+        this.maxSize = maxSize;
+        this.paths = new LinkedHashMap<String, V>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, V> eldest) {
+                return size() > SubtreeMap.this.maxSize;
+            }
+        };
+        final int bits = Math.max(64, Integer.highestOneBit(Math.max(1, maxSize * BITS_PER_PATH - 1)) << 1);
+        this.bloomFilter = new long[bits >>> 6];
+        this.bloomMask = bits - 1;
+    }
+
+    /**
+     * Records the value for the path and the resources below it.
+     */
+    public void put(@NotNull final String path, @NotNull final V value) {
+        if (paths.put(path, value) != null) {
+            return;
+        }
+        if (bloomSize >= 2 * maxSize) {
+            // evicted paths can't be removed from the filter, rebuild it before it fills up
+            rebuildBloomFilter();
+        }
+        addToBloomFilter(path.hashCode());
+        bloomSize++;
+    }
+
+    /**
+     * Returns the value recorded for the path or its closest ancestor.
+     *
+     * @return the value or <code>null</code> if neither the path nor one of its ancestors has been recorded
+     */
+    @Nullable
+    public V get(@NotNull final String path) {
+        if (paths.isEmpty()) {
+            return null;
+        }
+        V value = null;
+        if (path.length() > 1 && path.charAt(0) == '/') {
+            value = lookup("/", "/".hashCode());
+        }
+        // the hash code of each ancestor is the hash code of the path up to the separator
+        int hash = 0;
+        for (int i = 0; i < path.length(); i++) {
+            final char c = path.charAt(i);
+            if (c == '/' && i > 0) {
+                final V ancestorValue = lookup(path.substring(0, i), hash);
+                if (ancestorValue != null) {
+                    value = ancestorValue;
+                }
+            }
+            hash = 31 * hash + c;
+        }
+        final V pathValue = lookup(path, hash);
+        return pathValue != null ? pathValue : value;
+    }
+
+    /**
+     * Checks whether the path or one of its ancestors has been recorded.
+     */
+    public boolean contains(@NotNull final String path) {
+        return get(path) != null;
+    }
+
+    /**
+     * Removes the values recorded for the path, the paths below it and its ancestors,
+     * as all of them apply to resources in the subtree of the path.
+     */
+    public void removeOverlapping(@NotNull final String path) {
+        paths.keySet().removeIf(recorded -> isInSubtree(recorded, path) || isInSubtree(path, recorded));
+    }
+
+    public int size() {
+        return paths.size();
+    }
+
+    /**
+     * Checks whether the path is the root of the subtree or below it.
+     */
+    public static boolean isInSubtree(@NotNull final String path, @NotNull final String root) {
+        if (!path.startsWith(root)) {
+            return false;
+        }
+        return path.length() == root.length() || root.endsWith("/") || path.charAt(root.length()) == '/';
+    }
+
+    private V lookup(final String path, final int hash) {
+        // the substring of an ancestor is only created if the filter can't exclude it
+        return mightContain(hash) ? paths.get(path) : null;
+    }
+
+    private void rebuildBloomFilter() {
+        Arrays.fill(bloomFilter, 0);
+        bloomSize = 0;
+        for (final String path : paths.keySet()) {
+            addToBloomFilter(path.hashCode());
+            bloomSize++;
+        }
+    }
+
+    private void addToBloomFilter(final int hash) {
+        final int h1 = mix(hash);
+        final int h2 = mix(h1) | 1;
+        for (int i = 0; i < HASHES; i++) {
+            final int bit = (h1 + i * h2) & bloomMask;
+            bloomFilter[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    private boolean mightContain(final int hash) {
+        final int h1 = mix(hash);
+        final int h2 = mix(h1) | 1;
+        for (int i = 0; i < HASHES; i++) {
+            final int bit = (h1 + i * h2) & bloomMask;
+            if ((bloomFilter[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int mix(final int hash) {
+        final int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
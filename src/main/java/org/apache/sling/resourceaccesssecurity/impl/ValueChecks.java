@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.resourceaccesssecurity.impl;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.resourceaccesssecurity.ResourceAccessGate;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The <code>ValueChecks</code> keep the state of the value checks of one operation
+ * for one resource: the handlers whose path matches the resource, whether they have
+ * restrictions, whether their gates grant the operation on the resource, the results
+ * of their <code>can*AllValues</code> methods and the decisions per value name.
+ *
+ * Checking several values of the same resource therefore matches the paths and
+ * checks the restrictions only once.
+ */
+public class ValueChecks {
+
+    private final Resource resource;
+
+    private final ResourceAccessGateHandler[] handlers;
+
+    private final boolean[] restricted;
+
+    /** whether the gate grants the operation on the resource itself per handler, computed lazily */
+    private final Boolean[] resourceGranted;
+
+    /** the results of the can*AllValues methods per handler, computed lazily */
+    private final Boolean[] allValues;
+
+    private final Map<String, Boolean> decisions = new ConcurrentHashMap<>();
+
+    /**
+     * @param resource the resource
+     * @param handlers the handlers whose path matches the resource, sorted from highest to lowest ranked
+     * @param restricted whether the handler at the same position has restrictions for the operation
+     */
+    public ValueChecks(
+            @NotNull final Resource resource,
+            @NotNull final ResourceAccessGateHandler[] handlers,
+            @NotNull final boolean[] restricted) {
+        this.resource = resource;
+        this.handlers = handlers;
+        this.restricted = restricted;
+        this.resourceGranted = new Boolean[handlers.length];
+        this.allValues = new Boolean[handlers.length];
+    }
+
+    /**
+     * Creates the checks for another resource at the same path, reusing the matched handlers.
+     */
+    public @NotNull ValueChecks forResource(@NotNull final Resource resource) {
+        return new ValueChecks(resource, handlers, restricted);
+    }
+
+    public @NotNull Resource getResource() {
+        return resource;
+    }
+
+    public int size() {
+        return handlers.length;
+    }
+
+    public @NotNull ResourceAccessGateHandler getHandler(final int index) {
+        return handlers[index];
+    }
+
+    public boolean isRestricted(final int index) {
+        return restricted[index];
+    }
+
+    /**
+     * Returns whether the gate of the handler grants the operation on the resource itself.
+     *
+     * @return the result or <code>null</code> if not known yet
+     */
+    public Boolean isResourceGranted(final int index) {
+        return resourceGranted[index];
+    }
+
+    public void setResourceGranted(final int index, final boolean granted) {
+        resourceGranted[index] = granted;
+    }
+
+    /**
+     * Returns whether the gate of the handler allows the operation for all values of the resource.
+     * This only applies if the gate {@link #isResourceGranted(int) grants the operation} on the resource.
+     */
+    public boolean canDoAllValues(final int index, @NotNull final ResourceAccessGate.Operation operation) {
+        Boolean result = allValues[index];
+        if (result == null) {
+            final ResourceAccessGate gate = handlers[index].getResourceAccessGate();
+            switch (operation) {
+                case READ:
+                    result = gate.canReadAllValues(resource);
+                    break;
+                case CREATE:
+                    result = gate.canCreateAllValues(resource);
+                    break;
+                case UPDATE:
+                    result = gate.canUpdateAllValues(resource);
+                    break;
+                case DELETE:
+                    result = gate.canDeleteAllValues(resource);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unsupported value operation " + operation);
+            }
+            allValues[index] = result;
+        }
+        return result;
+    }
+
+    public Boolean getDecision(@NotNull final String valueName) {
+        return decisions.get(valueName);
+    }
+
+    public void putDecision(@NotNull final String valueName, final boolean decision) {
+        decisions.put(valueName, decision);
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.resourceaccesssecurity.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.resourceaccesssecurity.ResourceAccessGate;
+import org.apache.sling.resourceaccesssecurity.ResourceAccessGate.GateResult;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The <code>ValuePermissions</code> check the operations on single values of a resource. The
+ * matched handlers of a resource are kept in its {@link ValueChecks}.
+ */
+public class ValuePermissions {
+
+    private final ResourceAccessSecurityImpl security;
+
+    ValuePermissions(@NotNull final ResourceAccessSecurityImpl security) {
+        this.security = security;
+    }
+
+    boolean canDoOperation(
+            final GateHandlerIndex snapshot,
+            final ResourceAccessGate.Operation operation,
+            final Resource resource,
+            final String valueName) {
+        if (security.isUnrestricted(snapshot, operation, resource.getPath(), resource.getResourceResolver())) {
+            return true;
+        }
+        final ValueChecks checks = getValueChecks(snapshot, operation, resource);
+        final Boolean cached = checks.getDecision(valueName);
+        if (cached != null) {
+            return cached;
+        }
+        final boolean result = evaluate(snapshot, operation, checks, valueName);
+        checks.putDecision(valueName, result);
+        return result;
+    }
+
+    /**
+     * Returns the value checks for the resource, the matched handlers are reused for all
+     * resources at the same path and the decisions for all checks of the same resource object.
+     */
+    private ValueChecks getValueChecks(
+            final GateHandlerIndex snapshot, final ResourceAccessGate.Operation operation, final Resource resource) {
+        final String path = resource.getPath();
+        final ResolverAccessCache cache = security.getCache(resource.getResourceResolver());
+        ValueChecks checks = cache != null ? cache.getValueChecks(snapshot, operation, path) : null;
+        if (checks != null && checks.getResource() == resource) {
+            return checks;
+        }
+        final long epoch = ResourceAccessSecurityImpl.getEpoch(cache);
+        if (checks != null) {
+            checks = checks.forResource(resource);
+        } else {
+            final List<ResourceAccessGateHandler> matched = new ArrayList<>();
+            final ResourceAccessGateHandler[] candidates = snapshot.getCandidates(operation, path);
+            final long[] automatonMatches = security.matchAll(snapshot, candidates, path);
+            for (final ResourceAccessGateHandler handler : candidates) {
+                if (security.matchesPath(snapshot, handler, path, automatonMatches)) {
+                    matched.add(handler);
+                }
+            }
+            final long[] restrictions = security.getRestrictions(snapshot, operation, resource.getResourceResolver());
+            final boolean[] restricted = new boolean[matched.size()];
+            for (int i = 0; i < restricted.length; i++) {
+                restricted[i] = security.hasRestrictions(
+                        snapshot, matched.get(i), operation, resource.getResourceResolver(), restrictions);
+            }
+            checks = new ValueChecks(resource, matched.toArray(new ResourceAccessGateHandler[0]), restricted);
+        }
+        if (cache != null && path != null) {
+            cache.putValueChecks(snapshot, operation, path, checks, epoch);
+        }
+        return checks;
+    }
+
+    /**
+     * Runs the gate chain for a value of a resource. A gate granting the operation on the
+     * resource and allowing it for all values of the resource is not asked for the single value.
+     */
+    private boolean evaluate(
+            final GateHandlerIndex snapshot,
+            final ResourceAccessGate.Operation operation,
+            final ValueChecks checks,
+            final String valueName) {
+        if (snapshot.isEmpty()) {
+            return false;
+        }
+        GateResult finalGateResult = null;
+        for (int i = 0; i < checks.size(); i++) {
+            final ResourceAccessGateHandler handler = checks.getHandler(i);
+            final GateResult gateResult;
+            if (!checks.isRestricted(i)
+                    || isResourceGranted(snapshot, operation, checks, i) && checks.canDoAllValues(i, operation)) {
+                gateResult = GateResult.GRANTED;
+            } else {
+                final long start = security.startTime();
+                gateResult = security.record(
+                        handler,
+                        operation.ordinal(),
+                        checkValue(handler.getResourceAccessGate(), operation, checks.getResource(), valueName),
+                        start);
+            }
+            if (finalGateResult == null || finalGateResult == GateResult.DENIED) {
+                finalGateResult = gateResult;
+            }
+            if (finalGateResult == GateResult.GRANTED
+                    || gateResult != GateResult.CANT_DECIDE && handler.isFinalOperation(operation)) {
+                break;
+            }
+        }
+        return finalGateResult == GateResult.GRANTED
+                || (checks.size() == 0 && security.isDefaultAllowIfNoGateMatches());
+    }
+
+    /**
+     * Checks whether the gate of a value check grants the operation on the resource itself, as its
+     * <code>can*AllValues</code> result only applies then, like for
+     * {@link ResourceAccessSecurityImpl#getReadableResource}.
+     */
+    private boolean isResourceGranted(
+            final GateHandlerIndex snapshot,
+            final ResourceAccessGate.Operation operation,
+            final ValueChecks checks,
+            final int index) {
+        Boolean granted = checks.isResourceGranted(index);
+        if (granted == null) {
+            final Resource resource = checks.getResource();
+            granted = security.callGate(
+                            snapshot,
+                            checks.getHandler(index),
+                            operation,
+                            resource.getPath(),
+                            resource,
+                            resource.getResourceResolver())
+                    == GateResult.GRANTED;
+            checks.setResourceGranted(index, granted);
+        }
+        return granted;
+    }
+
+    private static GateResult checkValue(
+            final ResourceAccessGate gate,
+            final ResourceAccessGate.Operation operation,
+            final Resource resource,
+            final String valueName) {
+        switch (operation) {
+            case READ:
+                return gate.canReadValue(resource, valueName);
+            case CREATE:
+                return gate.canCreateValue(resource, valueName);
+            case UPDATE:
+                return gate.canUpdateValue(resource, valueName);
+            case DELETE:
+                return gate.canDeleteValue(resource, valueName);
+            default:
+                throw new IllegalArgumentException("Unsupported value operation " + operation);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.resourceaccesssecurity.impl;
+
+import org.apache.sling.resourceaccesssecurity.ResourceAccessGate;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.osgi.framework.ServiceReference;
+
+public class MultiPatternMatcherTest {
+
+    private static final String[] PATTERNS = {
+        "/content",
+        "/content/.*",
+        "^/content(/.*)?$",
+        "/content/tenant[0-9]+(/.*)?",
+        "/content/tenant[0-9]+(/.*)?",
+        "/apps/[^/]+/components/.*",
+        "/content/(a|b|c)/x\\.json",
+        "/content/\\w+/\\d{2,3}",
+        "/content/.{3}",
+        "/content/x??y*?",
+        "/content/[a-c-]+",
+        "(/libs|/apps)/.*",
+        "/content/(\\w+)/\\1",
+        "/content/a*+a",
+        "(?i)/CONTENT/.*",
+        ".*",
+        "/content/\\s+",
+        "/contént/.*"
+    };
+
+    private static final String[] PATHS = {
+        "",
+        "/",
+        "/content",
+        "/content/",
+        "/contentx",
+        "/content/page",
+        "/content/tenant1",
+        "/content/tenant12/page",
+        "/content/tenantx",
+        "/apps/foo/components/bar",
+        "/apps/foo/bar/components/bar",
+        "/content/a/x.json",
+        "/content/d/x.json",
+        "/content/a/xxjson",
+        "/content/abc/12",
+        "/content/abc/1234",
+        "/content/abc",
+        "/content/ab",
+        "/content/a\nc",
+        "/content/😀bc",
+        "/content/xyyy",
+        "/content/y",
+        "/content/a-b",
+        "/libs/x",
+        "/content/foo/foo",
+        "/content/aaa",
+        "/CONTENT/x",
+        "/content/ \t",
+        "/contént/x",
+        "/content/page\n"
+    };
+
+    @Test
+    public void testSameResultAsPattern() {
+        ResourceAccessGateHandler[] handlers = new ResourceAccessGateHandler[PATTERNS.length];
+        for (int i = 0; i < PATTERNS.length; i++) {
+            handlers[i] = handler(PATTERNS[i]);
+        }
+        MultiPatternMatcher matcher = new MultiPatternMatcher(handlers);
+        // run twice to also use the cached transitions
+        for (int run = 0; run < 2; run++) {
+            for (String path : PATHS) {
+                long[] matches = matcher.match(path);
+                for (ResourceAccessGateHandler handler : handlers) {
+                    Assert.assertEquals(
+                            "pattern " + handler.getPathPattern() + " path " + path,
+                            handler.getPathPattern().matcher(path).matches(),
+                            matcher.matches(matches, handler, path));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testStateLimit() {
+        ResourceAccessGateHandler[] handlers = new ResourceAccessGateHandler[PATTERNS.length];
+        for (int i = 0; i < PATTERNS.length; i++) {
+            handlers[i] = handler(PATTERNS[i]);
+        }
+        // once the states are exhausted the paths are matched by the pattern of each handler
+        MultiPatternMatcher matcher = new MultiPatternMatcher(handlers, 8);
+        Assert.assertNull(matcher.match("/content/tenant12/page"));
+        for (String path : PATHS) {
+            long[] matches = matcher.match(path);
+            for (ResourceAccessGateHandler handler : handlers) {
+                Assert.assertEquals(
+                        "pattern " + handler.getPathPattern() + " path " + path,
+                        handler.getPathPattern().matcher(path).matches(),
+                        matcher.matches(matches, handler, path));
+            }
+        }
+    }
+
+    @Test
+    public void testUnsupportedPatterns() {
+        ResourceAccessGateHandler supported = handler("/content/.*");
+        ResourceAccessGateHandler backReference = handler("/content/(\\w+)/\\1");
+        ResourceAccessGateHandler possessive = handler("/content/a*+a");
+        ResourceAccessGateHandler flags = handler("(?i)/content");
+        MultiPatternMatcher matcher =
+                new MultiPatternMatcher(new ResourceAccessGateHandler[] {supported, backReference, possessive, flags});
+        Assert.assertTrue(matcher.isSupported(supported));
+        Assert.assertFalse(matcher.isSupported(backReference));
+        Assert.assertFalse(matcher.isSupported(possessive));
+        Assert.assertFalse(matcher.isSupported(flags));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ResourceAccessGateHandler handler(String path) {
+        ServiceReference<ResourceAccessGate> ref = Mockito.mock(ServiceReference.class);
+        Mockito.when(ref.getProperty(ResourceAccessGate.PATH)).thenReturn(path);
+        return new ResourceAccessGateHandler(ref, Mockito.mock(ResourceAccessGate.class));
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.resourceaccesssecurity.impl;
+
+import java.util.Arrays;
+
+import org.apache.sling.resourceaccesssecurity.ResourceAccessGate;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.osgi.framework.ServiceReference;
+
+public class PathPrefixIndexTest {
+
+    @Test
+    public void testLiteralPrefix() {
+        Assert.assertEquals("/content", PathPrefixIndex.getLiteralPrefix("/content"));
+        Assert.assertEquals("/content/", PathPrefixIndex.getLiteralPrefix("/content/.*"));
+        Assert.assertEquals("/content", PathPrefixIndex.getLiteralPrefix("^/content(/.*)?$"));
+        Assert.assertEquals("/content/a.b", PathPrefixIndex.getLiteralPrefix("/content/a\\.b"));
+        Assert.assertEquals("/content", PathPrefixIndex.getLiteralPrefix("/contents?"));
+        Assert.assertEquals("/content", PathPrefixIndex.getLiteralPrefix("/content+/x"));
+        Assert.assertEquals("/", PathPrefixIndex.getLiteralPrefix("/a{2}"));
+        Assert.assertEquals("/", PathPrefixIndex.getLiteralPrefix("/\\d+"));
+        Assert.assertEquals("/content/", PathPrefixIndex.getLiteralPrefix("/content/(a|b)"));
+        Assert.assertEquals("", PathPrefixIndex.getLiteralPrefix("/content|/apps"));
+        Assert.assertEquals("", PathPrefixIndex.getLiteralPrefix(".*"));
+        Assert.assertEquals("", PathPrefixIndex.getLiteralPrefix("(?i)/content"));
+    }
+
+    @Test
+    public void testCandidates() {
+        ResourceAccessGateHandler all = handler(null);
+        ResourceAccessGateHandler content = handler("/content/.*");
+        ResourceAccessGateHandler tenant = handler("/content/tenant1(/.*)?");
+        ResourceAccessGateHandler apps = handler("/apps");
+        PathPrefixIndex index = new PathPrefixIndex(Arrays.asList(tenant, all, content, apps));
+
+        Assert.assertArrayEquals(
+                new ResourceAccessGateHandler[] {tenant, all, content, apps},
+                index.getCandidates("/content/tenant1/page"));
+        Assert.assertArrayEquals(
+                new ResourceAccessGateHandler[] {tenant, all, content, apps}, index.getCandidates("/content/tenant1"));
+        // only complete segments are indexed, the pattern of tenant still needs to be evaluated
+        Assert.assertArrayEquals(
+                new ResourceAccessGateHandler[] {tenant, all, content, apps},
+                index.getCandidates("/content/tenant2/page"));
+        Assert.assertArrayEquals(new ResourceAccessGateHandler[] {all, apps}, index.getCandidates("/contentx/page"));
+        // "/apps" has no trailing slash, so it is indexed at the root segment
+        Assert.assertArrayEquals(new ResourceAccessGateHandler[] {all, apps}, index.getCandidates("/apps"));
+        Assert.assertArrayEquals(new ResourceAccessGateHandler[] {all, apps}, index.getCandidates("/libs/x"));
+        Assert.assertArrayEquals(
+                new ResourceAccessGateHandler[] {tenant, all, content, apps}, index.getCandidates(null));
+    }
+
+    @Test
+    public void testNoCandidates() {
+        PathPrefixIndex index = new PathPrefixIndex(Arrays.asList(handler("/content/.*"), handler("/apps/.*")));
+        Assert.assertEquals(0, index.getCandidates("/libs/foo").length);
+        Assert.assertEquals(0, index.getCandidates("relative").length);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ResourceAccessGateHandler handler(String path) {
+        ServiceReference<ResourceAccessGate> ref = Mockito.mock(ServiceReference.class);
+        Mockito.when(ref.getProperty(ResourceAccessGate.PATH)).thenReturn(path);
+        return new ResourceAccessGateHandler(ref, Mockito.mock(ResourceAccessGate.class));
+    }
+}
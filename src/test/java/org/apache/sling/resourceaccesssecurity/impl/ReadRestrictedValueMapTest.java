@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.resourceaccesssecurity.impl;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.apache.sling.api.resource.ModifiableValueMap;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.api.wrappers.ModifiableValueMapDecorator;
+import org.apache.sling.api.wrappers.ValueMapDecorator;
+import org.apache.sling.resourceaccesssecurity.ResourceAccessGate;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ReadRestrictedValueMapTest {
+
+    @Test
+    public void testValuesAreCheckedLazily() {
+        Resource resource = mock(Resource.class);
+        ResourceAccessGate gate = mock(ResourceAccessGate.class);
+        when(gate.canReadValue(resource, "title")).thenReturn(ResourceAccessGate.GateResult.GRANTED);
+        when(gate.canReadValue(resource, "secret")).thenReturn(ResourceAccessGate.GateResult.DENIED);
+
+        Map<String, Object> values = new HashMap<>();
+        values.put("title", "Title");
+        values.put("secret", "Secret");
+        values.put("count", "42");
+        ValueMap map = new ReadRestrictedValueMap(values, resource, Collections.singletonList(gate));
+
+        assertEquals("Title", map.get("title"));
+        assertEquals("Title", map.get("title", String.class));
+        assertNull(map.get("secret"));
+        assertEquals("none", map.get("secret", "none"));
+        assertFalse(map.containsKey("secret"));
+        verify(gate, times(1)).canReadValue(resource, "title");
+        verify(gate, times(1)).canReadValue(resource, "secret");
+        verify(gate, never()).canReadValue(resource, "count");
+
+        assertEquals(new HashSet<>(Arrays.asList("title")), map.keySet());
+        assertEquals(1, map.size());
+        verify(gate, times(1)).canReadValue(resource, "count");
+    }
+
+    @Test
+    public void testAnyGateGrants() {
+        Resource resource = mock(Resource.class);
+        ResourceAccessGate denying = mock(ResourceAccessGate.class);
+        ResourceAccessGate granting = mock(ResourceAccessGate.class);
+        when(denying.canReadValue(resource, "title")).thenReturn(ResourceAccessGate.GateResult.DENIED);
+        when(granting.canReadValue(resource, "title")).thenReturn(ResourceAccessGate.GateResult.GRANTED);
+
+        ValueMap map = new ReadRestrictedValueMap(
+                Collections.singletonMap("title", "Title"), resource, Arrays.asList(denying, granting));
+        assertTrue(map.containsKey("title"));
+    }
+
+    @Test
+    public void testWrapperFiltersAdaptedMaps() {
+        Resource resource = mock(Resource.class);
+        ResourceAccessGate gate = mock(ResourceAccessGate.class);
+        when(gate.canReadValue(resource, "title")).thenReturn(ResourceAccessGate.GateResult.GRANTED);
+        when(gate.canReadValue(resource, "secret")).thenReturn(ResourceAccessGate.GateResult.DENIED);
+
+        Map<String, Object> values = new HashMap<>();
+        values.put("title", "Title");
+        values.put("secret", "Secret");
+        when(resource.adaptTo(ValueMap.class)).thenReturn(new ValueMapDecorator(values));
+        when(resource.adaptTo(ModifiableValueMap.class)).thenReturn(new ModifiableValueMapDecorator(values));
+
+        AccessGateResourceWrapper wrapper =
+                new AccessGateResourceWrapper(resource, Collections.singletonList(gate), true);
+        assertNull(wrapper.adaptTo(ValueMap.class).get("secret"));
+        assertEquals("Title", wrapper.adaptTo(ValueMap.class).get("title"));
+
+        ModifiableValueMap modifiable = wrapper.adaptTo(ModifiableValueMap.class);
+        assertNull(modifiable.get("secret", String.class));
+        modifiable.put("title", "Changed");
+        assertEquals("Changed", values.get("title"));
+    }
+
+    @Test
+    public void testReadOnlyMapsAreReused() {
+        Resource resource = mock(Resource.class);
+        ValueMap valueMap = new ValueMapDecorator(new HashMap<>(Collections.singletonMap("title", "Title")));
+        when(resource.adaptTo(ValueMap.class)).thenReturn(valueMap);
+        when(resource.adaptTo(Map.class)).thenReturn(valueMap);
+
+        AccessGateResourceWrapper wrapper = new AccessGateResourceWrapper(resource, null, false);
+        ValueMap readOnly = wrapper.adaptTo(ValueMap.class);
+        assertSame(readOnly, wrapper.adaptTo(ValueMap.class));
+        assertSame(readOnly, wrapper.adaptTo(Map.class));
+        verify(resource, times(1)).adaptTo(ValueMap.class);
+        verify(resource, times(1)).adaptTo(Map.class);
+
+        readOnly.put("title", "Changed");
+        assertEquals("Title", valueMap.get("title"));
+
+        // a resource wrapped twice shares the read-only view of the inner wrapper
+        AccessGateResourceWrapper outer = new AccessGateResourceWrapper(wrapper, null, false);
+        assertSame(readOnly, outer.adaptTo(ValueMap.class));
+    }
+
+    @Test
+    public void testImmutableMapsAreNotWrapped() {
+        Resource resource = mock(Resource.class);
+        Map<String, Object> map =
+                Collections.unmodifiableMap(new HashMap<>(Collections.singletonMap("title", "Title")));
+        when(resource.adaptTo(ValueMap.class)).thenReturn(ValueMap.EMPTY);
+        when(resource.adaptTo(Map.class)).thenReturn(map);
+
+        AccessGateResourceWrapper wrapper = new AccessGateResourceWrapper(resource, null, false);
+        assertSame(ValueMap.EMPTY, wrapper.adaptTo(ValueMap.class));
+        assertSame(map, wrapper.adaptTo(Map.class));
+        assertSame(map, wrapper.adaptTo(Map.class));
+        verify(resource, times(1)).adaptTo(Map.class);
+    }
+
+    @Test
+    public void testRestrictedValueMapIsReused() {
+        Resource resource = mock(Resource.class);
+        ResourceAccessGate gate = mock(ResourceAccessGate.class);
+        when(gate.canReadValue(resource, "title")).thenReturn(ResourceAccessGate.GateResult.GRANTED);
+        when(resource.getValueMap()).thenReturn(new ValueMapDecorator(Collections.singletonMap("title", "Title")));
+
+        AccessGateResourceWrapper wrapper =
+                new AccessGateResourceWrapper(resource, Collections.singletonList(gate), false);
+        assertEquals("Title", wrapper.getValueMap().get("title"));
+        assertEquals("Title", wrapper.getValueMap().get("title"));
+        verify(resource, times(1)).getValueMap();
+        verify(gate, times(1)).canReadValue(resource, "title");
+    }
+}
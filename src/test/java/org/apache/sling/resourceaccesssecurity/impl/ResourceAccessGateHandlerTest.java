@@ -18,6 +18,8 @@
  */
 package org.apache.sling.resourceaccesssecurity.impl;
 
+import java.util.Arrays;
+
 import org.apache.sling.resourceaccesssecurity.ResourceAccessGate;
 import org.apache.sling.resourceaccesssecurity.ResourceAccessGate.Operation;
 import org.junit.Assert;
@@ -79,4 +81,56 @@ public class ResourceAccessGateHandlerTest {
         Assert.assertTrue(gateHandler.matches("/content5", Operation.UPDATE));
         Assert.assertTrue(gateHandler.matches(null, Operation.UPDATE));
     }
+
+    @Test
+    public void testPathMatching() {
+        Mockito.when(gateRef.getProperty(ResourceAccessGate.PATH)).thenReturn("/content/.*");
+        ResourceAccessGateHandler gateHandler = new ResourceAccessGateHandler(gateRef, gate);
+        Assert.assertTrue(gateHandler.matchesPath("/content/"));
+        Assert.assertTrue(gateHandler.matchesPath("/content/a/b"));
+        Assert.assertFalse(gateHandler.matchesPath("/content"));
+        Assert.assertFalse(gateHandler.matchesPath("/content/a\nb"));
+
+        Mockito.when(gateRef.getProperty(ResourceAccessGate.PATH)).thenReturn("^/content\\.json$");
+        gateHandler = new ResourceAccessGateHandler(gateRef, gate);
+        Assert.assertTrue(gateHandler.matchesPath("/content.json"));
+        Assert.assertFalse(gateHandler.matchesPath("/contentxjson"));
+
+        Mockito.when(gateRef.getProperty(ResourceAccessGate.PATH)).thenReturn("/content(/.*)?");
+        gateHandler = new ResourceAccessGateHandler(gateRef, gate);
+        Assert.assertTrue(gateHandler.matchesPath("/content"));
+        Assert.assertTrue(gateHandler.matchesPath("/content/a"));
+        Assert.assertFalse(gateHandler.matchesPath("/contentx"));
+        Assert.assertTrue(gateHandler.matchesPath(null));
+    }
+
+    @Test
+    public void testMightMatchBelow() {
+        Mockito.when(gateRef.getProperty(ResourceAccessGate.PATH)).thenReturn("/content/shop(/.*)?");
+        ResourceAccessGateHandler gateHandler = new ResourceAccessGateHandler(gateRef, gate);
+        Assert.assertTrue(gateHandler.mightMatchBelow("/content"));
+        Assert.assertTrue(gateHandler.mightMatchBelow("/content/shop"));
+        Assert.assertTrue(gateHandler.mightMatchBelow("/"));
+        Assert.assertFalse(gateHandler.mightMatchBelow("/content/private"));
+
+        Mockito.when(gateRef.getProperty(ResourceAccessGate.PATH)).thenReturn("/content/shop");
+        gateHandler = new ResourceAccessGateHandler(gateRef, gate);
+        Assert.assertTrue(gateHandler.mightMatchBelow("/content"));
+        Assert.assertFalse(gateHandler.mightMatchBelow("/content/shop"));
+    }
+
+    @Test
+    public void testIndexOfHandlerInOlderIndex() {
+        @SuppressWarnings("unchecked")
+        ServiceReference<ResourceAccessGate> otherRef = Mockito.mock(ServiceReference.class);
+        ResourceAccessGateHandler first = new ResourceAccessGateHandler(gateRef, gate);
+        ResourceAccessGateHandler second = new ResourceAccessGateHandler(otherRef, gate);
+        GateHandlerIndex older = new GateHandlerIndex(Arrays.asList(first, second), true);
+        // the newer index ranks the handlers the other way round
+        GateHandlerIndex newer = new GateHandlerIndex(Arrays.asList(second, first), true);
+        Assert.assertEquals(0, newer.indexOf(second));
+        Assert.assertEquals(1, newer.indexOf(first));
+        Assert.assertEquals(0, older.indexOf(first));
+        Assert.assertEquals(1, older.indexOf(second));
+    }
 }
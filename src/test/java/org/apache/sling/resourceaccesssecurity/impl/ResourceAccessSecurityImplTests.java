@@ -18,24 +18,63 @@
  */
 package org.apache.sling.resourceaccesssecurity.impl;
 
+import javax.management.DynamicMBean;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 import org.apache.sling.api.resource.ModifiableValueMap;
 import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.api.resource.ValueMap;
 import org.apache.sling.api.security.ResourceAccessSecurity;
+import org.apache.sling.api.wrappers.ValueMapDecorator;
+import org.apache.sling.resourceaccesssecurity.AllowingResourceAccessGate;
+import org.apache.sling.resourceaccesssecurity.AsyncResourceAccessGate;
+import org.apache.sling.resourceaccesssecurity.AsyncResourceAccessSecurity;
+import org.apache.sling.resourceaccesssecurity.BatchResourceAccessGate;
+import org.apache.sling.resourceaccesssecurity.ExtendedResourceAccessSecurity;
+import org.apache.sling.resourceaccesssecurity.MultiOperationResourceAccessGate;
+import org.apache.sling.resourceaccesssecurity.ParsedQueryResourceAccessGate;
+import org.apache.sling.resourceaccesssecurity.QueryCodec;
 import org.apache.sling.resourceaccesssecurity.ResourceAccessGate;
+import org.apache.sling.resourceaccesssecurity.ResourceAccessPolicyEvents;
+import org.apache.sling.resourceaccesssecurity.ScopedGateResult;
+import org.apache.sling.resourceaccesssecurity.SubtreeResourceAccessGate;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
+import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceReference;
-import org.osgi.service.component.ComponentContext;
+import org.osgi.service.event.Event;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -55,15 +94,12 @@ public class ResourceAccessSecurityImplTests {
         ServiceReference<ResourceAccessGate> serviceReference2 = mock(ServiceReference.class);
         ResourceAccessGate resourceAccessGate2 = mock(ResourceAccessGate.class);
 
-        ComponentContext context = mock(ComponentContext.class);
-        when(context.locateService(Mockito.anyString(), Mockito.eq(serviceReference)))
-                .thenReturn(resourceAccessGate);
-        when(context.locateService(Mockito.anyString(), Mockito.eq(serviceReference2)))
-                .thenReturn(resourceAccessGate2);
-
         try {
-            resourceAccessSecurity =
-                    new ProviderResourceAccessSecurityImpl(Arrays.asList(serviceReference, serviceReference2), context);
+            ProviderResourceAccessSecurityImpl security =
+                    new ProviderResourceAccessSecurityImpl(config(), mock(BundleContext.class));
+            security.bindResourceAccessGate(serviceReference, resourceAccessGate);
+            security.bindResourceAccessGate(serviceReference2, resourceAccessGate2);
+            resourceAccessSecurity = security;
         } catch (Exception e) {
             fail("Should not throw exception: " + e.getMessage());
         }
@@ -179,6 +215,27 @@ public class ResourceAccessSecurityImplTests {
         verify(valueMap, times(0)).put("modified", "value");
     }
 
+    @Test
+    public void testUpdateCheckedOnlyForModifiableAdaptation() {
+        initMocks("/content", new String[] {"read", "update"});
+
+        Resource resource = mock(Resource.class);
+        when(resource.getPath()).thenReturn("/content");
+        when(resource.adaptTo(String.class)).thenReturn("adapted");
+        ModifiableValueMap valueMap = mock(ModifiableValueMap.class);
+        when(resource.adaptTo(ModifiableValueMap.class)).thenReturn(valueMap);
+
+        when(resourceAccessGate.canRead(resource)).thenReturn(ResourceAccessGate.GateResult.GRANTED);
+        when(resourceAccessGate.canUpdate(resource)).thenReturn(ResourceAccessGate.GateResult.GRANTED);
+        Resource readableResource = resourceAccessSecurity.getReadableResource(resource);
+        assertEquals("adapted", readableResource.adaptTo(String.class));
+        verify(resourceAccessGate, never()).canUpdate(resource);
+
+        assertNotNull(readableResource.adaptTo(ModifiableValueMap.class));
+        assertNotNull(readableResource.adaptTo(ModifiableValueMap.class));
+        verify(resourceAccessGate, times(1)).canUpdate(resource);
+    }
+
     @Test
     public void testCanOrderChildren() {
         initMocks("/content", new String[] {"order-children"});
@@ -199,7 +256,1192 @@ public class ResourceAccessSecurityImplTests {
         assertFalse(resourceAccessSecurity.canOrderChildren(resource));
     }
 
+    @Test
+    public void testAllowedOperations() {
+        ResourceAccessSecurityImpl.Config config = config();
+        when(config.decision_cache_size()).thenReturn(10);
+        initMocks("/content", new String[] {"update", "delete", "order-children"}, config);
+
+        ResourceResolver resolver = mock(ResourceResolver.class);
+        when(resolver.getPropertyMap()).thenReturn(new HashMap<>());
+        Resource resource = resource("/content");
+        when(resource.getResourceResolver()).thenReturn(resolver);
+        when(resourceAccessGate.canUpdate(resource)).thenReturn(ResourceAccessGate.GateResult.GRANTED);
+        when(resourceAccessGate.canOrderChildren(resource)).thenReturn(ResourceAccessGate.GateResult.DENIED);
+
+        // deletes are not restricted and no gate handles execute
+        ExtendedResourceAccessSecurity security = (ExtendedResourceAccessSecurity) resourceAccessSecurity;
+        EnumSet<ResourceAccessGate.Operation> expected =
+                EnumSet.of(ResourceAccessGate.Operation.UPDATE, ResourceAccessGate.Operation.DELETE);
+        assertEquals(expected, security.getAllowedOperations(resource));
+
+        // the decisions are cached like the ones of the single checks
+        assertEquals(expected, security.getAllowedOperations(resource));
+        assertTrue(security.canUpdate(resource));
+        assertFalse(security.canOrderChildren(resource));
+        verify(resourceAccessGate, times(1)).canUpdate(resource);
+        verify(resourceAccessGate, times(1)).canOrderChildren(resource);
+    }
+
+    @Test
+    public void testAllowedOperationsMatchSingleChecks() {
+        ProviderResourceAccessSecurityImpl security =
+                new ProviderResourceAccessSecurityImpl(config(), mock(BundleContext.class));
+        Resource resource = resource("/content/page");
+
+        ServiceReference<ResourceAccessGate> highReference = reference("/content/.*", new String[] {"execute"});
+        ServiceReference<ResourceAccessGate> lowReference = reference("/content(/.*)?", null);
+        rank(highReference, lowReference);
+        ResourceAccessGate high = restrictingGate();
+        when(high.canUpdate(resource)).thenReturn(ResourceAccessGate.GateResult.CANT_DECIDE);
+        when(high.canDelete(resource)).thenReturn(ResourceAccessGate.GateResult.DENIED);
+        when(high.canExecute(resource)).thenReturn(ResourceAccessGate.GateResult.DENIED);
+        when(high.canOrderChildren(resource)).thenReturn(ResourceAccessGate.GateResult.GRANTED);
+        ResourceAccessGate low = restrictingGate();
+        when(low.canUpdate(resource)).thenReturn(ResourceAccessGate.GateResult.GRANTED);
+        when(low.canDelete(resource)).thenReturn(ResourceAccessGate.GateResult.GRANTED);
+        when(low.canExecute(resource)).thenReturn(ResourceAccessGate.GateResult.GRANTED);
+        security.bindResourceAccessGate(lowReference, low);
+        security.bindResourceAccessGate(highReference, high);
+
+        EnumSet<ResourceAccessGate.Operation> allowed = security.getAllowedOperations(resource);
+        assertEquals(
+                EnumSet.of(ResourceAccessGate.Operation.DELETE, ResourceAccessGate.Operation.ORDER_CHILDREN), allowed);
+        assertEquals(allowed.contains(ResourceAccessGate.Operation.UPDATE), security.canUpdate(resource));
+        assertEquals(allowed.contains(ResourceAccessGate.Operation.DELETE), security.canDelete(resource));
+        assertEquals(allowed.contains(ResourceAccessGate.Operation.EXECUTE), security.canExecute(resource));
+        assertEquals(
+                allowed.contains(ResourceAccessGate.Operation.ORDER_CHILDREN), security.canOrderChildren(resource));
+        // the decided chains don't call the lower ranked gate
+        verify(low, times(0)).canOrderChildren(resource);
+        verify(low, times(0)).canExecute(resource);
+    }
+
+    @Test
+    public void testMultiOperationGate() {
+        ProviderResourceAccessSecurityImpl security =
+                new ProviderResourceAccessSecurityImpl(config(), mock(BundleContext.class));
+        Resource resource = resource("/content");
+        MultiOperationResourceAccessGate gate =
+                multiOperationGate(operation -> operation == ResourceAccessGate.Operation.DELETE
+                        ? ResourceAccessGate.GateResult.DENIED
+                        : ResourceAccessGate.GateResult.GRANTED);
+        security.bindResourceAccessGate(reference("/content", null), gate);
+
+        assertEquals(
+                EnumSet.of(
+                        ResourceAccessGate.Operation.UPDATE,
+                        ResourceAccessGate.Operation.EXECUTE,
+                        ResourceAccessGate.Operation.ORDER_CHILDREN),
+                security.getAllowedOperations(resource));
+        verify(gate, times(1)).checkOperations(Mockito.eq(resource), Mockito.any());
+        verify(gate, never()).canUpdate(resource);
+        verify(gate, never()).canDelete(resource);
+    }
+
+    @Test
+    public void testUpdatePrefetchedWithRead() {
+        ProviderResourceAccessSecurityImpl security =
+                new ProviderResourceAccessSecurityImpl(config(), mock(BundleContext.class));
+        Resource resource = resource("/content");
+        when(resource.adaptTo(ModifiableValueMap.class)).thenReturn(mock(ModifiableValueMap.class));
+        MultiOperationResourceAccessGate gate =
+                multiOperationGate(operation -> operation == ResourceAccessGate.Operation.READ
+                        ? ResourceAccessGate.GateResult.GRANTED
+                        : ResourceAccessGate.GateResult.DENIED);
+        when(gate.canReadAllValues(resource)).thenReturn(true);
+        security.bindResourceAccessGate(reference("/content", null), gate);
+
+        Resource readableResource = security.getReadableResource(resource);
+        assertNotNull(readableResource);
+        assertNull(readableResource.adaptTo(ModifiableValueMap.class));
+        verify(gate, times(1)).checkOperations(Mockito.eq(resource), Mockito.any());
+        verify(gate, never()).canRead(resource);
+        verify(gate, never()).canUpdate(resource);
+    }
+
+    @Test
+    public void testDecisionCachePerResolver() throws Exception {
+        ResourceAccessSecurityImpl.Config config = config();
+        when(config.decision_cache_size()).thenReturn(10);
+        initMocks("/content", new String[] {"read", "update"}, config);
+
+        final Map<String, Object> propertyMap = new HashMap<>();
+        ResourceResolver resolver = mock(ResourceResolver.class);
+        when(resolver.getPropertyMap()).thenReturn(propertyMap);
+
+        Resource resource = mock(Resource.class);
+        when(resource.getPath()).thenReturn("/content");
+        when(resource.getResourceResolver()).thenReturn(resolver);
+        when(resourceAccessGate.canRead(resource)).thenReturn(ResourceAccessGate.GateResult.GRANTED);
+        when(resourceAccessGate.canUpdate(resource)).thenReturn(ResourceAccessGate.GateResult.GRANTED);
+
+        assertTrue(resourceAccessSecurity.canUpdate(resource));
+        assertTrue(resourceAccessSecurity.canUpdate(resource));
+        assertNotNull(resourceAccessSecurity.getReadableResource(resource));
+        assertNotNull(resourceAccessSecurity.getReadableResource(resource));
+        verify(resourceAccessGate, times(1)).canUpdate(resource);
+        verify(resourceAccessGate, times(1)).canRead(resource);
+
+        // closing the resolver discards the cached decisions
+        for (Object value : propertyMap.values()) {
+            if (value instanceof java.io.Closeable) {
+                ((java.io.Closeable) value).close();
+            }
+        }
+        propertyMap.clear();
+        assertTrue(resourceAccessSecurity.canUpdate(resource));
+        verify(resourceAccessGate, times(2)).canUpdate(resource);
+    }
+
+    @Test
+    public void testDecisionCacheDisabled() {
+        initMocks("/content", new String[] {"update"});
+
+        final Map<String, Object> propertyMap = new HashMap<>();
+        ResourceResolver resolver = mock(ResourceResolver.class);
+        when(resolver.getPropertyMap()).thenReturn(propertyMap);
+
+        Resource resource = mock(Resource.class);
+        when(resource.getPath()).thenReturn("/content");
+        when(resource.getResourceResolver()).thenReturn(resolver);
+        when(resourceAccessGate.canUpdate(resource)).thenReturn(ResourceAccessGate.GateResult.GRANTED);
+
+        assertTrue(resourceAccessSecurity.canUpdate(resource));
+        assertTrue(resourceAccessSecurity.canUpdate(resource));
+        verify(resourceAccessGate, times(2)).canUpdate(resource);
+        // only the restrictions are kept for the resolver
+        verify(resourceAccessGate, times(1)).hasUpdateRestrictions(resolver);
+        assertEquals(1, propertyMap.size());
+        assertTrue(propertyMap.values().iterator().next() instanceof ResolverRestrictions);
+    }
+
+    @Test
+    public void testNoUpdateRestrictionsForPath() {
+        initMocks("/content", new String[] {"read", "update"});
+        when(resourceAccessGate.hasUpdateRestrictions(Mockito.any())).thenReturn(false);
+        ServiceReference<ResourceAccessGate> updateReference = mock(ServiceReference.class);
+        when(updateReference.getProperty(ResourceAccessGate.PATH)).thenReturn("/apps");
+        when(updateReference.getProperty(ResourceAccessGate.OPERATIONS)).thenReturn(new String[] {"update"});
+        ResourceAccessGate updateGate = mock(ResourceAccessGate.class);
+        when(updateGate.hasUpdateRestrictions(Mockito.any())).thenReturn(true);
+        ((ProviderResourceAccessSecurityImpl) resourceAccessSecurity)
+                .bindResourceAccessGate(updateReference, updateGate);
+
+        Resource resource = resource("/content");
+        when(resourceAccessGate.canRead(resource)).thenReturn(ResourceAccessGate.GateResult.GRANTED);
+        when(resourceAccessGate.canReadAllValues(resource)).thenReturn(true);
+
+        // the gate restricting updates does not match the resource, so it is not wrapped
+        assertEquals(resource, resourceAccessSecurity.getReadableResource(resource));
+        verify(updateGate, never()).canUpdate(resource);
+    }
+
+    @Test
+    public void testLaterUpdateCheckUsesSameGates() {
+        initMocks("/content", new String[] {"read", "update"});
+
+        Resource resource = resource("/content");
+        when(resource.adaptTo(ModifiableValueMap.class)).thenReturn(mock(ModifiableValueMap.class));
+        when(resourceAccessGate.canRead(resource)).thenReturn(ResourceAccessGate.GateResult.GRANTED);
+        when(resourceAccessGate.canUpdate(resource)).thenReturn(ResourceAccessGate.GateResult.GRANTED);
+        Resource readableResource = resourceAccessSecurity.getReadableResource(resource);
+
+        // the update permission is checked with the gates the resource has been read with
+        ((ProviderResourceAccessSecurityImpl) resourceAccessSecurity).unbindResourceAccessGate(serviceReference);
+        assertFalse(resourceAccessSecurity.canUpdate(resource));
+        assertNotNull(readableResource.adaptTo(ModifiableValueMap.class));
+    }
+
+    @Test
+    public void testRestrictionsCheckedOncePerResolver() {
+        initMocks("/content", new String[] {"read", "update"});
+        when(resourceAccessGate.hasUpdateRestrictions(Mockito.any())).thenReturn(false);
+
+        ResourceResolver resolver = mock(ResourceResolver.class);
+        when(resolver.getPropertyMap()).thenReturn(new HashMap<>());
+
+        Resource resource = mock(Resource.class);
+        when(resource.getPath()).thenReturn("/content");
+        when(resource.getResourceResolver()).thenReturn(resolver);
+        when(resourceAccessGate.canRead(resource)).thenReturn(ResourceAccessGate.GateResult.GRANTED);
+        when(resourceAccessGate.canReadAllValues(resource)).thenReturn(true);
+
+        // no gate restricts updates, so the resource is returned without a wrapper
+        assertEquals(resource, resourceAccessSecurity.getReadableResource(resource));
+        assertEquals(resource, resourceAccessSecurity.getReadableResource(resource));
+        assertTrue(resourceAccessSecurity.canUpdate(resource));
+        verify(resourceAccessGate, times(1)).hasReadRestrictions(resolver);
+        verify(resourceAccessGate, times(1)).hasUpdateRestrictions(resolver);
+        verify(resourceAccessGate, never()).canUpdate(resource);
+        verify(resourceAccessGate, times(2)).canRead(resource);
+    }
+
+    @Test
+    public void testBatchGate() {
+        ServiceReference<ResourceAccessGate> batchReference = mock(ServiceReference.class);
+        BatchResourceAccessGate batchGate = mock(BatchResourceAccessGate.class);
+        when(batchGate.hasReadRestrictions(Mockito.any())).thenReturn(true);
+        when(batchReference.getProperty(ResourceAccessGate.PATH)).thenReturn("/content/.*");
+        when(batchReference.getProperty(ResourceAccessGate.OPERATIONS)).thenReturn(new String[] {"read"});
+        ProviderResourceAccessSecurityImpl security =
+                new ProviderResourceAccessSecurityImpl(config(), mock(BundleContext.class));
+        security.bindResourceAccessGate(batchReference, batchGate);
+
+        Resource granted = resource("/content/a");
+        Resource denied = resource("/content/b");
+        Resource notMatching = resource("/apps/c");
+        Resource grantedToo = resource("/content/d");
+        when(batchGate.canRead(Arrays.asList(granted, denied, grantedToo)))
+                .thenReturn(new ResourceAccessGate.GateResult[] {
+                    ResourceAccessGate.GateResult.GRANTED,
+                    ResourceAccessGate.GateResult.DENIED,
+                    ResourceAccessGate.GateResult.GRANTED
+                });
+        when(batchGate.canReadAllValues(Mockito.any())).thenReturn(true);
+
+        assertEquals(
+                Arrays.asList("/content/a", "/content/d"),
+                paths(security.getReadableResources(Arrays.asList(granted, denied, notMatching, grantedToo))));
+        verify(batchGate, never()).canRead(Mockito.any(Resource.class));
+
+        List<Resource> readable = new ArrayList<>();
+        security.getReadableResources(
+                        Arrays.asList(granted, denied, notMatching, grantedToo).iterator())
+                .forEachRemaining(readable::add);
+        assertEquals(Arrays.asList("/content/a", "/content/d"), paths(readable));
+    }
+
+    @Test
+    public void testBatchWithSingleResourceGate() {
+        initMocks("/content/.*", new String[] {"read"});
+        Resource granted = resource("/content/a");
+        Resource denied = resource("/content/b");
+        when(resourceAccessGate.canRead(granted)).thenReturn(ResourceAccessGate.GateResult.GRANTED);
+        when(resourceAccessGate.canRead(denied)).thenReturn(ResourceAccessGate.GateResult.DENIED);
+
+        List<Resource> readable = ((ExtendedResourceAccessSecurity) resourceAccessSecurity)
+                .getReadableResources(Arrays.asList(granted, denied));
+        assertEquals(1, readable.size());
+        assertEquals("/content/a", readable.get(0).getPath());
+    }
+
+    private static List<String> paths(List<Resource> resources) {
+        List<String> paths = new ArrayList<>();
+        for (Resource resource : resources) {
+            paths.add(resource.getPath());
+        }
+        return paths;
+    }
+
+    private static Resource resource(String path) {
+        Resource resource = mock(Resource.class);
+        when(resource.getPath()).thenReturn(path);
+        return resource;
+    }
+
+    private static Resource resource(String path, String userId) {
+        ResourceResolver resolver = mock(ResourceResolver.class);
+        when(resolver.getUserID()).thenReturn(userId);
+        Resource resource = resource(path);
+        when(resource.getResourceResolver()).thenReturn(resolver);
+        return resource;
+    }
+
+    @Test
+    public void testCanReadValue() {
+        // the value checks are kept in the cache of the resolver, which exists if any of its caches is enabled
+        ResourceAccessSecurityImpl.Config config = config();
+        when(config.subtree_results_size()).thenReturn(100);
+        initMocks("/content", new String[] {"read"}, config);
+
+        ResourceResolver resolver = mock(ResourceResolver.class);
+        when(resolver.getPropertyMap()).thenReturn(new HashMap<>());
+        Resource resource = resource("/content");
+        when(resource.getResourceResolver()).thenReturn(resolver);
+        when(resourceAccessGate.canRead(resource)).thenReturn(ResourceAccessGate.GateResult.GRANTED);
+        when(resourceAccessGate.canReadValue(resource, "title")).thenReturn(ResourceAccessGate.GateResult.GRANTED);
+        when(resourceAccessGate.canReadValue(resource, "secret")).thenReturn(ResourceAccessGate.GateResult.DENIED);
+
+        assertTrue(resourceAccessSecurity.canReadValue(resource, "title"));
+        assertFalse(resourceAccessSecurity.canReadValue(resource, "secret"));
+        assertTrue(resourceAccessSecurity.canReadValue(resource, "title"));
+        verify(resourceAccessGate, times(1)).canReadValue(resource, "title");
+        verify(resourceAccessGate, times(1)).canReadAllValues(resource);
+        verify(resourceAccessGate, times(1)).hasReadRestrictions(resolver);
+
+        // decisions are not shared with other resource objects at the same path
+        Resource other = resource("/content");
+        when(other.getResourceResolver()).thenReturn(resolver);
+        assertFalse(resourceAccessSecurity.canReadValue(other, "title"));
+        verify(resourceAccessGate, times(1)).hasReadRestrictions(resolver);
+
+        // values of resources not matching any gate can't be read
+        assertFalse(resourceAccessSecurity.canReadValue(resource("/apps"), "title"));
+    }
+
+    @Test
+    public void testCanReadAllValues() {
+        initMocks("/content", new String[] {"read"});
+
+        Resource resource = resource("/content");
+        when(resourceAccessGate.canRead(resource)).thenReturn(ResourceAccessGate.GateResult.GRANTED);
+        when(resourceAccessGate.canReadAllValues(resource)).thenReturn(true);
+        assertTrue(resourceAccessSecurity.canReadValue(resource, "title"));
+        verify(resourceAccessGate, never()).canReadValue(resource, "title");
+    }
+
+    @Test
+    public void testAllValuesOfDeniedResource() {
+        ProviderResourceAccessSecurityImpl security =
+                new ProviderResourceAccessSecurityImpl(config(), mock(BundleContext.class));
+        ServiceReference<ResourceAccessGate> reference = mock(ServiceReference.class);
+        when(reference.getProperty(ResourceAccessGate.PATH)).thenReturn("/content");
+        // the gate denies reading the resource, but keeps the default of allowing all values
+        security.bindResourceAccessGate(reference, new AllowingResourceAccessGate() {
+            @Override
+            public GateResult canRead(final Resource resource) {
+                return GateResult.DENIED;
+            }
+
+            @Override
+            public boolean hasReadRestrictions(final ResourceResolver resourceResolver) {
+                return true;
+            }
+        });
+
+        Resource resource = resource("/content");
+        assertNull(security.getReadableResource(resource));
+        assertFalse(security.canReadValue(resource, "title"));
+    }
+
+    @Test
+    public void testCanSetValue() {
+        initMocks("/content", new String[] {"create", "update"});
+
+        Resource resource = resource("/content");
+        when(resource.getValueMap()).thenReturn(new ValueMapDecorator(Collections.singletonMap("title", "Title")));
+        when(resourceAccessGate.canUpdateValue(resource, "title")).thenReturn(ResourceAccessGate.GateResult.GRANTED);
+        when(resourceAccessGate.canCreateValue(resource, "title")).thenReturn(ResourceAccessGate.GateResult.DENIED);
+        when(resourceAccessGate.canCreateValue(resource, "description"))
+                .thenReturn(ResourceAccessGate.GateResult.DENIED);
+
+        assertTrue(resourceAccessSecurity.canSetValue(resource, "title"));
+        assertFalse(resourceAccessSecurity.canSetValue(resource, "description"));
+    }
+
+    @Test
+    public void testCanDeleteValue() {
+        initMocks("/content", new String[] {"delete"});
+        when(resourceAccessGate.hasDeleteRestrictions(Mockito.any())).thenReturn(true);
+
+        Resource resource = resource("/content");
+        when(resourceAccessGate.canDeleteValue(resource, "title")).thenReturn(ResourceAccessGate.GateResult.GRANTED);
+        assertTrue(resourceAccessSecurity.canDeleteValue(resource, "title"));
+        assertFalse(resourceAccessSecurity.canDeleteValue(resource, "description"));
+    }
+
+    @Test
+    public void testDynamicGates() {
+        ResourceAccessSecurityImpl.Config config = config();
+        when(config.decision_cache_size()).thenReturn(10);
+        ProviderResourceAccessSecurityImpl security =
+                new ProviderResourceAccessSecurityImpl(config, mock(BundleContext.class));
+
+        ResourceResolver resolver = mock(ResourceResolver.class);
+        when(resolver.getPropertyMap()).thenReturn(new HashMap<>());
+        Resource resource = resource("/content");
+        when(resource.getResourceResolver()).thenReturn(resolver);
+
+        ServiceReference<ResourceAccessGate> denyingReference = mock(ServiceReference.class);
+        when(denyingReference.getProperty(ResourceAccessGate.PATH)).thenReturn("/content");
+        ResourceAccessGate denying = mock(ResourceAccessGate.class);
+        when(denying.hasUpdateRestrictions(Mockito.any())).thenReturn(true);
+        when(denying.canUpdate(resource)).thenReturn(ResourceAccessGate.GateResult.DENIED);
+        security.bindResourceAccessGate(denyingReference, denying);
+        assertFalse(security.canUpdate(resource));
+
+        ServiceReference<ResourceAccessGate> grantingReference = mock(ServiceReference.class);
+        when(grantingReference.getProperty(ResourceAccessGate.PATH)).thenReturn("/content");
+        ResourceAccessGate granting = mock(ResourceAccessGate.class);
+        when(granting.hasUpdateRestrictions(Mockito.any())).thenReturn(true);
+        when(granting.canUpdate(resource)).thenReturn(ResourceAccessGate.GateResult.GRANTED);
+        security.bindResourceAccessGate(grantingReference, granting);
+        // the cached decision of the previous gates is not used anymore
+        assertTrue(security.canUpdate(resource));
+
+        security.unbindResourceAccessGate(grantingReference);
+        assertFalse(security.canUpdate(resource));
+
+        security.unbindResourceAccessGate(denyingReference);
+        assertFalse(security.canUpdate(resource));
+    }
+
+    @Test
+    public void testGateMetrics() throws Exception {
+        ResourceAccessSecurityImpl.Config config = config();
+        when(config.gate_metrics()).thenReturn(true);
+        BundleContext bundleContext = mock(BundleContext.class);
+        ProviderResourceAccessSecurityImpl security = new ProviderResourceAccessSecurityImpl(config, bundleContext);
+        ArgumentCaptor<DynamicMBean> mbean = ArgumentCaptor.forClass(DynamicMBean.class);
+        verify(bundleContext).registerService(Mockito.eq(DynamicMBean.class), mbean.capture(), Mockito.any());
+
+        ServiceReference<ResourceAccessGate> reference = mock(ServiceReference.class);
+        when(reference.getProperty(ResourceAccessGate.PATH)).thenReturn("/content");
+        ResourceAccessGate gate = mock(ResourceAccessGate.class);
+        when(gate.hasUpdateRestrictions(Mockito.any())).thenReturn(true);
+        security.bindResourceAccessGate(reference, gate);
+
+        Resource resource = resource("/content");
+        when(gate.canUpdate(resource)).thenReturn(ResourceAccessGate.GateResult.GRANTED);
+        assertTrue(security.canUpdate(resource));
+        assertTrue(security.canUpdate(resource));
+        assertFalse(security.canUpdate(resource("/apps")));
+
+        TabularData gateStatistics = (TabularData) mbean.getValue().getAttribute("GateStatistics");
+        assertEquals(1, gateStatistics.size());
+        CompositeData row = (CompositeData) gateStatistics.values().iterator().next();
+        assertEquals("update", row.get("operation"));
+        assertEquals(2L, row.get("calls"));
+        assertEquals(2L, row.get("granted"));
+        assertEquals(0L, row.get("denied"));
+
+        TabularData pathStatistics = (TabularData) mbean.getValue().getAttribute("PathMatchStatistics");
+        CompositeData pathRow =
+                (CompositeData) pathStatistics.values().iterator().next();
+        assertEquals(2L, pathRow.get("matches"));
+
+        mbean.getValue().invoke("resetStatistics", new Object[0], new String[0]);
+        assertTrue(((TabularData) mbean.getValue().getAttribute("GateStatistics")).isEmpty());
+    }
+
+    @Test
+    public void testRecentDecisions() throws Exception {
+        ResourceAccessSecurityImpl.Config config = config();
+        when(config.decision_sample_rate()).thenReturn(1);
+        when(config.decision_buffer_size()).thenReturn(2);
+        BundleContext bundleContext = mock(BundleContext.class);
+        ProviderResourceAccessSecurityImpl security = new ProviderResourceAccessSecurityImpl(config, bundleContext);
+        ArgumentCaptor<DynamicMBean> mbean = ArgumentCaptor.forClass(DynamicMBean.class);
+        verify(bundleContext).registerService(Mockito.eq(DynamicMBean.class), mbean.capture(), Mockito.any());
+
+        ResourceAccessGate gate = mock(ResourceAccessGate.class);
+        when(gate.hasReadRestrictions(Mockito.any())).thenReturn(true);
+        when(gate.hasUpdateRestrictions(Mockito.any())).thenReturn(true);
+        when(gate.canRead(Mockito.any())).thenReturn(ResourceAccessGate.GateResult.CANT_DECIDE);
+        when(gate.canUpdate(Mockito.any())).thenReturn(ResourceAccessGate.GateResult.DENIED);
+        security.bindResourceAccessGate(reference("/content(/.*)?", null), gate);
+
+        assertNull(security.getReadableResource(resource("/content/a", "editor")));
+        assertFalse(security.canUpdate(resource("/content/b", "editor")));
+        assertFalse(security.canUpdate(resource("/content/c", "author")));
+
+        // the buffer keeps the latest decisions, the oldest first
+        TabularData decisions = (TabularData) mbean.getValue().getAttribute("RecentDecisions");
+        assertEquals(2, decisions.size());
+        List<CompositeData> rows = new ArrayList<>((Collection<CompositeData>) decisions.values());
+        rows.sort((a, b) -> Long.compare((Long) a.get("sequence"), (Long) b.get("sequence")));
+        assertEquals("/content/b", rows.get(0).get("path"));
+        assertEquals("/content/c", rows.get(1).get("path"));
+        assertEquals("update", rows.get(1).get("operation"));
+        assertEquals("author", rows.get(1).get("userId"));
+        assertEquals(false, rows.get(1).get("granted"));
+        assertTrue(((String) rows.get(1).get("gates")).endsWith("=DENIED"));
+
+        mbean.getValue().invoke("resetStatistics", new Object[0], new String[0]);
+        assertTrue(((TabularData) mbean.getValue().getAttribute("RecentDecisions")).isEmpty());
+    }
+
+    @Test
+    public void testUnrestrictedResolver() {
+        initMocks(null, new String[] {"read", "update"});
+        when(resourceAccessGate.hasReadRestrictions(Mockito.any())).thenReturn(false);
+        when(resourceAccessGate.hasUpdateRestrictions(Mockito.any())).thenReturn(false);
+
+        ResourceResolver resolver = mock(ResourceResolver.class);
+        when(resolver.getPropertyMap()).thenReturn(new HashMap<>());
+
+        Resource resource = mock(Resource.class);
+        when(resource.getPath()).thenReturn("/content");
+        when(resource.getResourceResolver()).thenReturn(resolver);
+        when(resourceAccessGate.canReadAllValues(resource)).thenReturn(true);
+
+        // the gate matches any path and restricts nothing, so it is only asked whether all values are readable
+        assertEquals(resource, resourceAccessSecurity.getReadableResource(resource));
+        assertEquals(
+                Collections.singletonList(resource),
+                ((ExtendedResourceAccessSecurity) resourceAccessSecurity)
+                        .getReadableResources(Collections.singletonList(resource)));
+        assertTrue(resourceAccessSecurity.canUpdate(resource));
+        assertTrue(resourceAccessSecurity.canReadValue(resource, "prop"));
+        verify(resourceAccessGate, never()).canRead(resource);
+        verify(resourceAccessGate, never()).canUpdate(resource);
+        verify(resourceAccessGate, never()).canReadValue(resource, "prop");
+    }
+
+    @Test
+    public void testUnrestrictedResolverFiltersValues() {
+        initMocks(null, new String[] {"read", "update"});
+        when(resourceAccessGate.hasReadRestrictions(Mockito.any())).thenReturn(false);
+        when(resourceAccessGate.hasUpdateRestrictions(Mockito.any())).thenReturn(false);
+        when(resourceAccessGate.canReadAllValues(Mockito.any())).thenReturn(false);
+
+        ResourceResolver resolver = mock(ResourceResolver.class);
+        when(resolver.getPropertyMap()).thenReturn(new HashMap<>());
+
+        Resource resource = mock(Resource.class);
+        when(resource.getPath()).thenReturn("/content");
+        when(resource.getResourceResolver()).thenReturn(resolver);
+
+        // the values are filtered by the gate as if it had been called for the resource
+        assertTrue(resourceAccessSecurity.getReadableResource(resource) instanceof AccessGateResourceWrapper);
+        assertTrue(
+                ((ExtendedResourceAccessSecurity) resourceAccessSecurity)
+                                .getReadableResources(Collections.singletonList(resource))
+                                .get(0)
+                        instanceof AccessGateResourceWrapper);
+        assertTrue(
+                ((AsyncResourceAccessSecurity) resourceAccessSecurity)
+                                .getReadableResourceAsync(resource)
+                                .toCompletableFuture()
+                                .join()
+                        instanceof AccessGateResourceWrapper);
+        verify(resourceAccessGate, never()).canRead(resource);
+    }
+
+    @Test
+    public void testMultiPatternMatching() {
+        ResourceAccessSecurityImpl.Config config = config();
+        when(config.multi_pattern_matching()).thenReturn(true);
+        initMocks("/content(/.*)?", new String[] {"update"}, config);
+
+        Resource resource = mock(Resource.class);
+        when(resource.getPath()).thenReturn("/content/page");
+        when(resourceAccessGate.canUpdate(resource)).thenReturn(ResourceAccessGate.GateResult.GRANTED);
+        assertTrue(resourceAccessSecurity.canUpdate(resource));
+
+        Resource otherResource = mock(Resource.class);
+        when(otherResource.getPath()).thenReturn("/contentx");
+        when(resourceAccessGate.canUpdate(otherResource)).thenReturn(ResourceAccessGate.GateResult.GRANTED);
+        assertFalse(resourceAccessSecurity.canUpdate(otherResource));
+    }
+
+    @Test
+    public void testParallelEvaluation() {
+        ResourceAccessSecurityImpl.Config config = config();
+        when(config.parallel_evaluation_threads()).thenReturn(2);
+        ProviderResourceAccessSecurityImpl security =
+                new ProviderResourceAccessSecurityImpl(config, mock(BundleContext.class));
+        Resource resource = resource("/content");
+
+        // each gate only decides once both gates are called
+        CountDownLatch called = new CountDownLatch(2);
+        ServiceReference<ResourceAccessGate> highReference = reference("/content", null);
+        ServiceReference<ResourceAccessGate> lowReference = reference("/content", null);
+        rank(highReference, lowReference);
+        ResourceAccessGate high = gate(() ->
+                awaitAll(called) ? ResourceAccessGate.GateResult.DENIED : ResourceAccessGate.GateResult.CANT_DECIDE);
+        ResourceAccessGate low = gate(
+                () -> awaitAll(called) ? ResourceAccessGate.GateResult.GRANTED : ResourceAccessGate.GateResult.DENIED);
+        security.bindResourceAccessGate(lowReference, low);
+        security.bindResourceAccessGate(highReference, high);
+        try {
+            assertTrue(security.canUpdate(resource));
+        } finally {
+            security.deactivate();
+        }
+    }
+
+    @Test
+    public void testParallelEvaluationDoesNotInterruptUnneededCalls() throws Exception {
+        ResourceAccessSecurityImpl.Config config = config();
+        when(config.parallel_evaluation_threads()).thenReturn(2);
+        ProviderResourceAccessSecurityImpl security =
+                new ProviderResourceAccessSecurityImpl(config, mock(BundleContext.class));
+        Resource resource = resource("/content");
+
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch completed = new CountDownLatch(1);
+        AtomicBoolean interrupted = new AtomicBoolean();
+        ServiceReference<ResourceAccessGate> highReference = reference("/content", new String[] {"update"});
+        ServiceReference<ResourceAccessGate> lowReference = reference("/content", null);
+        rank(highReference, lowReference);
+        // the higher ranked gate takes the final decision once the lower ranked one is running
+        ResourceAccessGate high = gate(() -> {
+            started.await();
+            return ResourceAccessGate.GateResult.DENIED;
+        });
+        ResourceAccessGate low = gate(() -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                interrupted.set(true);
+            }
+            completed.countDown();
+            return ResourceAccessGate.GateResult.GRANTED;
+        });
+        security.bindResourceAccessGate(lowReference, low);
+        security.bindResourceAccessGate(highReference, high);
+        try {
+            // the check does not wait for the running call, which is left to complete
+            assertFalse(security.canUpdate(resource));
+            release.countDown();
+            assertTrue(completed.await(10, TimeUnit.SECONDS));
+            assertFalse(interrupted.get());
+        } finally {
+            security.deactivate();
+        }
+    }
+
+    @Test
+    public void testAsyncChecks() throws Exception {
+        ProviderResourceAccessSecurityImpl security =
+                new ProviderResourceAccessSecurityImpl(config(), mock(BundleContext.class));
+        Resource resource = resource("/content");
+
+        ServiceReference<ResourceAccessGate> asyncReference = reference("/content", null);
+        ServiceReference<ResourceAccessGate> syncReference = reference("/content", null);
+        rank(asyncReference, syncReference);
+        AsyncResourceAccessGate asyncGate = mock(AsyncResourceAccessGate.class);
+        when(asyncGate.hasReadRestrictions(Mockito.any())).thenReturn(true);
+        when(asyncGate.hasUpdateRestrictions(Mockito.any())).thenReturn(true);
+        CompletableFuture<ResourceAccessGate.GateResult> lookup = new CompletableFuture<>();
+        when(asyncGate.canUpdateAsync(resource)).thenReturn(lookup);
+        when(asyncGate.canReadAsync(resource))
+                .thenReturn(CompletableFuture.completedFuture(ResourceAccessGate.GateResult.GRANTED));
+        when(asyncGate.canReadAllValues(resource)).thenReturn(true);
+        ResourceAccessGate syncGate = gate(() -> ResourceAccessGate.GateResult.GRANTED);
+        security.bindResourceAccessGate(syncReference, syncGate);
+        security.bindResourceAccessGate(asyncReference, asyncGate);
+
+        CompletableFuture<Boolean> canUpdate = security.canUpdateAsync(resource).toCompletableFuture();
+        assertFalse(canUpdate.isDone());
+        verify(syncGate, never()).canUpdate(resource);
+        // the synchronous gate is called once the higher ranked gate did not grant access
+        lookup.complete(ResourceAccessGate.GateResult.DENIED);
+        assertTrue(canUpdate.get(10, TimeUnit.SECONDS));
+        verify(asyncGate, never()).canUpdate(resource);
+
+        assertNotNull(security.getReadableResourceAsync(resource)
+                .toCompletableFuture()
+                .get(10, TimeUnit.SECONDS));
+        verify(asyncGate, never()).canRead(resource);
+    }
+
+    @Test
+    public void testAsyncChecksWithSaturatedExecutor() throws Exception {
+        ResourceAccessSecurityImpl.Config config = config();
+        when(config.async_gate_threads()).thenReturn(1);
+        ProviderResourceAccessSecurityImpl security =
+                new ProviderResourceAccessSecurityImpl(config, mock(BundleContext.class));
+        Thread caller = Thread.currentThread();
+        AtomicInteger callerCalls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        security.bindResourceAccessGate(reference("/content/.*", null), gate(() -> {
+            if (Thread.currentThread() == caller) {
+                callerCalls.incrementAndGet();
+            } else {
+                release.await(10, TimeUnit.SECONDS);
+            }
+            return ResourceAccessGate.GateResult.GRANTED;
+        }));
+        try {
+            // more checks than the single pool thread and its queue can take, the checks which could
+            // not be queued fail instead of calling the gate in the calling thread
+            List<CompletableFuture<Boolean>> checks = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                checks.add(security.canUpdateAsync(resource("/content/" + i)).toCompletableFuture());
+            }
+            release.countDown();
+            for (CompletableFuture<Boolean> check : checks) {
+                try {
+                    assertTrue(check.get(10, TimeUnit.SECONDS));
+                } catch (ExecutionException e) {
+                    assertTrue(e.getCause() instanceof RejectedExecutionException);
+                }
+            }
+            assertEquals(0, callerCalls.get());
+        } finally {
+            security.deactivate();
+        }
+    }
+
+    @Test
+    public void testAsyncCheckFailure() throws Exception {
+        ProviderResourceAccessSecurityImpl security =
+                new ProviderResourceAccessSecurityImpl(config(), mock(BundleContext.class));
+        Resource resource = resource("/content");
+        AsyncResourceAccessGate asyncGate = mock(AsyncResourceAccessGate.class);
+        when(asyncGate.hasDeleteRestrictions(Mockito.any())).thenReturn(true);
+        CompletableFuture<ResourceAccessGate.GateResult> lookup = new CompletableFuture<>();
+        lookup.completeExceptionally(new IllegalStateException("lookup failed"));
+        when(asyncGate.canDeleteAsync(resource)).thenReturn(lookup);
+        security.bindResourceAccessGate(reference("/content", null), asyncGate);
+
+        try {
+            security.canDeleteAsync(resource).toCompletableFuture().get(10, TimeUnit.SECONDS);
+            fail("the check must fail if the gate fails");
+        } catch (ExecutionException e) {
+            assertEquals("lookup failed", e.getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void testQueryTransformationCache() throws Exception {
+        ResourceAccessSecurityImpl.Config config = config();
+        when(config.query_cache_size()).thenReturn(10);
+        ProviderResourceAccessSecurityImpl security =
+                new ProviderResourceAccessSecurityImpl(config, mock(BundleContext.class));
+        ResourceResolver alice = mock(ResourceResolver.class);
+        when(alice.getUserID()).thenReturn("alice");
+        ResourceResolver bob = mock(ResourceResolver.class);
+        when(bob.getUserID()).thenReturn("bob");
+
+        ServiceReference<ResourceAccessGate> cacheableReference = reference(".*", null);
+        ServiceReference<ResourceAccessGate> uncacheableReference = reference(".*", null);
+        when(uncacheableReference.getProperty(ResourceAccessGate.CACHEABLE_QUERY_TRANSFORMATION))
+                .thenReturn(false);
+        rank(cacheableReference, uncacheableReference);
+        ResourceAccessGate cacheable = mock(ResourceAccessGate.class);
+        when(cacheable.hasReadRestrictions(Mockito.any())).thenReturn(true);
+        when(cacheable.transformQuery(Mockito.anyString(), Mockito.any(), Mockito.any()))
+                .thenAnswer(invocation -> invocation.getArgument(0) + " and a");
+        ResourceAccessGate uncacheable = mock(ResourceAccessGate.class);
+        when(uncacheable.hasReadRestrictions(Mockito.any())).thenReturn(true);
+        when(uncacheable.transformQuery(Mockito.anyString(), Mockito.any(), Mockito.any()))
+                .thenAnswer(invocation -> invocation.getArgument(0) + " and b");
+        security.bindResourceAccessGate(cacheableReference, cacheable);
+        security.bindResourceAccessGate(uncacheableReference, uncacheable);
+
+        assertEquals("q and a and b", security.transformQuery("q", "sql", alice));
+        assertEquals("q and a and b", security.transformQuery("q", "sql", alice));
+        verify(cacheable, times(1)).transformQuery("q", "sql", alice);
+        verify(uncacheable, times(2)).transformQuery("q and a", "sql", alice);
+
+        // the transformation is cached per user
+        assertEquals("q and a and b", security.transformQuery("q", "sql", bob));
+        verify(cacheable, times(1)).transformQuery("q", "sql", bob);
+
+        // the cache is cleared once the gates change
+        security.updatedResourceAccessGate(cacheableReference, cacheable);
+        assertEquals("q and a and b", security.transformQuery("q", "sql", alice));
+        verify(cacheable, times(2)).transformQuery("q", "sql", alice);
+    }
+
+    @Test
+    public void testTransformQueryOnlyCallsRestrictingReadGates() throws Exception {
+        ProviderResourceAccessSecurityImpl security =
+                new ProviderResourceAccessSecurityImpl(config(), mock(BundleContext.class));
+        ResourceResolver resolver = mock(ResourceResolver.class);
+
+        ResourceAccessGate restricting = mock(ResourceAccessGate.class);
+        when(restricting.hasReadRestrictions(resolver)).thenReturn(true);
+        when(restricting.transformQuery("q", "sql", resolver)).thenReturn("q and a");
+        ResourceAccessGate unrestricting = mock(ResourceAccessGate.class);
+        ServiceReference<ResourceAccessGate> updateReference = reference(".*", null);
+        when(updateReference.getProperty(ResourceAccessGate.OPERATIONS)).thenReturn(new String[] {"update"});
+        ResourceAccessGate updateGate = mock(ResourceAccessGate.class);
+        when(updateGate.hasReadRestrictions(resolver)).thenReturn(true);
+        security.bindResourceAccessGate(reference(".*", null), restricting);
+        security.bindResourceAccessGate(reference(".*", null), unrestricting);
+        security.bindResourceAccessGate(updateReference, updateGate);
+
+        assertEquals("q and a", security.transformQuery("q", "sql", resolver));
+        verify(unrestricting, never()).transformQuery(Mockito.any(), Mockito.any(), Mockito.any());
+        verify(updateGate, never()).transformQuery(Mockito.any(), Mockito.any(), Mockito.any());
+    }
+
+    @Test
+    public void testTransformParsedQuery() throws Exception {
+        ProviderResourceAccessSecurityImpl security =
+                new ProviderResourceAccessSecurityImpl(config(), mock(BundleContext.class));
+        ResourceResolver resolver = mock(ResourceResolver.class);
+
+        // the parsed query is a list of conditions
+        QueryCodec codec = mock(QueryCodec.class);
+        when(codec.parse(Mockito.anyString(), Mockito.eq("sql")))
+                .thenAnswer(invocation -> new ArrayList<>(Arrays.asList(invocation.getArgument(0, String.class))));
+        when(codec.serialize(Mockito.any(), Mockito.eq("sql")))
+                .thenAnswer(invocation -> String.join(" and ", invocation.getArgument(0, List.class)));
+        ServiceReference<QueryCodec> codecReference = mock(ServiceReference.class);
+        when(codecReference.getProperty(QueryCodec.LANGUAGE)).thenReturn("sql");
+        security.bindQueryCodec(codecReference, codec);
+
+        ServiceReference<ResourceAccessGate> firstReference = reference(".*", null);
+        ServiceReference<ResourceAccessGate> secondReference = reference(".*", null);
+        rank(firstReference, secondReference);
+        security.bindResourceAccessGate(firstReference, parsedQueryGate("a", resolver));
+        security.bindResourceAccessGate(secondReference, parsedQueryGate("b", resolver));
+
+        assertEquals("q and a and b", security.transformQuery("q", "sql", resolver));
+        verify(codec, times(1)).parse(Mockito.anyString(), Mockito.any());
+        verify(codec, times(1)).serialize(Mockito.any(), Mockito.any());
+
+        // without a codec for the language the queries are passed as strings
+        assertEquals("q and a and b", security.transformQuery("q", "xpath", resolver));
+    }
+
+    /**
+     * Returns a gate adding a condition to parsed queries and to query strings.
+     */
+    @SuppressWarnings("unchecked")
+    private static ResourceAccessGate parsedQueryGate(String condition, ResourceResolver resolver) throws Exception {
+        ParsedQueryResourceAccessGate gate = mock(ParsedQueryResourceAccessGate.class);
+        when(gate.hasReadRestrictions(resolver)).thenReturn(true);
+        when(gate.transformParsedQuery(Mockito.any(), Mockito.any(), Mockito.any()))
+                .thenAnswer(invocation -> {
+                    invocation.getArgument(0, List.class).add(condition);
+                    return invocation.getArgument(0);
+                });
+        when(gate.transformQuery(Mockito.anyString(), Mockito.any(), Mockito.any()))
+                .thenAnswer(invocation -> invocation.getArgument(0) + " and " + condition);
+        return gate;
+    }
+
+    @Test
+    public void testDeniedSubtrees() {
+        ResourceAccessSecurityImpl.Config config = config();
+        when(config.denied_subtrees_size()).thenReturn(10);
+        ProviderResourceAccessSecurityImpl security =
+                new ProviderResourceAccessSecurityImpl(config, mock(BundleContext.class));
+        ResourceResolver resolver = mock(ResourceResolver.class);
+        when(resolver.getPropertyMap()).thenReturn(new HashMap<>());
+
+        ServiceReference<ResourceAccessGate> subtreeReference = reference("/content/private(/.*)?", null);
+        when(subtreeReference.getProperty(ResourceAccessGate.SUBTREEOPERATIONS)).thenReturn(new String[] {"read"});
+        ResourceAccessGate subtreeGate = mock(ResourceAccessGate.class);
+        when(subtreeGate.hasReadRestrictions(resolver)).thenReturn(true);
+        when(subtreeGate.canRead(Mockito.any())).thenReturn(ResourceAccessGate.GateResult.DENIED);
+        ResourceAccessGate nodeGate = mock(ResourceAccessGate.class);
+        when(nodeGate.hasReadRestrictions(resolver)).thenReturn(true);
+        when(nodeGate.canRead(Mockito.any())).thenReturn(ResourceAccessGate.GateResult.DENIED);
+        security.bindResourceAccessGate(subtreeReference, subtreeGate);
+        security.bindResourceAccessGate(reference("/content/shop(/.*)?", null), nodeGate);
+
+        Resource privateRoot = resource("/content/private");
+        when(privateRoot.getResourceResolver()).thenReturn(resolver);
+        assertNull(security.getReadableResource(privateRoot));
+        verify(subtreeGate, times(1)).canRead(privateRoot);
+
+        // the resources below are denied without calling the gate
+        Resource privateChild = resource("/content/private/a/b");
+        when(privateChild.getResourceResolver()).thenReturn(resolver);
+        assertNull(security.getReadableResource(privateChild));
+        assertTrue(security.getReadableResources(Arrays.asList(privateChild)).isEmpty());
+        verify(subtreeGate, never()).canRead(privateChild);
+
+        // a denial by a gate without subtree semantics is decided per resource
+        Resource shop = resource("/content/shop");
+        when(shop.getResourceResolver()).thenReturn(resolver);
+        Resource shopChild = resource("/content/shop/a");
+        when(shopChild.getResourceResolver()).thenReturn(resolver);
+        assertNull(security.getReadableResource(shop));
+        assertNull(security.getReadableResource(shopChild));
+        verify(nodeGate, times(1)).canRead(shopChild);
+    }
+
+    @Test
+    public void testNonFinalSubtreeDenial() {
+        ResourceAccessSecurityImpl.Config config = config();
+        when(config.denied_subtrees_size()).thenReturn(10);
+        when(config.subtree_results_size()).thenReturn(10);
+        ProviderResourceAccessSecurityImpl security =
+                new ProviderResourceAccessSecurityImpl(config, mock(BundleContext.class));
+        ResourceResolver resolver = mock(ResourceResolver.class);
+        when(resolver.getPropertyMap()).thenReturn(new HashMap<>());
+
+        ServiceReference<ResourceAccessGate> subtreeReference = reference("/content/private(/.*)?", null);
+        when(subtreeReference.getProperty(ResourceAccessGate.SUBTREEOPERATIONS)).thenReturn(new String[] {"read"});
+        ServiceReference<ResourceAccessGate> publicReference = reference("/content/private/public(/.*)?", null);
+        rank(subtreeReference, publicReference);
+        ResourceAccessGate subtreeGate = mock(ResourceAccessGate.class);
+        when(subtreeGate.hasReadRestrictions(resolver)).thenReturn(true);
+        when(subtreeGate.canRead(Mockito.any())).thenReturn(ResourceAccessGate.GateResult.DENIED);
+        ResourceAccessGate publicGate = mock(ResourceAccessGate.class);
+        when(publicGate.hasReadRestrictions(resolver)).thenReturn(true);
+        when(publicGate.canRead(Mockito.any())).thenReturn(ResourceAccessGate.GateResult.GRANTED);
+        security.bindResourceAccessGate(publicReference, publicGate);
+        security.bindResourceAccessGate(subtreeReference, subtreeGate);
+
+        Resource privateRoot = resource("/content/private");
+        when(privateRoot.getResourceResolver()).thenReturn(resolver);
+        assertNull(security.getReadableResource(privateRoot));
+
+        // the lower ranked gate still grants a child, only the subtree gate isn't asked again
+        Resource publicChild = resource("/content/private/public/page");
+        when(publicChild.getResourceResolver()).thenReturn(resolver);
+        assertNotNull(security.getReadableResource(publicChild));
+        verify(publicGate, times(1)).canRead(publicChild);
+        verify(subtreeGate, never()).canRead(publicChild);
+
+        // once the subtree gate is final its denial holds for the whole subtree
+        when(subtreeReference.getProperty(ResourceAccessGate.FINALOPERATIONS)).thenReturn(new String[] {"read"});
+        security.updatedResourceAccessGate(subtreeReference, subtreeGate);
+        assertNull(security.getReadableResource(privateRoot));
+        Resource otherChild = resource("/content/private/public/other");
+        when(otherChild.getResourceResolver()).thenReturn(resolver);
+        assertNull(security.getReadableResource(otherChild));
+        verify(publicGate, never()).canRead(otherChild);
+        verify(subtreeGate, never()).canRead(otherChild);
+    }
+
+    @Test
+    public void testSubtreeResults() {
+        ResourceAccessSecurityImpl.Config config = config();
+        when(config.subtree_results_size()).thenReturn(10);
+        ProviderResourceAccessSecurityImpl security =
+                new ProviderResourceAccessSecurityImpl(config, mock(BundleContext.class));
+        ResourceResolver resolver = mock(ResourceResolver.class);
+        when(resolver.getPropertyMap()).thenReturn(new HashMap<>());
+
+        SubtreeResourceAccessGate gate = mock(SubtreeResourceAccessGate.class);
+        when(gate.hasReadRestrictions(resolver)).thenReturn(true);
+        when(gate.hasUpdateRestrictions(resolver)).thenReturn(true);
+        when(gate.check(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any()))
+                .thenReturn(ScopedGateResult.forResource(ResourceAccessGate.GateResult.DENIED));
+        when(gate.check(
+                        Mockito.eq(ResourceAccessGate.Operation.READ),
+                        Mockito.eq("/content/site"),
+                        Mockito.any(),
+                        Mockito.any()))
+                .thenReturn(ScopedGateResult.forSubtree(ResourceAccessGate.GateResult.GRANTED));
+        security.bindResourceAccessGate(reference("/content(/.*)?", null), gate);
+
+        Resource site = resource("/content/site");
+        when(site.getResourceResolver()).thenReturn(resolver);
+        Resource child = resource("/content/site/a");
+        when(child.getResourceResolver()).thenReturn(resolver);
+        Resource grandChild = resource("/content/site/a/b");
+        when(grandChild.getResourceResolver()).thenReturn(resolver);
+        Resource other = resource("/content/other");
+        when(other.getResourceResolver()).thenReturn(resolver);
+
+        assertNotNull(security.getReadableResource(site));
+        // the resources below reuse the subtree result without calling the gate
+        assertNotNull(security.getReadableResource(child));
+        assertEquals(1, security.getReadableResources(Arrays.asList(grandChild)).size());
+        verify(gate, times(1))
+                .check(Mockito.eq(ResourceAccessGate.Operation.READ), Mockito.any(), Mockito.any(), Mockito.any());
+        verify(gate, never()).canRead(Mockito.any());
+
+        // results for a single resource and for other operations are not reused
+        assertNull(security.getReadableResource(other));
+        assertNull(security.getReadableResource(other));
+        verify(gate, times(2)).check(ResourceAccessGate.Operation.READ, "/content/other", other, resolver);
+        assertFalse(security.canUpdate(child));
+        verify(gate).check(ResourceAccessGate.Operation.UPDATE, "/content/site/a", child, resolver);
+    }
+
+    @Test
+    public void testSharedDecisionCache() {
+        ResourceAccessSecurityImpl.Config config = config();
+        when(config.shared_cache_size()).thenReturn(100);
+        ProviderResourceAccessSecurityImpl security =
+                new ProviderResourceAccessSecurityImpl(config, mock(BundleContext.class));
+
+        ServiceReference<ResourceAccessGate> sharedReference = reference("/content(/.*)?", null);
+        when(sharedReference.getProperty(ResourceAccessGate.SHAREDOPERATIONS)).thenReturn(new String[] {"read"});
+        ResourceAccessGate gate = mock(ResourceAccessGate.class);
+        when(gate.hasReadRestrictions(Mockito.any())).thenReturn(true);
+        when(gate.hasUpdateRestrictions(Mockito.any())).thenReturn(true);
+        when(gate.canRead(Mockito.any())).thenReturn(ResourceAccessGate.GateResult.GRANTED);
+        when(gate.canUpdate(Mockito.any())).thenReturn(ResourceAccessGate.GateResult.GRANTED);
+        security.bindResourceAccessGate(sharedReference, gate);
+
+        // short-lived resolvers of the same user share the results
+        for (int i = 0; i < 3; i++) {
+            Resource resource = resource("/content/page", "anonymous");
+            assertNotNull(security.getReadableResource(resource));
+            assertTrue(security.canUpdate(resource));
+        }
+        verify(gate, times(1)).canRead(Mockito.any());
+        // operations which are not declared shared are checked per resolver
+        verify(gate, times(3)).canUpdate(Mockito.any());
+
+        assertNotNull(security.getReadableResource(resource("/content/page", "admin")));
+        verify(gate, times(2)).canRead(Mockito.any());
+    }
+
+    @Test
+    public void testPolicyChangeEvent() {
+        ResourceAccessSecurityImpl.Config config = config();
+        when(config.decision_cache_size()).thenReturn(100);
+        when(config.shared_cache_size()).thenReturn(100);
+        ProviderResourceAccessSecurityImpl security =
+                new ProviderResourceAccessSecurityImpl(config, mock(BundleContext.class));
+
+        ServiceReference<ResourceAccessGate> sharedReference = reference("/content(/.*)?", null);
+        when(sharedReference.getProperty(ResourceAccessGate.SHAREDOPERATIONS)).thenReturn(new String[] {"read"});
+        ResourceAccessGate gate = mock(ResourceAccessGate.class);
+        when(gate.hasReadRestrictions(Mockito.any())).thenReturn(true);
+        when(gate.canRead(Mockito.any())).thenReturn(ResourceAccessGate.GateResult.GRANTED);
+        security.bindResourceAccessGate(sharedReference, gate);
+
+        ResourceResolver resolver = mock(ResourceResolver.class);
+        when(resolver.getUserID()).thenReturn("editor");
+        when(resolver.getPropertyMap()).thenReturn(new HashMap<>());
+        Resource page = resource("/content/site/page");
+        when(page.getResourceResolver()).thenReturn(resolver);
+        Resource other = resource("/content/other");
+        when(other.getResourceResolver()).thenReturn(resolver);
+        assertNotNull(security.getReadableResource(page));
+        assertNotNull(security.getReadableResource(other));
+        verify(gate, times(2)).canRead(Mockito.any());
+
+        // a change for another user keeps the decisions
+        security.handleEvent(policyChanged("/content/site", "author"));
+        assertNotNull(security.getReadableResource(page));
+        verify(gate, times(2)).canRead(Mockito.any());
+
+        // the decisions below the subtree are evicted from both caches, the others are kept
+        when(gate.canRead(page)).thenReturn(ResourceAccessGate.GateResult.DENIED);
+        security.handleEvent(policyChanged("/content/site", null));
+        assertNull(security.getReadableResource(page));
+        assertNotNull(security.getReadableResource(other));
+        verify(gate, times(1)).canRead(other);
+        verify(gate, times(2)).canRead(page);
+    }
+
+    private static Event policyChanged(String path, String userId) {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(ResourceAccessPolicyEvents.PROPERTY_PATH, path);
+        if (userId != null) {
+            properties.put(ResourceAccessPolicyEvents.PROPERTY_USER_ID, userId);
+        }
+        return new Event(ResourceAccessPolicyEvents.TOPIC_POLICY_CHANGED, properties);
+    }
+
+    @Test
+    public void testGateTimeout() throws Exception {
+        ResourceAccessSecurityImpl.Config config = config();
+        // the calls which timed out are not interrupted and keep their threads
+        when(config.timed_gate_threads()).thenReturn(CircuitBreaker.TIMEOUT_THRESHOLD + 1);
+        ProviderResourceAccessSecurityImpl security =
+                new ProviderResourceAccessSecurityImpl(config, mock(BundleContext.class));
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger calls = new AtomicInteger();
+        ResourceAccessGate slowGate = gate(() -> {
+            calls.incrementAndGet();
+            release.await(10, TimeUnit.SECONDS);
+            return ResourceAccessGate.GateResult.DENIED;
+        });
+        ServiceReference<ResourceAccessGate> slowReference = reference("/content", null);
+        when(slowReference.getProperty(ResourceAccessGate.TIMEOUT)).thenReturn(20);
+        when(slowReference.getProperty(ResourceAccessGate.TIMEOUTRESULT)).thenReturn("granted");
+        security.bindResourceAccessGate(slowReference, slowGate);
+
+        try {
+            // the timeout result is used if the gate does not decide in time
+            for (int i = 0; i < CircuitBreaker.TIMEOUT_THRESHOLD; i++) {
+                assertTrue(security.canUpdate(resource("/content")));
+            }
+            assertEquals(CircuitBreaker.TIMEOUT_THRESHOLD, calls.get());
+
+            // after repeated timeouts the gate is not called anymore
+            assertTrue(security.canUpdate(resource("/content")));
+            assertEquals(CircuitBreaker.TIMEOUT_THRESHOLD, calls.get());
+        } finally {
+            release.countDown();
+            security.deactivate();
+        }
+    }
+
+    @Test
+    public void testCircuitBreaker() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker();
+        for (int i = 1; i < CircuitBreaker.TIMEOUT_THRESHOLD; i++) {
+            assertFalse(circuitBreaker.recordTimeout());
+        }
+        assertFalse(circuitBreaker.isOpen());
+        assertTrue(circuitBreaker.recordTimeout());
+        assertTrue(circuitBreaker.isOpen());
+        // the first probe is due after the probe interval
+        assertFalse(circuitBreaker.tryStartProbe());
+        circuitBreaker.recordSuccess();
+        assertFalse(circuitBreaker.isOpen());
+        assertFalse(circuitBreaker.recordTimeout());
+    }
+
+    private static boolean awaitAll(CountDownLatch latch) throws InterruptedException {
+        latch.countDown();
+        return latch.await(10, TimeUnit.SECONDS);
+    }
+
+    private static ServiceReference<ResourceAccessGate> reference(String path, String[] finalOperations) {
+        ServiceReference<ResourceAccessGate> reference = mock(ServiceReference.class);
+        when(reference.getProperty(ResourceAccessGate.PATH)).thenReturn(path);
+        when(reference.getProperty(ResourceAccessGate.FINALOPERATIONS)).thenReturn(finalOperations);
+        return reference;
+    }
+
+    private static void rank(ServiceReference<ResourceAccessGate> high, ServiceReference<ResourceAccessGate> low) {
+        when(high.compareTo(low)).thenReturn(1);
+        when(low.compareTo(high)).thenReturn(-1);
+    }
+
+    /**
+     * Returns a gate restricting updates whose update check is answered by the call.
+     */
+    private static ResourceAccessGate gate(Callable<ResourceAccessGate.GateResult> canUpdate) {
+        ResourceAccessGate gate = mock(ResourceAccessGate.class);
+        when(gate.hasUpdateRestrictions(Mockito.any())).thenReturn(true);
+        when(gate.canUpdate(Mockito.any())).thenAnswer(invocation -> canUpdate.call());
+        return gate;
+    }
+
+    /**
+     * Returns a multi-operation gate having restrictions for all operations, which answers
+     * the requested operations with the function.
+     */
+    private static MultiOperationResourceAccessGate multiOperationGate(
+            Function<ResourceAccessGate.Operation, ResourceAccessGate.GateResult> results) {
+        MultiOperationResourceAccessGate gate = mock(MultiOperationResourceAccessGate.class);
+        when(gate.hasReadRestrictions(Mockito.any())).thenReturn(true);
+        when(gate.hasUpdateRestrictions(Mockito.any())).thenReturn(true);
+        when(gate.hasDeleteRestrictions(Mockito.any())).thenReturn(true);
+        when(gate.hasExecuteRestrictions(Mockito.any())).thenReturn(true);
+        when(gate.hasOrderChildrenRestrictions(Mockito.any())).thenReturn(true);
+        when(gate.checkOperations(Mockito.any(), Mockito.any())).thenAnswer(invocation -> {
+            Map<ResourceAccessGate.Operation, ResourceAccessGate.GateResult> gateResults =
+                    new EnumMap<>(ResourceAccessGate.Operation.class);
+            for (ResourceAccessGate.Operation operation :
+                    (Set<ResourceAccessGate.Operation>) invocation.getArgument(1)) {
+                gateResults.put(operation, results.apply(operation));
+            }
+            return gateResults;
+        });
+        return gate;
+    }
+
+    /**
+     * Returns a gate having restrictions for all operations.
+     */
+    private static ResourceAccessGate restrictingGate() {
+        ResourceAccessGate gate = mock(ResourceAccessGate.class);
+        when(gate.hasUpdateRestrictions(Mockito.any())).thenReturn(true);
+        when(gate.hasDeleteRestrictions(Mockito.any())).thenReturn(true);
+        when(gate.hasExecuteRestrictions(Mockito.any())).thenReturn(true);
+        when(gate.hasOrderChildrenRestrictions(Mockito.any())).thenReturn(true);
+        return gate;
+    }
+
+    /**
+     * Returns a configuration with all attributes set to the Java default values,
+     * tests stub the attributes they need.
+     */
+    private static ResourceAccessSecurityImpl.Config config() {
+        ResourceAccessSecurityImpl.Config config = mock(ResourceAccessSecurityImpl.Config.class);
+        when(config.async_gate_threads()).thenReturn(8);
+        return config;
+    }
+
     private void initMocks(String path, String[] operations) {
+        initMocks(path, operations, config());
+    }
+
+    private void initMocks(String path, String[] operations, ResourceAccessSecurityImpl.Config config) {
         serviceReference = mock(ServiceReference.class);
         resourceAccessGate = mock(ResourceAccessGate.class);
 
@@ -211,10 +1453,9 @@ public class ResourceAccessSecurityImplTests {
         when(serviceReference.getProperty(ResourceAccessGate.PATH)).thenReturn(path);
         when(serviceReference.getProperty(ResourceAccessGate.OPERATIONS)).thenReturn(operations);
 
-        ComponentContext context = mock(ComponentContext.class);
-        when(context.locateService(Mockito.anyString(), Mockito.eq(serviceReference)))
-                .thenReturn(resourceAccessGate);
-        resourceAccessSecurity =
-                new ProviderResourceAccessSecurityImpl(Collections.singletonList(serviceReference), context);
+        ProviderResourceAccessSecurityImpl security =
+                new ProviderResourceAccessSecurityImpl(config, mock(BundleContext.class));
+        security.bindResourceAccessGate(serviceReference, resourceAccessGate);
+        resourceAccessSecurity = security;
     }
 }
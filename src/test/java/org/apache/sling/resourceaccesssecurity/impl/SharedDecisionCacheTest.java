@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.resourceaccesssecurity.impl;
+
+import java.util.Collections;
+
+import org.apache.sling.resourceaccesssecurity.ResourceAccessGate.GateResult;
+import org.apache.sling.resourceaccesssecurity.ResourceAccessGate.Operation;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SharedDecisionCacheTest {
+
+    private final GateHandlerIndex index = new GateHandlerIndex(Collections.emptyList(), false);
+
+    @Test
+    public void testGetAndPut() {
+        SharedDecisionCache cache = new SharedDecisionCache(10, 0);
+        Assert.assertNull(cache.get(index, 0, Operation.READ, "user", "/content"));
+        cache.put(index, 0, Operation.READ, "user", "/content", GateResult.GRANTED, 0);
+        Assert.assertEquals(GateResult.GRANTED, cache.get(index, 0, Operation.READ, "user", "/content"));
+        Assert.assertNull(cache.get(index, 1, Operation.READ, "user", "/content"));
+        Assert.assertNull(cache.get(index, 0, Operation.UPDATE, "user", "/content"));
+        Assert.assertNull(cache.get(index, 0, Operation.READ, "other", "/content"));
+        Assert.assertNull(cache.get(index, 0, Operation.READ, "user", "/content/a"));
+    }
+
+    @Test
+    public void testGatesChanged() {
+        SharedDecisionCache cache = new SharedDecisionCache(10, 0);
+        cache.put(index, 0, Operation.READ, "user", "/content", GateResult.GRANTED, 0);
+        GateHandlerIndex newIndex = new GateHandlerIndex(Collections.emptyList(), false);
+        Assert.assertNull(cache.get(newIndex, 0, Operation.READ, "user", "/content"));
+        cache.put(newIndex, 0, Operation.READ, "user", "/apps", GateResult.DENIED, 0);
+        Assert.assertEquals(1, cache.size());
+        // results computed for the outdated gates are not stored anymore
+        cache.put(index, 0, Operation.READ, "user", "/content", GateResult.GRANTED, 0);
+        Assert.assertNull(cache.get(newIndex, 0, Operation.READ, "user", "/content"));
+    }
+
+    @Test
+    public void testStaleResultAfterEvict() {
+        SharedDecisionCache cache = new SharedDecisionCache(10, 0);
+        long epoch = cache.getEpoch();
+        // the policy changes while the gate is called
+        cache.evict("/content", "user");
+        cache.put(index, 0, Operation.READ, "user", "/content", GateResult.GRANTED, epoch);
+        Assert.assertNull(cache.get(index, 0, Operation.READ, "user", "/content"));
+        cache.put(index, 0, Operation.READ, "user", "/content", GateResult.DENIED, cache.getEpoch());
+        Assert.assertEquals(GateResult.DENIED, cache.get(index, 0, Operation.READ, "user", "/content"));
+    }
+
+    @Test
+    public void testSizeBound() {
+        SharedDecisionCache cache = new SharedDecisionCache(100, 0);
+        for (int i = 0; i < 10_000; i++) {
+            String path = "/content/" + i;
+            cache.get(index, 0, Operation.READ, "user", path);
+            cache.put(index, 0, Operation.READ, "user", path, GateResult.GRANTED, 0);
+        }
+        Assert.assertTrue(cache.size() <= 100);
+    }
+
+    @Test
+    public void testFrequentEntriesAreKept() {
+        SharedDecisionCache cache = new SharedDecisionCache(16, 0);
+        for (int i = 0; i < 4; i++) {
+            cache.get(index, 0, Operation.READ, "user", "/popular/" + i);
+            cache.put(index, 0, Operation.READ, "user", "/popular/" + i, GateResult.GRANTED, 0);
+        }
+        // a scan of paths requested once does not evict the paths requested all the time
+        for (int i = 0; i < 1000; i++) {
+            String path = "/scan/" + i;
+            cache.get(index, 0, Operation.READ, "user", path);
+            cache.put(index, 0, Operation.READ, "user", path, GateResult.GRANTED, 0);
+            Assert.assertNotNull(cache.get(index, 0, Operation.READ, "user", "/popular/" + (i % 4)));
+        }
+    }
+
+    @Test
+    public void testFrequencySketch() {
+        SharedDecisionCache.FrequencySketch sketch = new SharedDecisionCache.FrequencySketch(64);
+        Assert.assertEquals(0, sketch.frequency(42));
+        for (int i = 0; i < 20; i++) {
+            sketch.increment(42);
+        }
+        // the counters saturate at 15
+        Assert.assertEquals(15, sketch.frequency(42));
+        // the counters are halved after ten increments per entry
+        for (int i = 0; i < 640; i++) {
+            sketch.increment(1000 + i);
+        }
+        Assert.assertTrue(sketch.frequency(42) < 15);
+    }
+}
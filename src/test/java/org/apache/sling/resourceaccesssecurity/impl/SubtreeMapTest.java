@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.resourceaccesssecurity.impl;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SubtreeMapTest {
+
+    @Test
+    public void testContainsDescendants() {
+        SubtreeMap<Boolean> subtrees = new SubtreeMap<>(10);
+        subtrees.put("/content/private", Boolean.TRUE);
+        Assert.assertTrue(subtrees.contains("/content/private"));
+        Assert.assertTrue(subtrees.contains("/content/private/a"));
+        Assert.assertTrue(subtrees.contains("/content/private/a/b"));
+        Assert.assertFalse(subtrees.contains("/content"));
+        Assert.assertFalse(subtrees.contains("/content/privately"));
+        Assert.assertFalse(subtrees.contains("/content/public/private"));
+    }
+
+    @Test
+    public void testRoot() {
+        SubtreeMap<Boolean> subtrees = new SubtreeMap<>(10);
+        Assert.assertFalse(subtrees.contains("/"));
+        subtrees.put("/", Boolean.TRUE);
+        Assert.assertTrue(subtrees.contains("/"));
+        Assert.assertTrue(subtrees.contains("/content"));
+        Assert.assertTrue(subtrees.contains("/content/a"));
+    }
+
+    @Test
+    public void testEviction() {
+        SubtreeMap<Boolean> subtrees = new SubtreeMap<>(2);
+        // enough paths to rebuild the Bloom filter several times
+        for (int i = 0; i < 100; i++) {
+            subtrees.put("/content/" + i, Boolean.TRUE);
+            Assert.assertTrue(subtrees.contains("/content/" + i + "/child"));
+        }
+        Assert.assertEquals(2, subtrees.size());
+        Assert.assertTrue(subtrees.contains("/content/98"));
+        Assert.assertTrue(subtrees.contains("/content/99"));
+        Assert.assertFalse(subtrees.contains("/content/97"));
+        Assert.assertFalse(subtrees.contains("/content/0/child"));
+    }
+
+    @Test
+    public void testClosestAncestor() {
+        SubtreeMap<String> subtrees = new SubtreeMap<>(10);
+        subtrees.put("/", "root");
+        subtrees.put("/content", "content");
+        subtrees.put("/content/a/b", "b");
+        Assert.assertEquals("root", subtrees.get("/"));
+        Assert.assertEquals("root", subtrees.get("/apps"));
+        Assert.assertEquals("content", subtrees.get("/content"));
+        Assert.assertEquals("content", subtrees.get("/content/a"));
+        Assert.assertEquals("b", subtrees.get("/content/a/b"));
+        Assert.assertEquals("b", subtrees.get("/content/a/b/c"));
+        Assert.assertNull(new SubtreeMap<String>(10).get("/content"));
+    }
+
+    @Test
+    public void testRemoveOverlapping() {
+        SubtreeMap<Boolean> subtrees = new SubtreeMap<>(10);
+        subtrees.put("/content", Boolean.TRUE);
+        subtrees.put("/content/site/page", Boolean.TRUE);
+        subtrees.put("/content/sites", Boolean.TRUE);
+        subtrees.removeOverlapping("/content/site");
+        Assert.assertEquals(1, subtrees.size());
+        Assert.assertTrue(subtrees.contains("/content/sites/a"));
+        Assert.assertFalse(subtrees.contains("/content/site/page"));
+    }
+
+    @Test
+    public void testIsInSubtree() {
+        Assert.assertTrue(SubtreeMap.isInSubtree("/content", "/content"));
+        Assert.assertTrue(SubtreeMap.isInSubtree("/content/a", "/content"));
+        Assert.assertTrue(SubtreeMap.isInSubtree("/content/a", "/"));
+        Assert.assertFalse(SubtreeMap.isInSubtree("/contents", "/content"));
+        Assert.assertFalse(SubtreeMap.isInSubtree("/content", "/content/a"));
+    }
+}